@@ -0,0 +1,87 @@
+package de.bank.atm.benchmark;
+
+import de.bank.atm.AtmApplication;
+import de.bank.atm.domain.AccountWithdrawTO;
+import de.bank.atm.service.AccountService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Debits of 8 threads against 1 (every debit contends) or 64 accounts in H2, for each atm.account.debit-mode: the
+ * single conditional statement, the versioned update with jittered retries and select for update.
+ * Run with java -jar atm-benchmarks/target/benchmarks.jar AccountContentionBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class AccountContentionBenchmark {
+
+    @Param({"STATEMENT", "OPTIMISTIC", "PESSIMISTIC"})
+    private String debitMode;
+
+    @Param({"1", "64"})
+    private int accounts;
+
+    private Path journalDirectory;
+    private ConfigurableApplicationContext context;
+    private AccountService accountService;
+
+    @Setup
+    public void setUp() throws IOException {
+        journalDirectory = Files.createTempDirectory("atm-contention-journal");
+        context = new SpringApplicationBuilder(AtmApplication.class)
+                .web(WebApplicationType.NONE)
+                .profiles("loadtest")
+                .properties("atm.account.debit-mode=" + debitMode,
+                        "atm.journal.directory=" + journalDirectory,
+                        "atm.state.flush-interval-ms=60000")
+                .run();
+        accountService = context.getBean(AccountService.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+        FileSystemUtils.deleteRecursively(journalDirectory.toFile());
+    }
+
+    @Benchmark
+    public AccountWithdrawTO debit(Outcomes outcomes) {
+        // the loadtest accounts LT1..LT1000 hold enough for every debit of a run
+        String accountNumber = "LT" + (1 + ThreadLocalRandom.current().nextInt(accounts));
+        try {
+            return accountService.withdrawAmount(accountNumber, 1L);
+        } catch (OptimisticLockingFailureException e) {
+            outcomes.exhausted++;
+            return null;
+        }
+    }
+
+    /**
+     * Debits which used up their optimistic retries, reported by JMH next to the throughput.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcomes {
+        public long exhausted;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            exhausted = 0;
+        }
+    }
+}
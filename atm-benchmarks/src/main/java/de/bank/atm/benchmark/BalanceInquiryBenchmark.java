@@ -0,0 +1,41 @@
+package de.bank.atm.benchmark;
+
+import de.bank.atm.service.ATMService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ATMService.checkAccountBalance, i.e. the balance lookup and its formatting, for balances of different lengths.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BalanceInquiryBenchmark {
+
+    @Param({"2300", "273859", "12345678990"})
+    private long balanceInCents;
+
+    private TemporaryJournals journals;
+    private ATMService atmService;
+
+    @Setup
+    public void setUp() throws IOException {
+        journals = new TemporaryJournals();
+        atmService = ServiceFixtures.atmService(ServiceFixtures.atmStateHolder(journals.journals()), balanceInCents);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        journals.close();
+    }
+
+    @Benchmark
+    public String checkAccountBalance() {
+        return atmService.checkAccountBalance("1234");
+    }
+}
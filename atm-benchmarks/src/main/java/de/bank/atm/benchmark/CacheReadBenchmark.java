@@ -0,0 +1,50 @@
+package de.bank.atm.benchmark;
+
+import de.bank.atm.cache.BoundedExpiringCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Balance cache reads of 8 threads, all on one hot account or spread over 10000 accounts, with one in 100 reads
+ * writing a new balance as a debit would.
+ * Run with java -jar atm-benchmarks/target/benchmarks.jar CacheReadBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class CacheReadBenchmark {
+
+    @Param({"1", "10000"})
+    private int accounts;
+
+    private String[] accountNumbers;
+    private BoundedExpiringCache<String, Long> cache;
+
+    @Setup
+    public void setUp() {
+        accountNumbers = new String[accounts];
+        cache = new BoundedExpiringCache<>(10000, Duration.ofMinutes(10));
+        for (int i = 0; i < accounts; i++) {
+            accountNumbers[i] = String.format("%08d", i);
+            cache.put(accountNumbers[i], 100000L);
+        }
+    }
+
+    @Benchmark
+    public Long read() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String accountNumber = accountNumbers[random.nextInt(accounts)];
+        if (random.nextInt(100) == 0) {
+            cache.put(accountNumber, 100000L);
+            return null;
+        }
+        return cache.get(accountNumber);
+    }
+}
@@ -0,0 +1,26 @@
+package de.bank.atm.benchmark;
+
+import de.bank.atm.domain.Denomination;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Denomination.findByValue for the first and last denomination and for a value that is not a note.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DenominationBenchmark {
+
+    @Param({"5", "50", "100"})
+    private long value;
+
+    @Benchmark
+    public Denomination findByValue() {
+        return Denomination.findByValue(value);
+    }
+}
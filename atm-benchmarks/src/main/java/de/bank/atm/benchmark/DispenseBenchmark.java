@@ -0,0 +1,132 @@
+package de.bank.atm.benchmark;
+
+import de.bank.atm.domain.Denomination;
+import de.bank.atm.entity.ATMState;
+import de.bank.atm.service.CassetteInventory;
+import de.bank.atm.service.DispenseEngine;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the precomputed {@link DispenseEngine} lookup with the greedy loop ATMServiceImpl used before.
+ * precomputedPlan plans against unchanged stacks, depletingPlan takes the planned notes out of stacks just above the
+ * caps, so almost every withdrawal changes the table and pays for its update.
+ * Run with java -jar atm-benchmarks/target/benchmarks.jar DispenseBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispenseBenchmark {
+
+    @Param({"20", "75", "100", "245"})
+    private long amount;
+
+    @Param({"FULL", "NO_FIVES", "FEW_FIFTIES"})
+    private String inventory;
+
+    private ATMState atmState;
+    private CassetteInventory cassettes;
+    private DispenseEngine dispenseEngine;
+
+    @Setup
+    public void setUp() {
+        switch (inventory) {
+            case "NO_FIVES":
+                atmState = new ATMState(null, "T1", 0L, 0L, 100L, 100L, 100L, LocalDateTime.now());
+                break;
+            case "FEW_FIFTIES":
+                atmState = new ATMState(null, "T1", 0L, 100L, 100L, 100L, 1L, LocalDateTime.now());
+                break;
+            default:
+                atmState = new ATMState(null, "T1", 0L, 100L, 100L, 100L, 100L, LocalDateTime.now());
+        }
+        cassettes = new CassetteInventory();
+        for (Denomination denomination : Denomination.values()) {
+            cassettes.set(denomination, atmState.getStackByDenomination(denomination));
+        }
+        dispenseEngine = new DispenseEngine();
+    }
+
+    @Benchmark
+    public Map<Denomination, Long> precomputedPlan() {
+        return dispenseEngine.plan(cassettes, amount);
+    }
+
+    @Benchmark
+    public Map<Denomination, Long> depletingPlan(Depleting depleting) {
+        Map<Denomination, Long> notes = depleting.dispenseEngine.plan(depleting.cassettes, amount);
+        if (notes == null) {
+            depleting.refill();
+        } else {
+            depleting.cassettes.reserve(notes);
+        }
+        return notes;
+    }
+
+    @Benchmark
+    public Map<Denomination, Long> greedyLoop() {
+        return greedy(atmState, amount);
+    }
+
+    // the dispense loop of ATMServiceImpl.withrawAccountBalance before the DispenseEngine was introduced
+    private static Map<Denomination, Long> greedy(ATMState atmState, long amount) {
+        Map<Denomination, Long> notesDispensed = new HashMap<>();
+        if (atmState.getStackByDenomination(Denomination.FIVE) > 0) {
+            if ((amount / 5L) % 2 == 0) {
+                amount = amount - 10L;
+                notesDispensed.put(Denomination.FIVE, 2L);
+            } else {
+                amount = amount - 5L;
+                notesDispensed.put(Denomination.FIVE, 1L);
+            }
+        }
+        List<Long> noteValues = Arrays.stream(Denomination.values())
+                .map(Denomination::getValue)
+                .sorted(Comparator.reverseOrder())
+                .collect(Collectors.toList());
+        for (Long noteValue : noteValues) {
+            if (amount >= noteValue) {
+                long numberOfNotes = amount / noteValue;
+                Denomination relevantDenomination = Denomination.findByValue(noteValue);
+                if (atmState.getStackByDenomination(relevantDenomination) >= numberOfNotes) {
+                    amount = amount - (numberOfNotes * noteValue);
+                    notesDispensed.put(relevantDenomination, numberOfNotes);
+                }
+            }
+        }
+        return amount == 0 ? notesDispensed : null;
+    }
+
+    /**
+     * Cassettes refilled to a little above what one withdrawal can take whenever the amount cannot be dispensed anymore.
+     */
+    @State(Scope.Thread)
+    public static class Depleting {
+        private final CassetteInventory cassettes = new CassetteInventory();
+        private final DispenseEngine dispenseEngine = new DispenseEngine();
+
+        @Setup(Level.Iteration)
+        public void refill() {
+            cassettes.set(Denomination.FIVE, 60L);
+            cassettes.set(Denomination.TEN, 30L);
+            cassettes.set(Denomination.TWENTY, 20L);
+            cassettes.set(Denomination.FIFTY, 10L);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DispenseBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
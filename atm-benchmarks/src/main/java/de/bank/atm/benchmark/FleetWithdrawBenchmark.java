@@ -0,0 +1,76 @@
+package de.bank.atm.benchmark;
+
+import de.bank.atm.domain.Denomination;
+import de.bank.atm.domain.ReplenishmentCounts;
+import de.bank.atm.service.ATMService;
+import de.bank.atm.service.ATMStateHolder;
+import de.bank.atm.service.TerminalState;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Withdrawal throughput of a fleet: the benchmark threads are spread evenly over the given number of terminals.
+ * With one terminal all threads contend on the same cassettes and journal, with as many terminals as threads
+ * nothing is shared and the throughput should grow with the number of cores. Change the thread count with -t.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class FleetWithdrawBenchmark {
+
+    private static final BigDecimal AMOUNT = new BigDecimal("100");
+
+    @State(Scope.Benchmark)
+    public static class Fleet {
+
+        @Param({"1", "2", "4", "8"})
+        private int terminals;
+
+        private TemporaryJournals journals;
+        private ATMStateHolder atmStateHolder;
+        private ATMService atmService;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+            journals = new TemporaryJournals();
+            atmStateHolder = ServiceFixtures.atmStateHolder(journals.journals());
+            atmService = ServiceFixtures.atmService(atmStateHolder, Long.MAX_VALUE);
+            for (int i = 0; i < terminals; i++) {
+                atmStateHolder.terminal("T" + i).replenish(ReplenishmentCounts.of(1000, 1000, 1000, 1000));
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            journals.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        private String terminalId;
+        private TerminalState terminal;
+
+        @Setup(Level.Iteration)
+        public void setUp(Fleet fleet, ThreadParams threadParams) {
+            terminalId = "T" + threadParams.getThreadIndex() % fleet.terminals;
+            terminal = fleet.atmStateHolder.terminal(terminalId);
+        }
+    }
+
+    @Benchmark
+    public Map<Denomination, Long> withdraw(Fleet fleet, Client client) {
+        Map<Denomination, Long> notes = fleet.atmService.withrawAccountBalance(client.terminalId, "1234", AMOUNT);
+        client.terminal.inventory().release(notes);
+        return notes;
+    }
+}
@@ -0,0 +1,245 @@
+package de.bank.atm.benchmark;
+
+import de.bank.atm.entity.ATMState;
+import de.bank.atm.repository.ATMStateRepository;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import javax.persistence.EntityNotFoundException;
+import java.beans.PropertyDescriptor;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * ATMState snapshots kept in memory, for running the services without a database. Query by example matches the
+ * non-null properties of the probe exactly and honours the ignored paths of its matcher only.
+ */
+public class InMemoryATMStateRepository implements ATMStateRepository {
+
+    private final Map<Long, ATMState> states = new LinkedHashMap<>();
+    private long lastId;
+
+    @Override
+    public synchronized Optional<ATMState> findFirstByTerminalIdOrderByChangeTimeDesc(String terminalId) {
+        return stream(state -> state.getTerminalId().equals(terminalId))
+                .max(Comparator.comparing(ATMState::getChangeTime));
+    }
+
+    @Override
+    public synchronized List<String> findTerminalIds() {
+        return states.values().stream().map(ATMState::getTerminalId).distinct().collect(Collectors.toList());
+    }
+
+    @Override
+    public synchronized Optional<ATMState> findFirstByTerminalIdAndChangeTimeGreaterThanEqualOrderByChangeTimeAsc(
+            String terminalId, LocalDateTime from) {
+        return stream(state -> state.getTerminalId().equals(terminalId) && !state.getChangeTime().isBefore(from))
+                .min(Comparator.comparing(ATMState::getChangeTime));
+    }
+
+    @Override
+    public synchronized Optional<ATMState> findFirstByTerminalIdAndChangeTimeLessThanOrderByChangeTimeDesc(
+            String terminalId, LocalDateTime before) {
+        return stream(state -> state.getTerminalId().equals(terminalId) && state.getChangeTime().isBefore(before))
+                .max(Comparator.comparing(ATMState::getChangeTime));
+    }
+
+    @Override
+    public synchronized int deleteSnapshotsExcept(String terminalId, LocalDateTime from, LocalDateTime before,
+                                                  Long keepId) {
+        int sizeBefore = states.size();
+        states.values().removeIf(state -> state.getTerminalId().equals(terminalId)
+                && !state.getChangeTime().isBefore(from) && state.getChangeTime().isBefore(before)
+                && !state.getId().equals(keepId));
+        return sizeBefore - states.size();
+    }
+
+    @Override
+    public synchronized List<ATMState> findAll() {
+        return new ArrayList<>(states.values());
+    }
+
+    @Override
+    public synchronized List<ATMState> findAll(Sort sort) {
+        return stream(state -> true).sorted(comparator(sort)).collect(Collectors.toList());
+    }
+
+    @Override
+    public synchronized Page<ATMState> findAll(Pageable pageable) {
+        return page(findAll(pageable.getSort()), pageable);
+    }
+
+    @Override
+    public synchronized List<ATMState> findAllById(Iterable<Long> ids) {
+        List<ATMState> found = new ArrayList<>();
+        ids.forEach(id -> findById(id).ifPresent(found::add));
+        return found;
+    }
+
+    @Override
+    public synchronized <S extends ATMState> S save(S state) {
+        if (state.getId() == null) {
+            state.setId(++lastId);
+        }
+        states.put(state.getId(), state);
+        return state;
+    }
+
+    @Override
+    public synchronized <S extends ATMState> List<S> saveAll(Iterable<S> states) {
+        List<S> saved = new ArrayList<>();
+        states.forEach(state -> saved.add(save(state)));
+        return saved;
+    }
+
+    @Override
+    public void flush() {
+        // nothing is buffered
+    }
+
+    @Override
+    public <S extends ATMState> S saveAndFlush(S state) {
+        return save(state);
+    }
+
+    @Override
+    public synchronized Optional<ATMState> findById(Long id) {
+        return Optional.ofNullable(states.get(id));
+    }
+
+    @Override
+    public synchronized ATMState getOne(Long id) {
+        return findById(id).orElseThrow(() -> new EntityNotFoundException("No ATMState with id " + id));
+    }
+
+    @Override
+    public synchronized boolean existsById(Long id) {
+        return states.containsKey(id);
+    }
+
+    @Override
+    public synchronized long count() {
+        return states.size();
+    }
+
+    @Override
+    public synchronized void deleteById(Long id) {
+        states.remove(id);
+    }
+
+    @Override
+    public synchronized void delete(ATMState state) {
+        states.remove(state.getId());
+    }
+
+    @Override
+    public synchronized void deleteAll(Iterable<? extends ATMState> states) {
+        states.forEach(this::delete);
+    }
+
+    @Override
+    public void deleteInBatch(Iterable<ATMState> states) {
+        deleteAll(states);
+    }
+
+    @Override
+    public synchronized void deleteAll() {
+        states.clear();
+    }
+
+    @Override
+    public void deleteAllInBatch() {
+        deleteAll();
+    }
+
+    @Override
+    public synchronized <S extends ATMState> Optional<S> findOne(Example<S> example) {
+        List<S> found = findAll(example);
+        if (found.size() > 1) {
+            throw new IncorrectResultSizeDataAccessException(1, found.size());
+        }
+        return found.stream().findFirst();
+    }
+
+    @Override
+    public synchronized <S extends ATMState> List<S> findAll(Example<S> example) {
+        return matching(example).collect(Collectors.toList());
+    }
+
+    @Override
+    public synchronized <S extends ATMState> List<S> findAll(Example<S> example, Sort sort) {
+        return matching(example).sorted(comparator(sort)).collect(Collectors.toList());
+    }
+
+    @Override
+    public synchronized <S extends ATMState> Page<S> findAll(Example<S> example, Pageable pageable) {
+        return page(findAll(example, pageable.getSort()), pageable);
+    }
+
+    @Override
+    public synchronized <S extends ATMState> long count(Example<S> example) {
+        return matching(example).count();
+    }
+
+    @Override
+    public synchronized <S extends ATMState> boolean exists(Example<S> example) {
+        return matching(example).findAny().isPresent();
+    }
+
+    private Stream<ATMState> stream(Predicate<ATMState> filter) {
+        return states.values().stream().filter(filter);
+    }
+
+    // the probe type is the entity type, every stored state is an instance of it
+    @SuppressWarnings("unchecked")
+    private <S extends ATMState> Stream<S> matching(Example<S> example) {
+        BeanWrapper probe = new BeanWrapperImpl(example.getProbe());
+        return (Stream<S>) stream(state -> {
+            BeanWrapper candidate = new BeanWrapperImpl(state);
+            for (PropertyDescriptor property : probe.getPropertyDescriptors()) {
+                String name = property.getName();
+                Object expected = property.getReadMethod() == null || name.equals("class")
+                        || example.getMatcher().isIgnoredPath(name) ? null : probe.getPropertyValue(name);
+                if (expected != null && !expected.equals(candidate.getPropertyValue(name))) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Comparator<ATMState> comparator(Sort sort) {
+        Comparator<ATMState> comparator = (first, second) -> 0;
+        for (Sort.Order order : sort) {
+            Comparator<ATMState> byProperty = Comparator.comparing(
+                    state -> (Comparable) new BeanWrapperImpl(state).getPropertyValue(order.getProperty()),
+                    Comparator.nullsFirst(Comparator.naturalOrder()));
+            comparator = comparator.thenComparing(order.isAscending() ? byProperty : byProperty.reversed());
+        }
+        return comparator;
+    }
+
+    private static <S> Page<S> page(List<S> sorted, Pageable pageable) {
+        if (pageable.isUnpaged()) {
+            return new PageImpl<>(sorted, pageable, sorted.size());
+        }
+        int from = (int) Math.min(pageable.getOffset(), sorted.size());
+        int to = Math.min(from + pageable.getPageSize(), sorted.size());
+        return new PageImpl<>(sorted.subList(from, to), pageable, sorted.size());
+    }
+}
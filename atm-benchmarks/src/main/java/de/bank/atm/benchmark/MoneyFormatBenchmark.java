@@ -0,0 +1,61 @@
+package de.bank.atm.benchmark;
+
+import de.bank.atm.domain.MoneyFormatter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link MoneyFormatter} with the DecimalFormat per call ATMServiceImpl.checkAccountBalance used before.
+ * The GC profiler reports the allocation per operation (gc.alloc.rate.norm).
+ * Run with java -jar atm-benchmarks/target/benchmarks.jar MoneyFormatBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MoneyFormatBenchmark {
+
+    @Param({"23.00", "2738.59", "123456789.90"})
+    private String amount;
+
+    private BigDecimal balance;
+    private long balanceInCents;
+
+    @Setup
+    public void setUp() {
+        balance = new BigDecimal(amount);
+        balanceInCents = balance.movePointRight(2).longValueExact();
+    }
+
+    @Benchmark
+    public String decimalFormatPerCall() {
+        DecimalFormat decimalFormat = new DecimalFormat("#,##0.00");
+        return decimalFormat.format(balance);
+    }
+
+    @Benchmark
+    public String moneyFormatterBigDecimal() {
+        return MoneyFormatter.format(balance);
+    }
+
+    @Benchmark
+    public String moneyFormatterCents() {
+        return MoneyFormatter.format(balanceInCents);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MoneyFormatBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
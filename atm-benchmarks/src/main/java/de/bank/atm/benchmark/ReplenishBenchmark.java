@@ -0,0 +1,72 @@
+package de.bank.atm.benchmark;
+
+import de.bank.atm.domain.CurrencyNote;
+import de.bank.atm.domain.Denomination;
+import de.bank.atm.domain.ReplenishmentCounts;
+import de.bank.atm.entity.ATMState;
+import de.bank.atm.service.ATMService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The three ATMService.replenishATM variants for batches of notes cycling through all denominations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReplenishBenchmark {
+
+    private static final String TERMINAL = "T1";
+
+    @Param({"1", "100", "10000"})
+    private int batchSize;
+
+    private List<CurrencyNote> currencyNotes;
+    private ReplenishmentCounts counts;
+    private TemporaryJournals journals;
+    private ATMService atmService;
+
+    @Setup(Level.Trial)
+    public void setUpBatch() {
+        Denomination[] denominations = Denomination.values();
+        currencyNotes = new ArrayList<>(batchSize);
+        counts = new ReplenishmentCounts();
+        for (int i = 0; i < batchSize; i++) {
+            currencyNotes.add(new CurrencyNote(denominations[i % denominations.length]));
+            counts.count(denominations[i % denominations.length]);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        journals = new TemporaryJournals();
+        atmService = ServiceFixtures.atmService(ServiceFixtures.atmStateHolder(journals.journals()), 0L);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        journals.close();
+    }
+
+    @Benchmark
+    public ATMState noteList() {
+        return atmService.replenishATM(TERMINAL, currencyNotes);
+    }
+
+    @Benchmark
+    public ATMState counts() {
+        return atmService.replenishATM(TERMINAL, counts);
+    }
+
+    @Benchmark
+    public ATMState noteFeed() {
+        return atmService.replenishATM(TERMINAL, currencyNotes.stream().map(CurrencyNote::getDenomination));
+    }
+}
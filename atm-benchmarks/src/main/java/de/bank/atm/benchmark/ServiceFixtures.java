@@ -0,0 +1,75 @@
+package de.bank.atm.benchmark;
+
+import de.bank.atm.domain.AccountDebit;
+import de.bank.atm.domain.AccountWithdrawTO;
+import de.bank.atm.journal.TransactionJournals;
+import de.bank.atm.service.ATMService;
+import de.bank.atm.service.ATMServiceImpl;
+import de.bank.atm.service.ATMStateHolder;
+import de.bank.atm.service.AccountService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the ATM services without Spring or a database: every terminal starts empty, snapshots are kept in memory and
+ * every account has the given balance and can pay any amount.
+ */
+public final class ServiceFixtures {
+
+    private ServiceFixtures() {
+    }
+
+    public static ATMStateHolder atmStateHolder(TransactionJournals journals) {
+        ATMStateHolder atmStateHolder = new ATMStateHolder(new InMemoryATMStateRepository(), journals, new SimpleMeterRegistry());
+        atmStateHolder.recover();
+        return atmStateHolder;
+    }
+
+    public static ATMService atmService(ATMStateHolder atmStateHolder, long balanceInCents) {
+        return new ATMServiceImpl(atmStateHolder, new AccountService() {
+            @Override
+            public Long checkBalance(String accountNumber) {
+                return balanceInCents;
+            }
+
+            @Override
+            public AccountWithdrawTO withdrawAmount(String accountNumber, long withdrawAmountInCents) {
+                return AccountWithdrawTO.builder()
+                        .success(true)
+                        .newBalanceInCents(balanceInCents - withdrawAmountInCents)
+                        .build();
+            }
+
+            @Override
+            public List<AccountWithdrawTO> withdrawAmounts(List<AccountDebit> debits) {
+                List<AccountWithdrawTO> results = new ArrayList<>(debits.size());
+                debits.forEach(debit -> results.add(withdrawAmount(debit.getAccountNumber(), debit.getAmountInCents())));
+                return results;
+            }
+
+            @Override
+            public AccountWithdrawTO holdAmount(String holdId, String accountNumber, long amountInCents,
+                                                LocalDateTime expiresAt) {
+                return AccountWithdrawTO.builder().success(true).newBalanceInCents(balanceInCents).build();
+            }
+
+            @Override
+            public boolean commitHold(String holdId) {
+                return true;
+            }
+
+            @Override
+            public boolean releaseHold(String holdId) {
+                return true;
+            }
+
+            @Override
+            public int releaseExpiredHolds(LocalDateTime now) {
+                return 0;
+            }
+        }, 30_000L, new SimpleMeterRegistry());
+    }
+}
@@ -0,0 +1,89 @@
+package de.bank.atm.benchmark;
+
+import de.bank.atm.AtmApplication;
+import de.bank.atm.domain.ReplenishmentCounts;
+import de.bank.atm.domain.SettlementItem;
+import de.bank.atm.domain.SettlementResult;
+import de.bank.atm.service.ATMService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a batch of offline withdrawals against H2, one withrawAccountBalance call per item versus a single
+ * settleWithdrawals call. The items spread over the loadtest accounts, several items per account.
+ * Run with java -jar atm-benchmarks/target/benchmarks.jar SettlementBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SettlementBenchmark {
+
+    private static final String TERMINAL = "SETTLE";
+
+    @Param({"1000"})
+    private int items;
+
+    private Path journalDirectory;
+    private ConfigurableApplicationContext context;
+    private ATMService atmService;
+    private List<SettlementItem> batch;
+
+    @Setup
+    public void setUp() throws IOException {
+        journalDirectory = Files.createTempDirectory("atm-settlement-journal");
+        context = new SpringApplicationBuilder(AtmApplication.class)
+                .web(WebApplicationType.NONE)
+                .profiles("loadtest")
+                .properties("atm.journal.directory=" + journalDirectory,
+                        "atm.journal.sync-commit=false",
+                        "atm.state.flush-interval-ms=60000")
+                .run();
+        atmService = context.getBean(ATMService.class);
+        batch = new ArrayList<>(items);
+        for (int i = 0; i < items; i++) {
+            // the loadtest accounts LT1..LT1000 hold enough for every withdrawal of a run
+            batch.add(new SettlementItem("LT" + (1 + i % 250), new BigDecimal("20")));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void replenish() {
+        atmService.replenishATM(TERMINAL, ReplenishmentCounts.of(0, 0, 10_000_000L, 0));
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+        FileSystemUtils.deleteRecursively(journalDirectory.toFile());
+    }
+
+    @Benchmark
+    public long oneByOne() {
+        long dispensed = 0;
+        for (SettlementItem item : batch) {
+            Map<?, Long> notes = atmService.withrawAccountBalance(TERMINAL, item.getAccountNumber(), item.getAmount());
+            dispensed += notes.size();
+        }
+        return dispensed;
+    }
+
+    @Benchmark
+    public long batched() {
+        return atmService.settleWithdrawals(TERMINAL, batch).stream().filter(SettlementResult::isSuccess).count();
+    }
+}
@@ -0,0 +1,62 @@
+package de.bank.atm.benchmark;
+
+import de.bank.atm.AtmApplication;
+import de.bank.atm.domain.AccountWithdrawTO;
+import de.bank.atm.service.AccountService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Debits of 8 threads spread over the 1000 loadtest accounts, stored in 1 or 4 embedded H2 account shards.
+ * Run with java -jar atm-benchmarks/target/benchmarks.jar ShardedDebitBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class ShardedDebitBenchmark {
+
+    @Param({"1", "4"})
+    private int shards;
+
+    private Path journalDirectory;
+    private ConfigurableApplicationContext context;
+    private AccountService accountService;
+
+    @Setup
+    public void setUp() throws IOException {
+        journalDirectory = Files.createTempDirectory("atm-sharded-journal");
+        // command line arguments, application.properties would override default properties
+        context = new SpringApplicationBuilder(AtmApplication.class)
+                .web(WebApplicationType.NONE)
+                .profiles("loadtest")
+                .run("--atm.account-shards.count=" + shards,
+                        "--atm.journal.directory=" + journalDirectory,
+                        "--atm.state.flush-interval-ms=60000");
+        accountService = context.getBean(AccountService.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+        FileSystemUtils.deleteRecursively(journalDirectory.toFile());
+    }
+
+    @Benchmark
+    public AccountWithdrawTO debit() {
+        // the loadtest accounts LT1..LT1000 hold enough for every debit of a run, startup moved them to their shard
+        return accountService.withdrawAmount("LT" + (1 + ThreadLocalRandom.current().nextInt(1000)), 1L);
+    }
+}
@@ -0,0 +1,40 @@
+package de.bank.atm.benchmark;
+
+import de.bank.atm.journal.TransactionJournals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * {@link TransactionJournals} in a temporary directory which is deleted on close. Appends do not wait for the
+ * fsync, so the benchmarks measure the append and not the disk.
+ */
+class TemporaryJournals implements AutoCloseable {
+
+    private static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
+    private final Path directory;
+    private final TransactionJournals journals;
+
+    TemporaryJournals() throws IOException {
+        directory = Files.createTempDirectory("atm-journal");
+        journals = new TransactionJournals(directory, CHUNK_SIZE, 5, false, 0);
+    }
+
+    TransactionJournals journals() {
+        return journals;
+    }
+
+    @Override
+    public void close() throws IOException {
+        journals.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
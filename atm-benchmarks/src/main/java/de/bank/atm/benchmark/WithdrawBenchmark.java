@@ -0,0 +1,77 @@
+package de.bank.atm.benchmark;
+
+import de.bank.atm.domain.Denomination;
+import de.bank.atm.domain.ReplenishmentCounts;
+import de.bank.atm.exception.ATMWithdrawException;
+import de.bank.atm.service.ATMService;
+import de.bank.atm.service.ATMStateHolder;
+import de.bank.atm.service.TerminalState;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ATMService.withrawAccountBalance across amounts and inventory shapes, including the note reservation and the
+ * journal append. The dispensed notes are put back after each call so the inventory keeps its shape.
+ * Run with java -jar atm-benchmarks/target/benchmarks.jar WithdrawBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WithdrawBenchmark {
+
+    private static final String TERMINAL = "T1";
+
+    @Param({"20", "75", "100", "245"})
+    private String amount;
+
+    @Param({"FULL", "NO_FIVES", "FEW_FIFTIES"})
+    private String inventory;
+
+    private BigDecimal withdrawAmount;
+    private TemporaryJournals journals;
+    private TerminalState terminal;
+    private ATMService atmService;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        withdrawAmount = new BigDecimal(amount);
+        journals = new TemporaryJournals();
+        ATMStateHolder atmStateHolder = ServiceFixtures.atmStateHolder(journals.journals());
+        atmService = ServiceFixtures.atmService(atmStateHolder, Long.MAX_VALUE);
+        terminal = atmStateHolder.terminal(TERMINAL);
+        switch (inventory) {
+            case "NO_FIVES":
+                terminal.replenish(ReplenishmentCounts.of(0, 100, 100, 100));
+                break;
+            case "FEW_FIFTIES":
+                terminal.replenish(ReplenishmentCounts.of(100, 100, 100, 1));
+                break;
+            default:
+                terminal.replenish(ReplenishmentCounts.of(100, 100, 100, 100));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        journals.close();
+    }
+
+    @Benchmark
+    public Map<Denomination, Long> withdraw() {
+        try {
+            Map<Denomination, Long> notes = atmService.withrawAccountBalance(TERMINAL, "1234", withdrawAmount);
+            terminal.inventory().release(notes);
+            return notes;
+        } catch (ATMWithdrawException e) {
+            // e.g. 75 without 5 notes, measures the rejection
+            return null;
+        }
+    }
+}
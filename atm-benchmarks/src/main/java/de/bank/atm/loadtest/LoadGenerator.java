@@ -0,0 +1,164 @@
+package de.bank.atm.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends requests at a fixed rate, independent of how fast the responses come back (open model). Latency is taken
+ * from the time a request was due, not from when a worker got to send it, so a stalled server shows up in the
+ * percentiles instead of lowering the rate.
+ */
+class LoadGenerator {
+
+    private final String baseUrl;
+    private final int accounts;
+    private final int terminals;
+    private final int withdrawalPercentage;
+    private final ExecutorService workers;
+
+    LoadGenerator(String baseUrl, int accounts, int terminals, int withdrawalPercentage, int concurrency) {
+        this.baseUrl = baseUrl;
+        this.accounts = accounts;
+        this.terminals = terminals;
+        this.withdrawalPercentage = withdrawalPercentage;
+        this.workers = Executors.newFixedThreadPool(concurrency);
+    }
+
+    void replenishTerminals(long notesPerDenomination) throws IOException {
+        for (int i = 0; i < terminals; i++) {
+            int status = post("/api/terminals/LT" + i + "/replenishments", "{\"fives\":" + notesPerDenomination
+                    + ",\"tens\":" + notesPerDenomination + ",\"twenties\":" + notesPerDenomination
+                    + ",\"fifties\":" + notesPerDenomination + "}");
+            if (status != 200) {
+                throw new IllegalStateException("Could not replenish terminal LT" + i + ", status " + status);
+            }
+        }
+    }
+
+    RunResult run(int requestsPerSecond, int seconds) throws InterruptedException {
+        int requests = requestsPerSecond * seconds;
+        long[] latencies = new long[requests];
+        AtomicInteger errors = new AtomicInteger();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+        long start = System.nanoTime();
+        CountDownLatch done = new CountDownLatch(requests);
+        for (int i = 0; i < requests; i++) {
+            long due = start + i * intervalNanos;
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            int index = i;
+            workers.execute(() -> {
+                try {
+                    if (!isSuccess(sendRandomRequest())) {
+                        errors.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                } finally {
+                    latencies[index] = System.nanoTime() - due;
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsedNanos = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        return new RunResult(requestsPerSecond, requests * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos,
+                percentileMillis(latencies, 0.50), percentileMillis(latencies, 0.99),
+                latencies[latencies.length - 1] / 1e6, errors.get());
+    }
+
+    void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private int sendRandomRequest() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String accountNumber = "LT" + (1 + random.nextInt(accounts));
+        if (random.nextInt(100) < withdrawalPercentage) {
+            return post("/api/terminals/LT" + random.nextInt(terminals) + "/withdrawals",
+                    "{\"accountNumber\":\"" + accountNumber + "\",\"amount\":" + (20 + 5 * random.nextInt(47)) + "}");
+        }
+        return get("/api/accounts/" + accountNumber + "/balance");
+    }
+
+    // a rejected withdrawal (422) is a valid answer of the API
+    private static boolean isSuccess(int status) {
+        return status == 200 || status == 422;
+    }
+
+    private static double percentileMillis(long[] sortedLatencies, double percentile) {
+        int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)] / 1e6;
+    }
+
+    private int get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        return readResponse(connection);
+    }
+
+    private int post(String path, String json) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setDoOutput(true);
+        try (OutputStream body = connection.getOutputStream()) {
+            body.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        return readResponse(connection);
+    }
+
+    // the body is read to the end so the connection goes back into the keep-alive pool
+    private static int readResponse(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (body != null) {
+            byte[] buffer = new byte[1024];
+            try (InputStream in = body) {
+                while (in.read(buffer) >= 0) {
+                    // discard
+                }
+            }
+        }
+        return status;
+    }
+
+    static final class RunResult {
+        final int targetRate;
+        final double achievedRate;
+        final double p50Millis;
+        final double p99Millis;
+        final double maxMillis;
+        final int errors;
+
+        RunResult(int targetRate, double achievedRate, double p50Millis, double p99Millis, double maxMillis, int errors) {
+            this.targetRate = targetRate;
+            this.achievedRate = achievedRate;
+            this.p50Millis = p50Millis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+            this.errors = errors;
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT, "{\"targetRate\":%d,\"achievedRate\":%.1f,\"p50Millis\":%.2f,"
+                    + "\"p99Millis\":%.2f,\"maxMillis\":%.2f,\"errors\":%d}",
+                    targetRate, achievedRate, p50Millis, p99Millis, maxMillis, errors);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package de.bank.atm.loadtest;
+
+import de.bank.atm.AtmApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Starts the application with the loadtest profile on a random port and raises the request rate step by step
+ * until the p99 latency exceeds the target. Reports the highest rate that met it and writes every step as JSON.
+ * Run with mvn -P load-test verify -pl atm-benchmarks -am, the results end up in atm-benchmarks/target. Tune with
+ * -Dloadtest.rates=100,200,...,
+ * -Dloadtest.seconds, -Dloadtest.p99-millis, -Dloadtest.withdrawal-percentage and -Dloadtest.concurrency.
+ */
+public class LoadTest {
+
+    private static final int ACCOUNTS = 1000;
+    private static final int TERMINALS = 16;
+
+    public static void main(String[] args) throws Exception {
+        String[] rates = System.getProperty("loadtest.rates", "100,200,500,1000,2000,4000").split(",");
+        int seconds = Integer.getInteger("loadtest.seconds", 10);
+        double targetP99Millis = Double.parseDouble(System.getProperty("loadtest.p99-millis", "50"));
+        int withdrawalPercentage = Integer.getInteger("loadtest.withdrawal-percentage", 20);
+        int concurrency = Integer.getInteger("loadtest.concurrency", 256);
+        String resultFile = System.getProperty("loadtest.result-file", "load-test-result.json");
+
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(AtmApplication.class)
+                .profiles("loadtest")
+                .run(args);
+        LoadGenerator generator = null;
+        try {
+            int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+            generator = new LoadGenerator("http://localhost:" + port, ACCOUNTS, TERMINALS, withdrawalPercentage,
+                    concurrency);
+            generator.replenishTerminals(1_000_000L);
+            // warm up the JIT and the connection pool before measuring
+            generator.run(Integer.parseInt(rates[0].trim()), seconds);
+
+            List<LoadGenerator.RunResult> results = new ArrayList<>();
+            LoadGenerator.RunResult best = null;
+            for (String rate : rates) {
+                LoadGenerator.RunResult result = generator.run(Integer.parseInt(rate.trim()), seconds);
+                results.add(result);
+                System.out.println(result.toJson());
+                if (result.p99Millis > targetP99Millis || result.errors > 0) {
+                    break;
+                }
+                best = result;
+            }
+            System.out.println(best == null
+                    ? "No rate met p99 <= " + targetP99Millis + " ms"
+                    : "Highest rate with p99 <= " + targetP99Millis + " ms: " + best.targetRate + " requests/s");
+            writeResults(resultFile, targetP99Millis, results);
+        } finally {
+            if (generator != null) {
+                generator.shutdown();
+            }
+            context.close();
+        }
+    }
+
+    private static void writeResults(String resultFile, double targetP99Millis, List<LoadGenerator.RunResult> results)
+            throws IOException {
+        String json = "{\"targetP99Millis\":" + targetP99Millis + ",\"steps\":["
+                + results.stream().map(LoadGenerator.RunResult::toJson).collect(Collectors.joining(",")) + "]}";
+        Files.write(Paths.get(resultFile), json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,154 @@
+package de.bank.atm.simulation;
+
+import de.bank.atm.AtmApplication;
+import de.bank.atm.domain.Denomination;
+import de.bank.atm.exception.ATMWithdrawException.Reason;
+import de.bank.atm.service.ATMService;
+import de.bank.atm.simulation.TrafficSimulator.Operation;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Replays a synthetic traffic mix of balance inquiries, withdrawals and replenishments against ATMService in-process,
+ * with the loadtest profile and its accounts LT1..LT1000. Reports throughput and latency percentiles per operation,
+ * the withdrawal outcomes with their dispense failure rate, and how the cassettes of every terminal deplete.
+ * Run with java -cp atm-benchmarks/target/benchmarks.jar de.bank.atm.simulation.Simulation [--spring.property=...]
+ * or mvn -P simulation verify -pl atm-benchmarks -am. Tune with -Dsimulation.seconds, -Dsimulation.threads,
+ * -Dsimulation.accounts, -Dsimulation.terminals, -Dsimulation.mix=balance:6000,withdrawal:3998,replenishment:2,
+ * -Dsimulation.amounts=amount:weight,..., -Dsimulation.initial-notes and -Dsimulation.replenish-notes (per
+ * denomination), -Dsimulation.sample-ms, -Dsimulation.seed and -Dsimulation.result-file.
+ */
+public class Simulation {
+
+    // a replenishment adds far more notes than a withdrawal takes, so it is rare enough for the cassettes to run down
+    static final String DEFAULT_MIX = "balance:6000,withdrawal:3998,replenishment:2";
+    // ATM withdrawals cluster on round amounts, 100 and 200 above all
+    static final String DEFAULT_AMOUNTS = "20:6,40:9,50:14,60:7,80:5,100:22,120:4,150:7,200:16,250:10";
+
+    public static void main(String[] args) throws Exception {
+        int seconds = Integer.getInteger("simulation.seconds", 60);
+        int threads = Integer.getInteger("simulation.threads", 16);
+        int accounts = Integer.getInteger("simulation.accounts", 1000);
+        int terminals = Integer.getInteger("simulation.terminals", 4);
+        WeightedChoice<Operation> mix = WeightedChoice.parse(
+                System.getProperty("simulation.mix", DEFAULT_MIX),
+                operation -> Operation.valueOf(operation.toUpperCase(Locale.ROOT)));
+        WeightedChoice<BigDecimal> amounts = WeightedChoice.parse(
+                System.getProperty("simulation.amounts", DEFAULT_AMOUNTS), BigDecimal::new);
+        long initialNotes = Long.getLong("simulation.initial-notes", 5000L);
+        long replenishNotes = Long.getLong("simulation.replenish-notes", 500L);
+        long sampleMillis = Long.getLong("simulation.sample-ms", 1000L);
+        long seed = Long.getLong("simulation.seed", 42L);
+        String resultFile = System.getProperty("simulation.result-file", "simulation-result.json");
+        if (accounts < 1 || accounts > 1000) {
+            throw new IllegalArgumentException("simulation.accounts must be within the 1000 loadtest accounts");
+        }
+
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(AtmApplication.class)
+                .web(WebApplicationType.NONE)
+                .profiles("loadtest")
+                .run(args);
+        try {
+            TrafficSimulator simulator = new TrafficSimulator(context.getBean(ATMService.class),
+                    context.getBean(MeterRegistry.class), mix, amounts, accounts, terminals, replenishNotes, seed);
+            simulator.stockTerminals(initialNotes);
+            simulator.run(threads, seconds, sampleMillis);
+
+            String config = String.format(Locale.ROOT, "{\"seconds\":%d,\"threads\":%d,\"accounts\":%d,"
+                            + "\"terminals\":%d,\"mix\":\"%s\",\"amounts\":\"%s\",\"initialNotes\":%d,"
+                            + "\"replenishNotes\":%d,\"seed\":%d}",
+                    seconds, threads, accounts, terminals, mix, amounts, initialNotes, replenishNotes, seed);
+            String json = "{\"config\":" + config + ",\"elapsedMillis\":" + simulator.getElapsedMillis()
+                    + ",\"operations\":" + operationsJson(simulator) + ",\"withdrawals\":" + withdrawalsJson(simulator)
+                    + ",\"errors\":" + simulator.getErrors() + ",\"cassettes\":" + cassettesJson(simulator) + "}";
+            Files.write(Paths.get(resultFile), json.getBytes(StandardCharsets.UTF_8));
+            printSummary(simulator);
+            System.out.println("Results written to " + resultFile);
+        } finally {
+            context.close();
+        }
+    }
+
+    private static String operationsJson(TrafficSimulator simulator) {
+        List<String> operations = new ArrayList<>();
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram latencies = simulator.latencies(operation);
+            operations.add(String.format(Locale.ROOT, "\"%s\":{\"count\":%d,\"perSecond\":%.1f,\"p50Millis\":%.3f,"
+                            + "\"p95Millis\":%.3f,\"p99Millis\":%.3f,\"maxMillis\":%.3f}",
+                    operation, latencies.getCount(), perSecond(latencies.getCount(), simulator),
+                    latencies.percentileMillis(0.50), latencies.percentileMillis(0.95),
+                    latencies.percentileMillis(0.99), latencies.maxMillis()));
+        }
+        return "{" + String.join(",", operations) + "}";
+    }
+
+    private static String withdrawalsJson(TrafficSimulator simulator) {
+        long attempted = simulator.latencies(Operation.WITHDRAWAL).getCount();
+        List<String> failures = new ArrayList<>();
+        for (Reason reason : Reason.values()) {
+            failures.add("\"" + reason + "\":" + simulator.failures(reason));
+        }
+        return String.format(Locale.ROOT, "{\"attempted\":%d,\"dispensed\":%d,\"failureRate\":%.4f,"
+                        + "\"dispenseFailureRate\":%.4f,\"failures\":{%s}}",
+                attempted, simulator.getDispensed(), rate(attempted - simulator.getDispensed(), attempted),
+                rate(simulator.failures(Reason.INSUFFICIENT_NOTES), attempted), String.join(",", failures));
+    }
+
+    private static String cassettesJson(TrafficSimulator simulator) {
+        List<String> terminals = new ArrayList<>();
+        for (Map.Entry<String, List<long[]>> terminal : simulator.getCassetteSamples().entrySet()) {
+            List<String> samples = new ArrayList<>();
+            for (long[] sample : terminal.getValue()) {
+                StringBuilder json = new StringBuilder("{\"elapsedMillis\":").append(sample[0]);
+                for (Denomination denomination : Denomination.values()) {
+                    json.append(",\"").append(denomination).append("\":").append(sample[1 + denomination.ordinal()]);
+                }
+                samples.add(json.append('}').toString());
+            }
+            terminals.add("\"" + terminal.getKey() + "\":[" + String.join(",", samples) + "]");
+        }
+        return "{" + String.join(",", terminals) + "}";
+    }
+
+    private static void printSummary(TrafficSimulator simulator) {
+        System.out.printf(Locale.ROOT, "%-14s %10s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "per s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram latencies = simulator.latencies(operation);
+            System.out.printf(Locale.ROOT, "%-14s %10d %10.1f %10.3f %10.3f %10.3f %10.3f%n", operation,
+                    latencies.getCount(), perSecond(latencies.getCount(), simulator), latencies.percentileMillis(0.50),
+                    latencies.percentileMillis(0.95), latencies.percentileMillis(0.99), latencies.maxMillis());
+        }
+        long attempted = simulator.latencies(Operation.WITHDRAWAL).getCount();
+        System.out.printf(Locale.ROOT, "withdrawals: %d dispensed of %d, dispense failure rate %.2f%%, errors %d%n",
+                simulator.getDispensed(), attempted,
+                100 * rate(simulator.failures(Reason.INSUFFICIENT_NOTES), attempted), simulator.getErrors());
+        simulator.getCassetteSamples().forEach((terminalId, samples) -> {
+            long[] last = samples.get(samples.size() - 1);
+            StringBuilder line = new StringBuilder(terminalId).append(" cassettes at the end:");
+            for (Denomination denomination : Denomination.values()) {
+                line.append(' ').append(denomination).append('=').append(last[1 + denomination.ordinal()]);
+            }
+            System.out.println(line);
+        });
+    }
+
+    private static double perSecond(long count, TrafficSimulator simulator) {
+        return count * 1000.0 / Math.max(1, simulator.getElapsedMillis());
+    }
+
+    private static double rate(long part, long total) {
+        return total == 0 ? 0 : part / (double) total;
+    }
+}
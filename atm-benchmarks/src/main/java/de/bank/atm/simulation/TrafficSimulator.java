@@ -0,0 +1,176 @@
+package de.bank.atm.simulation;
+
+import de.bank.atm.domain.Denomination;
+import de.bank.atm.domain.ReplenishmentCounts;
+import de.bank.atm.exception.ATMWithdrawException;
+import de.bank.atm.exception.ATMWithdrawException.Reason;
+import de.bank.atm.service.ATMService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives ATMService with a fixed number of threads, each issuing its next call as soon as the previous one returned
+ * (closed model). Every call picks its operation from the mix, and an account and a terminal uniformly; withdrawals
+ * take their amount from the amount distribution. Cassette stacks are sampled at a fixed interval from the
+ * atm.cassette.notes gauges. The random sequence of every thread is derived from one seed.
+ */
+final class TrafficSimulator {
+
+    enum Operation {
+        BALANCE, WITHDRAWAL, REPLENISHMENT
+    }
+
+    private final ATMService atmService;
+    private final MeterRegistry meterRegistry;
+    private final WeightedChoice<Operation> mix;
+    private final WeightedChoice<BigDecimal> amounts;
+    private final int accounts;
+    private final int terminals;
+    private final long replenishNotes;
+    private final long seed;
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Reason, AtomicLong> failures = new EnumMap<>(Reason.class);
+    private final AtomicLong dispensed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final Map<String, List<long[]>> cassetteSamples = new LinkedHashMap<>();
+    private long elapsedMillis;
+
+    TrafficSimulator(ATMService atmService, MeterRegistry meterRegistry, WeightedChoice<Operation> mix,
+                     WeightedChoice<BigDecimal> amounts, int accounts, int terminals, long replenishNotes, long seed) {
+        this.atmService = atmService;
+        this.meterRegistry = meterRegistry;
+        this.mix = mix;
+        this.amounts = amounts;
+        this.accounts = accounts;
+        this.terminals = terminals;
+        this.replenishNotes = replenishNotes;
+        this.seed = seed;
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+        }
+        for (Reason reason : Reason.values()) {
+            failures.put(reason, new AtomicLong());
+        }
+        for (int i = 0; i < terminals; i++) {
+            cassetteSamples.put(terminal(i), new ArrayList<>());
+        }
+    }
+
+    void stockTerminals(long notesPerDenomination) {
+        for (int i = 0; i < terminals; i++) {
+            atmService.replenishATM(terminal(i), ReplenishmentCounts.of(notesPerDenomination, notesPerDenomination,
+                    notesPerDenomination, notesPerDenomination));
+        }
+    }
+
+    void run(int threads, int seconds, long sampleMillis) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> sampleCassettes(start), 0, sampleMillis, TimeUnit.MILLISECONDS);
+        List<Thread> workers = new ArrayList<>(threads);
+        SplittableRandom seeds = new SplittableRandom(seed);
+        for (int i = 0; i < threads; i++) {
+            SplittableRandom random = seeds.split();
+            Thread worker = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    call(random);
+                }
+            }, "simulation-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        sampler.shutdown();
+        sampler.awaitTermination(1, TimeUnit.SECONDS);
+        sampleCassettes(start);
+        elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    private void call(SplittableRandom random) {
+        Operation operation = mix.next(random);
+        String accountNumber = "LT" + (1 + random.nextInt(accounts));
+        String terminalId = terminal(random.nextInt(terminals));
+        long start = System.nanoTime();
+        try {
+            switch (operation) {
+                case BALANCE:
+                    atmService.checkAccountBalance(accountNumber);
+                    break;
+                case WITHDRAWAL:
+                    atmService.withrawAccountBalance(terminalId, accountNumber, amounts.next(random));
+                    dispensed.incrementAndGet();
+                    break;
+                default:
+                    atmService.replenishATM(terminalId, ReplenishmentCounts.of(replenishNotes, replenishNotes,
+                            replenishNotes, replenishNotes));
+            }
+        } catch (ATMWithdrawException e) {
+            failures.get(e.getReason()).incrementAndGet();
+        } catch (RuntimeException e) {
+            errors.incrementAndGet();
+        } finally {
+            latencies.get(operation).record(System.nanoTime() - start);
+        }
+    }
+
+    // elapsed millis followed by the notes of every denomination
+    private void sampleCassettes(long start) {
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        cassetteSamples.forEach((terminalId, samples) -> {
+            long[] sample = new long[1 + Denomination.values().length];
+            sample[0] = elapsed;
+            for (Denomination denomination : Denomination.values()) {
+                Gauge gauge = meterRegistry.find("atm.cassette.notes")
+                        .tags("terminal", terminalId, "denomination", denomination.name()).gauge();
+                sample[1 + denomination.ordinal()] = gauge == null ? 0 : (long) gauge.value();
+            }
+            synchronized (samples) {
+                samples.add(sample);
+            }
+        });
+    }
+
+    static String terminal(int index) {
+        return "SIM" + index;
+    }
+
+    LatencyHistogram latencies(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    long failures(Reason reason) {
+        return failures.get(reason).get();
+    }
+
+    long getDispensed() {
+        return dispensed.get();
+    }
+
+    long getErrors() {
+        return errors.get();
+    }
+
+    long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    Map<String, List<long[]>> getCassetteSamples() {
+        return cassetteSamples;
+    }
+}
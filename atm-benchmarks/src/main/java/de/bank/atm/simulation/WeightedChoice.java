@@ -0,0 +1,58 @@
+package de.bank.atm.simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Function;
+
+/**
+ * Picks values with configured relative weights, written as value:weight pairs, e.g. "50:14,100:22,200:16".
+ */
+final class WeightedChoice<T> {
+
+    private final String spec;
+    private final List<T> values = new ArrayList<>();
+    private final long[] cumulativeWeights;
+
+    private WeightedChoice(String spec, List<T> values, List<Long> weights) {
+        this.spec = spec;
+        this.values.addAll(values);
+        cumulativeWeights = new long[weights.size()];
+        long total = 0;
+        for (int i = 0; i < weights.size(); i++) {
+            total += weights.get(i);
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    static <T> WeightedChoice<T> parse(String spec, Function<String, T> parser) {
+        List<T> values = new ArrayList<>();
+        List<Long> weights = new ArrayList<>();
+        for (String pair : spec.split(",")) {
+            String[] valueAndWeight = pair.trim().split(":");
+            if (valueAndWeight.length != 2 || Long.parseLong(valueAndWeight[1].trim()) < 0) {
+                throw new IllegalArgumentException("Expected value:weight pairs, got " + spec);
+            }
+            values.add(parser.apply(valueAndWeight[0].trim()));
+            weights.add(Long.parseLong(valueAndWeight[1].trim()));
+        }
+        if (weights.stream().mapToLong(Long::longValue).sum() == 0) {
+            throw new IllegalArgumentException("No value of " + spec + " has a weight");
+        }
+        return new WeightedChoice<>(spec, values, weights);
+    }
+
+    T next(SplittableRandom random) {
+        long pick = random.nextLong(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (cumulativeWeights[i] <= pick) {
+            i++;
+        }
+        return values.get(i);
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1 @@
+insert into account (id, account_number, amount_in_cents, held_in_cents, version) select next value for hibernate_sequence, 'LT' || x, 100000000000, 0, 0 from system_range(1, 1000);
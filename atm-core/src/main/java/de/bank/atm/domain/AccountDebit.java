@@ -0,0 +1,14 @@
+package de.bank.atm.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * One debit of a batch, see {@link de.bank.atm.service.AccountService#withdrawAmounts}.
+ */
+@Data
+@AllArgsConstructor
+public class AccountDebit {
+    private String accountNumber;
+    private long amountInCents;
+}
@@ -0,0 +1,19 @@
+package de.bank.atm.domain;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class AccountWithdrawTO {
+    private boolean success;
+    private long newBalanceInCents;
+    /**
+     * Version of the account row after the withdrawal, orders the published balance changes.
+     */
+    private long version;
+    /**
+     * True if the debit was not applied because the transaction of its account shard failed.
+     */
+    private boolean failed;
+}
@@ -0,0 +1,25 @@
+package de.bank.atm.domain;
+
+import java.math.BigDecimal;
+
+/**
+ * Amounts are handled as long cents inside the application and converted only where they enter or leave it.
+ */
+public final class Money {
+
+    public static final long CENTS_PER_UNIT = 100L;
+
+    private Money() {
+    }
+
+    /**
+     * @throws ArithmeticException if the amount has a fraction of a cent or does not fit into a long
+     */
+    public static long toCents(BigDecimal amount) {
+        return amount.movePointRight(2).longValueExact();
+    }
+
+    public static BigDecimal toBigDecimal(long cents) {
+        return BigDecimal.valueOf(cents, 2);
+    }
+}
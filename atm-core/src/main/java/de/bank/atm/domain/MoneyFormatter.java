@@ -0,0 +1,72 @@
+package de.bank.atm.domain;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Formats amounts like DecimalFormat("#,##0.00") with comma thousands separator and decimal point, i.e. 1,234.50.
+ * Thread-safe; every thread reuses its own buffer, so formatting only allocates the resulting String.
+ */
+public final class MoneyFormatter {
+
+    // 19 digits, 6 separators, decimal point and sign
+    private static final int MAX_LENGTH = 27;
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[MAX_LENGTH]);
+    private static final ThreadLocal<DecimalFormat> FALLBACK_FORMAT = ThreadLocal.withInitial(
+            () -> new DecimalFormat("#,##0.00", DecimalFormatSymbols.getInstance(Locale.ENGLISH)));
+
+    private MoneyFormatter() {
+    }
+
+    public static String format(BigDecimal amount) {
+        // DecimalFormat rounds half even
+        BigDecimal rounded = amount.setScale(2, RoundingMode.HALF_EVEN);
+        if (rounded.precision() > 18) {
+            return FALLBACK_FORMAT.get().format(amount);
+        }
+        long cents = rounded.unscaledValue().longValue();
+        if (cents == 0 && amount.signum() < 0) {
+            // DecimalFormat keeps the sign of negative amounts rounded to zero
+            return "-0.00";
+        }
+        return format(cents);
+    }
+
+    /**
+     * @param cents amount in the minor unit, e.g. 123450 for 1,234.50
+     */
+    public static String format(long cents) {
+        char[] buffer = BUFFER.get();
+        int pos = buffer.length;
+        boolean negative = cents < 0;
+        // count down on the negative value so that Long.MIN_VALUE works as well
+        long value = negative ? cents : -cents;
+
+        buffer[--pos] = digit(value);
+        value /= 10;
+        buffer[--pos] = digit(value);
+        value /= 10;
+        buffer[--pos] = '.';
+        int groupSize = 0;
+        do {
+            if (groupSize == 3) {
+                buffer[--pos] = ',';
+                groupSize = 0;
+            }
+            buffer[--pos] = digit(value);
+            value /= 10;
+            groupSize++;
+        } while (value != 0);
+        if (negative) {
+            buffer[--pos] = '-';
+        }
+        return new String(buffer, pos, buffer.length - pos);
+    }
+
+    private static char digit(long nonPositiveValue) {
+        return (char) ('0' - nonPositiveValue % 10);
+    }
+}
@@ -0,0 +1,35 @@
+package de.bank.atm.domain;
+
+/**
+ * Number of notes per denomination loaded into the ATM. Notes can be added in bulk or counted one at a time,
+ * either way the memory used does not depend on the number of notes.
+ */
+public class ReplenishmentCounts {
+
+    private final long[] counts = new long[Denomination.values().length];
+
+    public static ReplenishmentCounts of(long fives, long tens, long twenties, long fifties) {
+        return new ReplenishmentCounts()
+                .add(Denomination.FIVE, fives)
+                .add(Denomination.TEN, tens)
+                .add(Denomination.TWENTY, twenties)
+                .add(Denomination.FIFTY, fifties);
+    }
+
+    public ReplenishmentCounts add(Denomination denomination, long nrOfNotes) {
+        if (nrOfNotes < 0) {
+            throw new IllegalArgumentException("Number of notes must not be negative: " + nrOfNotes);
+        }
+        counts[denomination.ordinal()] += nrOfNotes;
+        return this;
+    }
+
+    public ReplenishmentCounts count(Denomination denomination) {
+        counts[denomination.ordinal()]++;
+        return this;
+    }
+
+    public long get(Denomination denomination) {
+        return counts[denomination.ordinal()];
+    }
+}
@@ -0,0 +1,18 @@
+package de.bank.atm.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+/**
+ * A withdrawal a terminal made offline and that is settled later as part of a batch.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SettlementItem {
+    private String accountNumber;
+    private BigDecimal amount;
+}
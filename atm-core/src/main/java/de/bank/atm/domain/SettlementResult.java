@@ -0,0 +1,32 @@
+package de.bank.atm.domain;
+
+import de.bank.atm.exception.ATMWithdrawException.Reason;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * Outcome of one settled withdrawal: the notes taken out of the cassettes, or the reason it was rejected.
+ */
+@Data
+@AllArgsConstructor
+public class SettlementResult {
+    private String accountNumber;
+    private BigDecimal amount;
+    private Map<Denomination, Long> notes;
+    private Reason reason;
+
+    public static SettlementResult settled(SettlementItem item, Map<Denomination, Long> notes) {
+        return new SettlementResult(item.getAccountNumber(), item.getAmount(), notes, null);
+    }
+
+    public static SettlementResult rejected(SettlementItem item, Reason reason) {
+        return new SettlementResult(item.getAccountNumber(), item.getAmount(), null, reason);
+    }
+
+    public boolean isSuccess() {
+        return reason == null;
+    }
+}
@@ -0,0 +1,23 @@
+package de.bank.atm.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The first withdrawal seen for a client request id and its outcome, completed once the withdrawal finished.
+ */
+@Getter
+@AllArgsConstructor
+public class WithdrawalAttempt {
+    private final String accountNumber;
+    private final BigDecimal amount;
+    private final CompletableFuture<Map<Denomination, Long>> result;
+
+    public boolean matches(String accountNumber, BigDecimal amount) {
+        return this.accountNumber.equals(accountNumber) && this.amount.compareTo(amount) == 0;
+    }
+}
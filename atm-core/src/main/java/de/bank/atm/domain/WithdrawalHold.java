@@ -0,0 +1,22 @@
+package de.bank.atm.domain;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * A reserved withdrawal: its notes are taken out of the cassettes and its amount is held on the account until the
+ * dispense is confirmed or cancelled, or until it expires.
+ */
+@Data
+@Builder
+public class WithdrawalHold {
+    private String holdId;
+    private String terminalId;
+    private String accountNumber;
+    private long amountInCents;
+    private Map<Denomination, Long> notes;
+    private LocalDateTime expiresAt;
+}
@@ -0,0 +1,21 @@
+package de.bank.atm.exception;
+
+public class ATMWithdrawException extends RuntimeException {
+
+    public enum Reason {
+        INVALID_AMOUNT, OUT_OF_RANGE, NO_ATM_STATE, INSUFFICIENT_NOTES, UNKNOWN_ACCOUNT, INSUFFICIENT_FUNDS, UNKNOWN_HOLD,
+        LEDGER_FAILURE
+    }
+
+    private final Reason reason;
+
+    // a rejected withdrawal is an expected outcome, filling in the stack trace would cost more than the withdrawal
+    public ATMWithdrawException(Reason reason, String message) {
+        super(message, null, false, false);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
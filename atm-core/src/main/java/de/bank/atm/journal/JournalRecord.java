@@ -0,0 +1,31 @@
+package de.bank.atm.journal;
+
+import de.bank.atm.domain.Denomination;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * One withdrawal or replenishment. notes holds the notes dispensed or loaded per denomination, stacksAfter the
+ * ATM stacks right after the change as far as journaled, both indexed by Denomination ordinal. A reversal takes back a
+ * journaled withdrawal which was not committed; a checkpoint starts a segment with the stacks after its sequence.
+ */
+@Data
+@Builder
+public class JournalRecord {
+
+    public enum Type {
+        WITHDRAWAL, REPLENISHMENT, REVERSAL, CHECKPOINT
+    }
+
+    private Type type;
+    private long sequence;
+    private long timestampMillis;
+    private String accountNumber;
+    private long amountInCents;
+    private long[] notes;
+    private long[] stacksAfter;
+
+    public long getNotes(Denomination denomination) {
+        return notes[denomination.ordinal()];
+    }
+}
@@ -0,0 +1,54 @@
+package de.bank.atm.journal;
+
+import de.bank.atm.domain.Denomination;
+import lombok.Getter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What a scan of the journal found: the ATM stacks after the last record and the balance change per account since the
+ * checkpoint the journal starts with, if any.
+ */
+@Getter
+public class JournalRecovery {
+
+    /**
+     * Records after the checkpoint, which is not counted.
+     */
+    private long records;
+    private long checkpointSequence;
+    /**
+     * Where the next record goes.
+     */
+    private long position;
+    private long lastSequence;
+    private long lastTimestampMillis;
+    private long[] stacks;
+    private final Map<String, Long> accountDeltasInCents = new HashMap<>();
+
+    public boolean isEmpty() {
+        return stacks == null;
+    }
+
+    public long getStack(Denomination denomination) {
+        return stacks == null ? 0L : stacks[denomination.ordinal()];
+    }
+
+    void apply(JournalRecord record, long end) {
+        if (record.getType() == JournalRecord.Type.CHECKPOINT) {
+            checkpointSequence = record.getSequence();
+        } else {
+            records++;
+        }
+        position = end;
+        lastSequence = record.getSequence();
+        lastTimestampMillis = record.getTimestampMillis();
+        stacks = record.getStacksAfter();
+        if (record.getType() == JournalRecord.Type.WITHDRAWAL) {
+            accountDeltasInCents.merge(record.getAccountNumber(), -record.getAmountInCents(), Long::sum);
+        } else if (record.getType() == JournalRecord.Type.REVERSAL) {
+            accountDeltasInCents.merge(record.getAccountNumber(), record.getAmountInCents(), Long::sum);
+        }
+    }
+}
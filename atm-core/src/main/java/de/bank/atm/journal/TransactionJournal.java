@@ -0,0 +1,482 @@
+package de.bank.atm.journal;
+
+import de.bank.atm.domain.AccountDebit;
+import de.bank.atm.domain.Denomination;
+import de.bank.atm.domain.Money;
+import de.bank.atm.domain.ReplenishmentCounts;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of withdrawals and replenishments in a memory-mapped file. Records have a fixed size and a
+ * CRC32 checksum; the file is mapped in chunks which are forced to disk by a background committer, so one fsync
+ * covers every record appended since the previous one (group commit). On open the journal is scanned up to the
+ * first missing or damaged record, which is where appending continues. The stacks a record holds count journaled
+ * changes only, so notes reserved by withdrawals that are still open or roll back are never missing after a recovery.
+ * <p>
+ * {@link #checkpoint()} rolls to a new segment which starts with a checkpoint record holding the stacks, so a recovery
+ * reads the records since the last checkpoint only. The records of the old segment are kept in
+ * {@code <file>.<last sequence>} for audit, the oldest of those beyond the retained number are deleted.
+ */
+public class TransactionJournal implements Closeable {
+    Logger logger = LoggerFactory.getLogger(TransactionJournal.class);
+
+    static final int RECORD_SIZE = 128;
+    static final int MAX_ACCOUNT_NUMBER_LENGTH = 24;
+    private static final int MAGIC = 0x41544D4A;
+    private static final int CHECKSUM_OFFSET = RECORD_SIZE - 4;
+    private static final int SCAN_RECORDS = 256;
+    private static final Denomination[] DENOMINATIONS = Denomination.values();
+
+    private final Path file;
+    private final long chunkSize;
+    private final boolean syncCommit;
+    private final int retainedSegments;
+    private final JournalRecovery recovery;
+    private final ScheduledExecutorService committer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition committed = lock.newCondition();
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private MappedByteBuffer chunk;
+    private long chunkStart;
+    private long appendedSequence;
+    private long committedSequence;
+    private final long[] stacks = new long[DENOMINATIONS.length];
+
+    /**
+     * @param chunkSize        bytes mapped at a time, rounded down to whole records
+     * @param syncCommit       if true, an append returns only once its record is forced to disk
+     * @param retainedSegments number of segments kept for audit once a checkpoint rolled past them
+     */
+    public TransactionJournal(Path file, long chunkSize, long commitIntervalMillis, boolean syncCommit,
+                              int retainedSegments) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        // a segment left by a checkpoint which stopped before replacing the journal, the journal is still complete
+        Files.deleteIfExists(nextSegment(file));
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.chunkSize = Math.max(RECORD_SIZE, chunkSize - chunkSize % RECORD_SIZE);
+        this.syncCommit = syncCommit;
+        this.retainedSegments = retainedSegments;
+        this.recovery = scan();
+        this.appendedSequence = recovery.getLastSequence();
+        this.committedSequence = appendedSequence;
+        for (Denomination denomination : DENOMINATIONS) {
+            stacks[denomination.ordinal()] = recovery.getStack(denomination);
+        }
+
+        long writePosition = recovery.getPosition();
+        if (hasDataFrom(writePosition)) {
+            // the scan stopped at a damaged record, nothing behind it may be taken for a valid record later
+            logger.warn("TransactionJournal: Discarding damaged records after sequence {}.", recovery.getLastSequence());
+            clearFrom(writePosition);
+        }
+        mapChunk(writePosition - writePosition % this.chunkSize);
+        chunk.position((int) (writePosition - chunkStart));
+
+        this.committer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transaction-journal-committer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        committer.scheduleWithFixedDelay(this::commit, commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS);
+        logger.info("TransactionJournal: Opened {} with {} records since the checkpoint at sequence {}.", file,
+                recovery.getRecords(), recovery.getCheckpointSequence());
+    }
+
+    /**
+     * @return what the journal held when it was opened
+     */
+    public JournalRecovery getRecovery() {
+        return recovery;
+    }
+
+    /**
+     * @return whether a record has room for the account number
+     */
+    public static boolean fitsAccountNumber(String accountNumber) {
+        return accountNumber.getBytes(StandardCharsets.UTF_8).length <= MAX_ACCOUNT_NUMBER_LENGTH;
+    }
+
+    /**
+     * Sets the stacks the next records start from, e.g. once the terminal was loaded from a snapshot newer than the
+     * last record.
+     */
+    public void resetStacks(long[] stacks) {
+        lock.lock();
+        try {
+            System.arraycopy(stacks, 0, this.stacks, 0, this.stacks.length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the stacks after the last record; notes reserved by withdrawals not journaled yet count as in the
+     * cassettes, as they do after a recovery
+     */
+    public long[] stacks() {
+        lock.lock();
+        try {
+            return stacks.clone();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long appendWithdrawal(String accountNumber, long amountInCents, Map<Denomination, Long> notesDispensed) {
+        long[] notes = new long[DENOMINATIONS.length];
+        notesDispensed.forEach((denomination, nrOfNotes) -> notes[denomination.ordinal()] = nrOfNotes);
+        return committed(append(JournalRecord.Type.WITHDRAWAL, accountNumber, amountInCents, notes));
+    }
+
+    /**
+     * Appends the withdrawals of a batch; with sync commit only the last record is waited for, so the whole batch
+     * costs one commit instead of one per record.
+     *
+     * @return the sequence of the last record, or the last sequence of the journal if the batch is empty
+     */
+    public long appendWithdrawals(List<AccountDebit> withdrawals, List<Map<Denomination, Long>> notesDispensed) {
+        long sequence = appendedSequence();
+        for (int i = 0; i < withdrawals.size(); i++) {
+            long[] notes = new long[DENOMINATIONS.length];
+            notesDispensed.get(i).forEach((denomination, nrOfNotes) -> notes[denomination.ordinal()] = nrOfNotes);
+            sequence = append(JournalRecord.Type.WITHDRAWAL, withdrawals.get(i).getAccountNumber(),
+                    withdrawals.get(i).getAmountInCents(), notes);
+        }
+        return committed(sequence);
+    }
+
+    public long appendReplenishment(ReplenishmentCounts counts) {
+        long[] notes = new long[DENOMINATIONS.length];
+        long amount = 0;
+        for (Denomination denomination : DENOMINATIONS) {
+            notes[denomination.ordinal()] = counts.get(denomination);
+            amount += counts.get(denomination) * denomination.getValue() * Money.CENTS_PER_UNIT;
+        }
+        return committed(append(JournalRecord.Type.REPLENISHMENT, "", amount, notes));
+    }
+
+    /**
+     * Appends a reversal for every withdrawal of a batch which was journaled but not committed after all; its notes go
+     * back into the stacks and its amount back to the account.
+     *
+     * @return the sequence of the last record, or the last sequence of the journal if the batch is empty
+     */
+    public long appendReversals(List<AccountDebit> withdrawals, List<Map<Denomination, Long>> notesDispensed) {
+        long sequence = appendedSequence();
+        for (int i = 0; i < withdrawals.size(); i++) {
+            long[] notes = new long[DENOMINATIONS.length];
+            notesDispensed.get(i).forEach((denomination, nrOfNotes) -> notes[denomination.ordinal()] = nrOfNotes);
+            sequence = append(JournalRecord.Type.REVERSAL, withdrawals.get(i).getAccountNumber(),
+                    withdrawals.get(i).getAmountInCents(), notes);
+        }
+        return committed(sequence);
+    }
+
+    /**
+     * Rolls to a new segment which starts with a checkpoint of the current stacks, e.g. once they are persisted. Every
+     * record of the old segment is forced to disk and moved to the retained segments first.
+     */
+    public void checkpoint() {
+        lock.lock();
+        try {
+            long used = chunkStart + chunk.position();
+            chunk.force();
+            committedSequence = appendedSequence;
+            committed.signalAll();
+
+            Path next = nextSegment(file);
+            FileChannel nextChannel = FileChannel.open(next, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                MappedByteBuffer nextChunk = nextChannel.map(FileChannel.MapMode.READ_WRITE, 0, chunkSize);
+                put(nextChunk, JournalRecord.Type.CHECKPOINT, appendedSequence, new byte[0], 0L,
+                        new long[DENOMINATIONS.length], stacks);
+                nextChunk.force();
+                retain(used);
+                Files.move(next, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                channel.close();
+                channel = nextChannel;
+                chunk = nextChunk;
+                chunkStart = 0;
+            } catch (IOException | RuntimeException e) {
+                nextChannel.close();
+                Files.deleteIfExists(next);
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not roll the journal " + file, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the record with the given sequence is forced to disk.
+     */
+    public void awaitCommit(long sequence) {
+        lock.lock();
+        try {
+            while (committedSequence < sequence) {
+                committed.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the journal commit", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        committer.shutdown();
+        commit();
+        channel.close();
+    }
+
+    private long append(JournalRecord.Type type, String accountNumber, long amountInCents, long[] notes) {
+        byte[] account = accountNumber.getBytes(StandardCharsets.UTF_8);
+        if (account.length > MAX_ACCOUNT_NUMBER_LENGTH) {
+            throw new IllegalArgumentException("Account number too long for the journal: " + accountNumber);
+        }
+        long sign = type == JournalRecord.Type.WITHDRAWAL ? -1 : 1;
+        long sequence;
+        lock.lock();
+        try {
+            if (chunk.remaining() < RECORD_SIZE) {
+                chunk.force();
+                mapChunk(chunkStart + chunkSize);
+            }
+            sequence = appendedSequence + 1;
+            // updated under the lock, so the stacks of later records are never older
+            for (int i = 0; i < stacks.length; i++) {
+                stacks[i] += sign * notes[i];
+            }
+            put(chunk, type, sequence, account, amountInCents, notes, stacks);
+            appendedSequence = sequence;
+        } finally {
+            lock.unlock();
+        }
+        return sequence;
+    }
+
+    private void put(ByteBuffer buffer, JournalRecord.Type type, long sequence, byte[] account, long amountInCents,
+                     long[] notes, long[] stacksAfter) {
+        int start = buffer.position();
+        buffer.putInt(MAGIC);
+        buffer.put((byte) type.ordinal());
+        buffer.put((byte) account.length);
+        buffer.putShort((short) 0);
+        buffer.putLong(sequence);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putLong(amountInCents);
+        for (long nrOfNotes : notes) {
+            buffer.putLong(nrOfNotes);
+        }
+        for (long stack : stacksAfter) {
+            buffer.putLong(stack);
+        }
+        buffer.put(account);
+        buffer.position(start + CHECKSUM_OFFSET);
+        buffer.putInt(checksum(buffer, start));
+    }
+
+    private long committed(long sequence) {
+        if (syncCommit) {
+            awaitCommit(sequence);
+        }
+        return sequence;
+    }
+
+    /**
+     * @return the sequence of the last appended record, whether committed or not
+     */
+    public long appendedSequence() {
+        lock.lock();
+        try {
+            return appendedSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void commit() {
+        MappedByteBuffer chunkToForce;
+        long sequence;
+        lock.lock();
+        try {
+            if (appendedSequence == committedSequence) {
+                return;
+            }
+            chunkToForce = chunk;
+            sequence = appendedSequence;
+        } finally {
+            lock.unlock();
+        }
+        // fsync outside the lock, appends continue meanwhile
+        chunkToForce.force();
+        lock.lock();
+        try {
+            committedSequence = Math.max(committedSequence, sequence);
+            committed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // reads many records per call; only the first record of a segment may be a checkpoint
+    private JournalRecovery scan() throws IOException {
+        JournalRecovery result = new JournalRecovery();
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_RECORDS * RECORD_SIZE);
+        long size = channel.size();
+        long position = 0;
+        while (position + RECORD_SIZE <= size) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), (size - position) / RECORD_SIZE * RECORD_SIZE));
+            while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+                // keep reading until the records are complete
+            }
+            for (int start = 0; start + RECORD_SIZE <= buffer.position(); start += RECORD_SIZE) {
+                JournalRecord record = decode(buffer, start);
+                boolean next = record != null && (record.getType() == JournalRecord.Type.CHECKPOINT
+                        ? position + start == 0 : record.getSequence() == result.getLastSequence() + 1);
+                if (!next) {
+                    return result;
+                }
+                result.apply(record, position + start + RECORD_SIZE);
+            }
+            position += buffer.position();
+        }
+        return result;
+    }
+
+    private JournalRecord decode(ByteBuffer records, int start) {
+        ByteBuffer buffer = records.duplicate();
+        buffer.limit(start + RECORD_SIZE).position(start);
+        buffer = buffer.slice();
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(CHECKSUM_OFFSET) != checksum(buffer, 0)) {
+            return null;
+        }
+        buffer.position(4);
+        JournalRecord.Type type = JournalRecord.Type.values()[buffer.get()];
+        int accountLength = buffer.get();
+        buffer.getShort();
+        JournalRecord.JournalRecordBuilder record = JournalRecord.builder()
+                .type(type)
+                .sequence(buffer.getLong())
+                .timestampMillis(buffer.getLong())
+                .amountInCents(buffer.getLong());
+        long[] notes = new long[DENOMINATIONS.length];
+        for (int i = 0; i < notes.length; i++) {
+            notes[i] = buffer.getLong();
+        }
+        long[] stacks = new long[DENOMINATIONS.length];
+        for (int i = 0; i < stacks.length; i++) {
+            stacks[i] = buffer.getLong();
+        }
+        byte[] account = new byte[accountLength];
+        buffer.get(account);
+        return record.notes(notes)
+                .stacksAfter(stacks)
+                .accountNumber(new String(account, StandardCharsets.UTF_8))
+                .build();
+    }
+
+    private int checksum(ByteBuffer buffer, int start) {
+        ByteBuffer content = buffer.duplicate();
+        content.limit(start + CHECKSUM_OFFSET).position(start);
+        synchronized (crc) {
+            crc.reset();
+            crc.update(content);
+            return (int) crc.getValue();
+        }
+    }
+
+    // copies the records of the segment for audit and deletes the oldest copies beyond the retained number
+    private void retain(long used) throws IOException {
+        if (retainedSegments > 0) {
+            Path copy = file.resolveSibling(String.format("%s.%019d", file.getFileName(), appendedSequence));
+            try (FileChannel target = FileChannel.open(copy, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (long copied = 0; copied < used; ) {
+                    copied += channel.transferTo(copied, used - copied, target);
+                }
+                target.force(false);
+            }
+        }
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(file.toAbsolutePath().getParent(),
+                file.getFileName() + ".[0-9]*")) {
+            files.forEach(segments::add);
+        }
+        Collections.sort(segments);
+        for (int i = 0; i < segments.size() - retainedSegments; i++) {
+            Files.delete(segments.get(i));
+        }
+    }
+
+    private static Path nextSegment(Path file) {
+        return file.resolveSibling(file.getFileName() + ".next");
+    }
+
+    private void mapChunk(long start) {
+        try {
+            chunk = channel.map(FileChannel.MapMode.READ_WRITE, start, chunkSize);
+            chunkStart = start;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not map the journal at " + start, e);
+        }
+    }
+
+    private boolean hasDataFrom(long position) throws IOException {
+        if (position + RECORD_SIZE > channel.size()) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        channel.read(buffer, position);
+        for (int i = 0; i < buffer.position(); i++) {
+            if (buffer.get(i) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void clearFrom(long position) throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocate(64 * RECORD_SIZE);
+        long size = channel.size();
+        while (position < size) {
+            zeros.clear().limit((int) Math.min(zeros.capacity(), size - position));
+            position += channel.write(zeros, position);
+        }
+        channel.force(false);
+    }
+}
@@ -0,0 +1,89 @@
+package de.bank.atm.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * One {@link TransactionJournal} per terminal, in the file {@code <terminalId>.journal} of the journal directory.
+ * Terminals never share a journal, so appends of different terminals never wait for each other.
+ */
+public class TransactionJournals implements Closeable {
+    Logger logger = LoggerFactory.getLogger(TransactionJournals.class);
+
+    private static final Pattern TERMINAL_ID = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+    private static final String SUFFIX = ".journal";
+
+    private final Path directory;
+    private final long chunkSize;
+    private final long commitIntervalMillis;
+    private final boolean syncCommit;
+    private final int retainedSegments;
+    private final ConcurrentMap<String, TransactionJournal> journals = new ConcurrentHashMap<>();
+
+    public TransactionJournals(Path directory, long chunkSize, long commitIntervalMillis, boolean syncCommit,
+                               int retainedSegments) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.chunkSize = chunkSize;
+        this.commitIntervalMillis = commitIntervalMillis;
+        this.syncCommit = syncCommit;
+        this.retainedSegments = retainedSegments;
+    }
+
+    /**
+     * @return the journal of the terminal, opened on first use
+     */
+    public TransactionJournal journal(String terminalId) {
+        if (!TERMINAL_ID.matcher(terminalId).matches()) {
+            throw new IllegalArgumentException("Invalid terminal id: " + terminalId);
+        }
+        return journals.computeIfAbsent(terminalId, this::open);
+    }
+
+    /**
+     * @return the terminals which have a journal file
+     */
+    public Set<String> terminalIds() {
+        Set<String> terminalIds = new TreeSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                terminalIds.add(fileName.substring(0, fileName.length() - SUFFIX.length()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not list the journals in " + directory, e);
+        }
+        return terminalIds;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (TransactionJournal journal : journals.values()) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.error("TransactionJournals.close: Could not close a journal.", e);
+            }
+        }
+    }
+
+    private TransactionJournal open(String terminalId) {
+        try {
+            return new TransactionJournal(directory.resolve(terminalId + SUFFIX), chunkSize, commitIntervalMillis,
+                    syncCommit, retainedSegments);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the journal of terminal " + terminalId, e);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package de.bank.atm.service;
+
+import de.bank.atm.domain.AccountDebit;
+import de.bank.atm.domain.AccountWithdrawTO;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * The account ledger withdrawals debit. The application implements it on JPA; a terminal embedding the core module
+ * supplies its own.
+ */
+public interface AccountService {
+
+    /**
+     * @return the balance in cents, or null if the account does not exist
+     */
+    Long checkBalance(String accountNumber);
+
+    AccountWithdrawTO withdrawAmount(String accountNumber, long withdrawAmountInCents);
+
+    /**
+     * Debits many withdrawals at once, reading and writing every account once. Debits of the same account are applied
+     * in list order, each one only if the balance left by the previous ones covers it.
+     *
+     * @return the result of every debit in list order, null where the account does not exist; a debit that could not
+     * be applied because only a part of the batch failed is marked {@link AccountWithdrawTO#isFailed() failed}
+     */
+    List<AccountWithdrawTO> withdrawAmounts(List<AccountDebit> debits);
+
+    /**
+     * Holds the amount on the account until {@link #commitHold} debits it or {@link #releaseHold} gives it back.
+     *
+     * @return null if the account does not exist, not successful if its balance not held yet is too low
+     */
+    AccountWithdrawTO holdAmount(String holdId, String accountNumber, long amountInCents, LocalDateTime expiresAt);
+
+    /**
+     * @return false, without debiting anything, if the hold was already committed or released or its account no
+     * longer holds the amount
+     */
+    boolean commitHold(String holdId);
+
+    /**
+     * @return false if the hold was already committed or released
+     */
+    boolean releaseHold(String holdId);
+
+    /**
+     * Releases every hold which expired before the given time, whoever opened it.
+     *
+     * @return the number of released holds
+     */
+    int releaseExpiredHolds(LocalDateTime now);
+}
@@ -0,0 +1,91 @@
+package de.bank.atm.service;
+
+import de.bank.atm.domain.Denomination;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Number of notes per denomination held in the ATM cassettes. All stacks live in one immutable state replaced with
+ * compare-and-set, so a withdrawal reserves all its denominations or none of them and no reader ever sees a partial
+ * reservation: concurrent withdrawals never take the same note, nor fail on notes another one is about to give back.
+ */
+public class CassetteInventory {
+
+    private static final Denomination[] DENOMINATIONS = Denomination.values();
+    // the stacks by denomination ordinal, followed by the version
+    private static final int VERSION = DENOMINATIONS.length;
+
+    private final AtomicReference<long[]> state = new AtomicReference<>(new long[DENOMINATIONS.length + 1]);
+
+    public long get(Denomination denomination) {
+        return state.get()[denomination.ordinal()];
+    }
+
+    /**
+     * @return the notes of every denomination by ordinal, all read at the same moment
+     */
+    public long[] stacks() {
+        return Arrays.copyOf(state.get(), DENOMINATIONS.length);
+    }
+
+    /**
+     * @return version which changes whenever one of the stacks changed
+     */
+    public long version() {
+        return state.get()[VERSION];
+    }
+
+    public void add(Denomination denomination, long nrOfNotes) {
+        if (nrOfNotes < 0) {
+            throw new IllegalArgumentException("Number of notes must not be negative: " + nrOfNotes);
+        }
+        update(stacks -> stacks[denomination.ordinal()] += nrOfNotes);
+    }
+
+    public void set(Denomination denomination, long nrOfNotes) {
+        update(stacks -> stacks[denomination.ordinal()] = nrOfNotes);
+    }
+
+    /**
+     * Takes the given notes out of the cassettes.
+     *
+     * @return false, without changing any stack, if one of the stacks does not hold enough notes
+     */
+    public boolean reserve(Map<Denomination, Long> notes) {
+        long[] current;
+        long[] next;
+        do {
+            current = state.get();
+            next = current.clone();
+            for (Map.Entry<Denomination, Long> note : notes.entrySet()) {
+                next[note.getKey().ordinal()] -= note.getValue();
+                if (next[note.getKey().ordinal()] < 0) {
+                    return false;
+                }
+            }
+            next[VERSION]++;
+        } while (!state.compareAndSet(current, next));
+        return true;
+    }
+
+    /**
+     * Puts reserved notes back into the cassettes.
+     */
+    public void release(Map<Denomination, Long> notes) {
+        update(stacks -> notes.forEach((denomination, nrOfNotes) -> stacks[denomination.ordinal()] += nrOfNotes));
+    }
+
+    private void update(Consumer<long[]> change) {
+        long[] current;
+        long[] next;
+        do {
+            current = state.get();
+            next = current.clone();
+            change.accept(next);
+            next[VERSION]++;
+        } while (!state.compareAndSet(current, next));
+    }
+}
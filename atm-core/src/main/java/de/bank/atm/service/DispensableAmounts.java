@@ -0,0 +1,41 @@
+package de.bank.atm.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The withdrawal amounts a terminal can dispense from its current stacks. Bit i of the mask stands for the amount
+ * 20 + 5 * i, so the whole 20-250 range fits into one long.
+ */
+public final class DispensableAmounts {
+
+    public static final DispensableAmounts NONE = new DispensableAmounts(0L);
+
+    private final long mask;
+
+    public DispensableAmounts(long mask) {
+        this.mask = mask;
+    }
+
+    public long getMask() {
+        return mask;
+    }
+
+    public boolean contains(long amount) {
+        if (amount < DispenseEngine.MIN_AMOUNT || amount > DispenseEngine.MAX_AMOUNT || amount % DispenseEngine.STEP != 0) {
+            return false;
+        }
+        return (mask & 1L << ((amount - DispenseEngine.MIN_AMOUNT) / DispenseEngine.STEP)) != 0;
+    }
+
+    /**
+     * @return the dispensable amounts in ascending order
+     */
+    public List<Long> toList() {
+        List<Long> amounts = new ArrayList<>(Long.bitCount(mask));
+        for (long remaining = mask; remaining != 0; remaining &= remaining - 1) {
+            amounts.add(DispenseEngine.MIN_AMOUNT + Long.numberOfTrailingZeros(remaining) * DispenseEngine.STEP);
+        }
+        return amounts;
+    }
+}
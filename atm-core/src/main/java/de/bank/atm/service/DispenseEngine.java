@@ -0,0 +1,192 @@
+package de.bank.atm.service;
+
+import de.bank.atm.domain.Denomination;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Looks up the dispense plan for a withdrawal amount from a table holding the smallest number of notes for every
+ * amount in the 20-250 range. The table only depends on the stacks capped at what a single withdrawal can take,
+ * so it changes only when one of those capped stacks changes. It is then updated from the previous table, replanning
+ * only the amounts the changed stacks can affect: fewer notes of a denomination only change the plans which used more
+ * of them, more notes only the amounts large enough to use more. A withdrawal which takes the last notes above the cap
+ * therefore replans a few amounts, not the whole range. Only a five stack becoming empty or refilled replans every
+ * amount, it decides whether a 5 note must be part of the plan. Next to the plans the table keeps a bit per amount that
+ * can be dispensed, which answers feasibility quotes without planning.
+ */
+public class DispenseEngine {
+
+    static final long MIN_AMOUNT = 20L;
+    static final long MAX_AMOUNT = 250L;
+    static final long STEP = 5L;
+
+    private static final int SIZE = (int) ((MAX_AMOUNT - MIN_AMOUNT) / STEP) + 1;
+    private static final Denomination[] DENOMINATIONS = Denomination.values();
+
+    private volatile PlanTable table = new PlanTable(-1, newPlans(), 0L);
+
+    /**
+     * @return the notes to dispense, or null if the amount cannot be dispensed from the current inventory
+     */
+    public Map<Denomination, Long> plan(CassetteInventory inventory, long amount) {
+        return plan(cappedStacksKey(inventory.stacks()), amount);
+    }
+
+    /**
+     * @return the amounts that can be dispensed from the current inventory
+     */
+    public DispensableAmounts dispensableAmounts(CassetteInventory inventory) {
+        return new DispensableAmounts(tableFor(cappedStacksKey(inventory.stacks())).feasible);
+    }
+
+    private Map<Denomination, Long> plan(int key, long amount) {
+        if (amount < MIN_AMOUNT || amount > MAX_AMOUNT || amount % STEP != 0) {
+            return null;
+        }
+        return tableFor(key).plans[(int) ((amount - MIN_AMOUNT) / STEP)];
+    }
+
+    private PlanTable tableFor(int key) {
+        PlanTable current = table;
+        if (current.key != key) {
+            current = current.key < 0 ? buildTable(key) : updateTable(current, key);
+            table = current;
+        }
+        return current;
+    }
+
+    private static int cappedStacksKey(long[] stacks) {
+        return cappedStacksKey(stacks[Denomination.FIVE.ordinal()], stacks[Denomination.TEN.ordinal()],
+                stacks[Denomination.TWENTY.ordinal()], stacks[Denomination.FIFTY.ordinal()]);
+    }
+
+    // every capped stack fits into 6 bits (max 250 / 5 = 50 notes)
+    private static int cappedStacksKey(long fives, long tens, long twenties, long fifties) {
+        return (int) (cap(Denomination.FIVE, fives) << 18 | cap(Denomination.TEN, tens) << 12
+                | cap(Denomination.TWENTY, twenties) << 6 | cap(Denomination.FIFTY, fifties));
+    }
+
+    private static long cap(Denomination denomination, long stack) {
+        return Math.max(0L, Math.min(stack, MAX_AMOUNT / denomination.getValue()));
+    }
+
+    private static long stackFromKey(int key, Denomination denomination) {
+        return (key >>> (6 * (DENOMINATIONS.length - 1 - denomination.ordinal()))) & 0x3F;
+    }
+
+    private static long[] stacksFromKey(int key) {
+        long[] stacks = new long[DENOMINATIONS.length];
+        for (Denomination denomination : DENOMINATIONS) {
+            stacks[denomination.ordinal()] = stackFromKey(key, denomination);
+        }
+        return stacks;
+    }
+
+    private static PlanTable buildTable(int key) {
+        long[] stacks = stacksFromKey(key);
+        Map<Denomination, Long>[] plans = newPlans();
+        long feasible = 0L;
+        for (int i = 0; i < SIZE; i++) {
+            plans[i] = bestPlan(MIN_AMOUNT + i * STEP, stacks);
+            if (plans[i] != null) {
+                feasible |= 1L << i;
+            }
+        }
+        return new PlanTable(key, plans, feasible);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Denomination, Long>[] newPlans() {
+        return new Map[SIZE];
+    }
+
+    private static PlanTable updateTable(PlanTable previous, int key) {
+        long[] before = stacksFromKey(previous.key);
+        long[] after = stacksFromKey(key);
+        if ((before[Denomination.FIVE.ordinal()] == 0) != (after[Denomination.FIVE.ordinal()] == 0)) {
+            return buildTable(key);
+        }
+        Map<Denomination, Long>[] plans = previous.plans.clone();
+        long feasible = previous.feasible;
+        for (int i = 0; i < SIZE; i++) {
+            long amount = MIN_AMOUNT + i * STEP;
+            if (affected(plans[i], amount, before, after)) {
+                plans[i] = bestPlan(amount, after);
+                feasible = plans[i] != null ? feasible | 1L << i : feasible & ~(1L << i);
+            }
+        }
+        return new PlanTable(key, plans, feasible);
+    }
+
+    // Fewer notes only remove candidate plans, so a plan which still fits stays the best one. More notes only add
+    // candidates with more notes than before, which an amount below that many notes cannot use.
+    private static boolean affected(Map<Denomination, Long> plan, long amount, long[] before, long[] after) {
+        for (Denomination denomination : DENOMINATIONS) {
+            long was = before[denomination.ordinal()];
+            long is = after[denomination.ordinal()];
+            if (is < was && plan != null && plan.getOrDefault(denomination, 0L) > is
+                    || is > was && amount >= (was + 1) * denomination.getValue()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Map<Denomination, Long> bestPlan(long amount, long[] stacks) {
+        return bestPlan(amount, stacks[Denomination.FIVE.ordinal()], stacks[Denomination.TEN.ordinal()],
+                stacks[Denomination.TWENTY.ordinal()], stacks[Denomination.FIFTY.ordinal()]);
+    }
+
+    // Prefers the smallest number of notes, and on a tie the larger denominations. At least one 5 note is
+    // dispensed whenever the ATM holds one.
+    private static Map<Denomination, Long> bestPlan(long amount, long fives, long tens, long twenties, long fifties) {
+        long bestCount = Long.MAX_VALUE;
+        long[] best = null;
+        for (long nrOfFifties = Math.min(fifties, amount / 50L); nrOfFifties >= 0; nrOfFifties--) {
+            long afterFifties = amount - nrOfFifties * 50L;
+            for (long nrOfTwenties = Math.min(twenties, afterFifties / 20L); nrOfTwenties >= 0; nrOfTwenties--) {
+                long afterTwenties = afterFifties - nrOfTwenties * 20L;
+                // every 10 note less takes two 5 notes more, so as many 10 notes as leave the 5 notes required
+                long nrOfTens = Math.min(tens, Math.floorDiv(afterTwenties - (fives > 0 ? 5L : 0L), 10L));
+                if (nrOfTens < 0) {
+                    continue;
+                }
+                long nrOfFives = (afterTwenties - nrOfTens * 10L) / 5L;
+                if (nrOfFives > fives) {
+                    continue;
+                }
+                long count = nrOfFifties + nrOfTwenties + nrOfTens + nrOfFives;
+                if (count < bestCount) {
+                    bestCount = count;
+                    best = new long[]{nrOfFives, nrOfTens, nrOfTwenties, nrOfFifties};
+                }
+            }
+        }
+        return best == null ? null : toNotesMap(best);
+    }
+
+    private static Map<Denomination, Long> toNotesMap(long[] notesByDenomination) {
+        Map<Denomination, Long> notes = new EnumMap<>(Denomination.class);
+        for (Denomination denomination : DENOMINATIONS) {
+            long nrOfNotes = notesByDenomination[denomination.ordinal()];
+            if (nrOfNotes > 0) {
+                notes.put(denomination, nrOfNotes);
+            }
+        }
+        return Collections.unmodifiableMap(notes);
+    }
+
+    private static final class PlanTable {
+        private final int key;
+        private final Map<Denomination, Long>[] plans;
+        private final long feasible;
+
+        private PlanTable(int key, Map<Denomination, Long>[] plans, long feasible) {
+            this.key = key;
+            this.plans = plans;
+            this.feasible = feasible;
+        }
+    }
+}
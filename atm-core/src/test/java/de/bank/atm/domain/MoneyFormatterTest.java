@@ -0,0 +1,46 @@
+package de.bank.atm.domain;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MoneyFormatterTest {
+
+    private final DecimalFormat decimalFormat = new DecimalFormat("#,##0.00", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
+
+    @Test
+    public void formatCents() {
+        assertThat(MoneyFormatter.format(0L)).isEqualTo("0.00");
+        assertThat(MoneyFormatter.format(5L)).isEqualTo("0.05");
+        assertThat(MoneyFormatter.format(2300L)).isEqualTo("23.00");
+        assertThat(MoneyFormatter.format(273859L)).isEqualTo("2,738.59");
+        assertThat(MoneyFormatter.format(12345678990L)).isEqualTo("123,456,789.90");
+        assertThat(MoneyFormatter.format(-100000L)).isEqualTo("-1,000.00");
+        assertThat(MoneyFormatter.format(Long.MIN_VALUE)).isEqualTo("-92,233,720,368,547,758.08");
+    }
+
+    @Test
+    public void formatIsIdenticalToDecimalFormat() {
+        String[] amounts = {"0", "0.00", "23", "2738.59", "123456789.90", "999.995", "0.125", "0.135", "-0.001",
+                "-17.5", "1000000", "99999999999999999.99", "123456789012345678901234.5678"};
+        for (String amount : amounts) {
+            BigDecimal value = new BigDecimal(amount);
+            assertThat(MoneyFormatter.format(value)).as(amount).isEqualTo(decimalFormat.format(value));
+        }
+    }
+
+    @Test
+    public void formatRandomAmountsIsIdenticalToDecimalFormat() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            BigDecimal value = BigDecimal.valueOf(random.nextLong() >> random.nextInt(64), random.nextInt(5));
+            assertThat(MoneyFormatter.format(value)).as(value.toPlainString()).isEqualTo(decimalFormat.format(value));
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package de.bank.atm.journal;
+
+import de.bank.atm.domain.AccountDebit;
+import de.bank.atm.domain.ReplenishmentCounts;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+import static de.bank.atm.domain.Denomination.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TransactionJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reopenRecoversStacksAndAccountDeltas() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("journal.bin");
+        try (TransactionJournal journal = new TransactionJournal(file, 4096, 5, true, 10)) {
+            journal.appendReplenishment(ReplenishmentCounts.of(0, 0, 0, 4));
+            withdraw(journal, "1234", 1);
+            withdraw(journal, "1234", 1);
+            withdraw(journal, "5678", 1);
+        }
+
+        try (TransactionJournal journal = new TransactionJournal(file, 4096, 5, true, 10)) {
+            JournalRecovery recovery = journal.getRecovery();
+            assertThat(recovery.getRecords()).isEqualTo(4L);
+            assertThat(recovery.getLastSequence()).isEqualTo(4L);
+            assertThat(recovery.getStack(FIFTY)).isEqualTo(1L);
+            assertThat(recovery.getAccountDeltasInCents())
+                    .containsEntry("1234", -10000L)
+                    .containsEntry("5678", -5000L);
+            // appending continues after the last record
+            assertThat(withdraw(journal, "1234", 1)).isEqualTo(5L);
+        }
+    }
+
+    @Test
+    public void recordsAfterADamagedRecordAreDiscarded() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("journal.bin");
+        try (TransactionJournal journal = new TransactionJournal(file, 4096, 5, false, 10)) {
+            for (int i = 0; i < 3; i++) {
+                journal.appendWithdrawal("1234", 1000L, Collections.singletonMap(TEN, 1L));
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{42}), TransactionJournal.RECORD_SIZE + 40);
+        }
+
+        try (TransactionJournal journal = new TransactionJournal(file, 4096, 5, false, 10)) {
+            assertThat(journal.getRecovery().getRecords()).isEqualTo(1L);
+            assertThat(journal.getRecovery().getAccountDeltasInCents()).containsEntry("1234", -1000L);
+            journal.appendWithdrawal("1234", 1000L, Collections.singletonMap(TEN, 1L));
+        }
+        // the third record was cleared, it must not follow the new second record
+        try (TransactionJournal journal = new TransactionJournal(file, 4096, 5, false, 10)) {
+            assertThat(journal.getRecovery().getRecords()).isEqualTo(2L);
+        }
+    }
+
+    @Test
+    public void appendsContinueInTheNextChunk() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("journal.bin");
+        int records = 3 * 4096 / TransactionJournal.RECORD_SIZE + 1;
+        try (TransactionJournal journal = new TransactionJournal(file, 4096, 5, false, 10)) {
+            journal.appendReplenishment(ReplenishmentCounts.of(records - 1, 0, 0, 0));
+            for (int i = 1; i < records; i++) {
+                journal.appendWithdrawal("1234", 500L, Collections.singletonMap(FIVE, 1L));
+            }
+        }
+
+        try (TransactionJournal journal = new TransactionJournal(file, 4096, 5, false, 10)) {
+            assertThat(journal.getRecovery().getRecords()).isEqualTo(records);
+            assertThat(journal.getRecovery().getStack(FIVE)).isEqualTo(0L);
+        }
+    }
+
+    @Test
+    public void awaitCommitReturnsOnceTheGroupIsForced() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("journal.bin");
+        try (TransactionJournal journal = new TransactionJournal(file, 4096, 1, false, 10)) {
+            long first = withdraw(journal, "1234", 0);
+            long second = withdraw(journal, "1234", 0);
+            journal.awaitCommit(second);
+            journal.awaitCommit(first);
+        }
+    }
+
+    @Test
+    public void batchAppendIsRecoveredRecordByRecord() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("journal.bin");
+        try (TransactionJournal journal = new TransactionJournal(file, 4096, 5, true, 10)) {
+            journal.appendReplenishment(ReplenishmentCounts.of(0, 3, 0, 0));
+            long last = journal.appendWithdrawals(
+                    Arrays.asList(new AccountDebit("1234", 1000L), new AccountDebit("5678", 2000L)),
+                    Arrays.asList(Collections.singletonMap(TEN, 1L), Collections.singletonMap(TEN, 2L)));
+            assertThat(last).isEqualTo(3L);
+            assertThat(journal.appendWithdrawals(Collections.emptyList(), Collections.emptyList())).isEqualTo(3L);
+        }
+
+        try (TransactionJournal journal = new TransactionJournal(file, 4096, 5, true, 10)) {
+            assertThat(journal.getRecovery().getRecords()).isEqualTo(3L);
+            assertThat(journal.getRecovery().getStack(TEN)).isEqualTo(0L);
+            assertThat(journal.getRecovery().getAccountDeltasInCents())
+                    .containsEntry("1234", -1000L)
+                    .containsEntry("5678", -2000L);
+        }
+    }
+
+    @Test
+    public void stacksFollowTheJournaledChanges() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("journal.bin");
+        try (TransactionJournal journal = new TransactionJournal(file, 4096, 5, false, 10)) {
+            journal.resetStacks(new long[]{0, 0, 0, 10});
+            withdraw(journal, "1234", 1);
+        }
+
+        try (TransactionJournal journal = new TransactionJournal(file, 4096, 5, false, 10)) {
+            assertThat(journal.getRecovery().getStack(FIFTY)).isEqualTo(9L);
+            journal.appendReplenishment(ReplenishmentCounts.of(0, 0, 0, 1));
+        }
+        try (TransactionJournal journal = new TransactionJournal(file, 4096, 5, false, 10)) {
+            assertThat(journal.getRecovery().getStack(FIFTY)).isEqualTo(10L);
+        }
+    }
+
+    @Test
+    public void recoveryStartsAtTheLastCheckpoint() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("journal.bin");
+        try (TransactionJournal journal = new TransactionJournal(file, 4096, 5, false, 1)) {
+            journal.appendReplenishment(ReplenishmentCounts.of(0, 0, 0, 4));
+            withdraw(journal, "1234", 1);
+            journal.checkpoint();
+            withdraw(journal, "1234", 1);
+            journal.checkpoint();
+            withdraw(journal, "5678", 1);
+        }
+
+        try (TransactionJournal journal = new TransactionJournal(file, 4096, 5, false, 1)) {
+            JournalRecovery recovery = journal.getRecovery();
+            assertThat(recovery.getCheckpointSequence()).isEqualTo(3L);
+            assertThat(recovery.getRecords()).isEqualTo(1L);
+            assertThat(recovery.getLastSequence()).isEqualTo(4L);
+            assertThat(recovery.getStack(FIFTY)).isEqualTo(1L);
+            assertThat(recovery.getAccountDeltasInCents()).containsOnlyKeys("5678");
+        }
+        // only the newest closed segment is kept
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            assertThat(files.map(path -> path.getFileName().toString()))
+                    .containsExactlyInAnyOrder("journal.bin", "journal.bin.0000000000000000003");
+        }
+    }
+
+    @Test
+    public void reversalGivesNotesAndAmountBack() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("journal.bin");
+        try (TransactionJournal journal = new TransactionJournal(file, 4096, 5, false, 10)) {
+            journal.appendReplenishment(ReplenishmentCounts.of(0, 0, 0, 2));
+            withdraw(journal, "1234", 1);
+            journal.appendReversals(Collections.singletonList(new AccountDebit("1234", 5000L)),
+                    Collections.singletonList(Collections.singletonMap(FIFTY, 1L)));
+        }
+
+        try (TransactionJournal journal = new TransactionJournal(file, 4096, 5, false, 10)) {
+            assertThat(journal.getRecovery().getRecords()).isEqualTo(3L);
+            assertThat(journal.getRecovery().getStack(FIFTY)).isEqualTo(2L);
+            assertThat(journal.getRecovery().getAccountDeltasInCents()).containsEntry("1234", 0L);
+        }
+    }
+
+    @Test
+    public void accountNumbersMustFitIntoARecord() {
+        assertThat(TransactionJournal.fitsAccountNumber("123456789012345678901234")).isTrue();
+        assertThat(TransactionJournal.fitsAccountNumber("1234567890123456789012345")).isFalse();
+    }
+
+    private long withdraw(TransactionJournal journal, String accountNumber, long fifties) {
+        return journal.appendWithdrawal(accountNumber, fifties * 5000L, Collections.singletonMap(FIFTY, fifties));
+    }
+}
@@ -0,0 +1,33 @@
+package de.bank.atm.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TransactionJournalsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void everyTerminalHasItsOwnJournal() throws IOException {
+        try (TransactionJournals journals = new TransactionJournals(folder.getRoot().toPath(), 4096, 5, false, 10)) {
+            assertThat(journals.journal("T1")).isSameAs(journals.journal("T1"));
+            assertThat(journals.journal("T1")).isNotSameAs(journals.journal("T2"));
+        }
+        try (TransactionJournals journals = new TransactionJournals(folder.getRoot().toPath(), 4096, 5, false, 10)) {
+            assertThat(journals.terminalIds()).containsExactly("T1", "T2");
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void terminalIdMustBeAFileName() throws IOException {
+        try (TransactionJournals journals = new TransactionJournals(folder.getRoot().toPath(), 4096, 5, false, 10)) {
+            journals.journal("../T1");
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package de.bank.atm.service;
+
+import de.bank.atm.domain.Denomination;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static de.bank.atm.domain.Denomination.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CassetteInventoryTest {
+
+    @Test
+    public void reserveTakesAllNotesOrNone() {
+        CassetteInventory inventory = new CassetteInventory();
+        inventory.add(FIVE, 2);
+        inventory.add(FIFTY, 1);
+
+        Map<Denomination, Long> notes = new EnumMap<>(Denomination.class);
+        notes.put(FIVE, 2L);
+        notes.put(FIFTY, 2L);
+        assertThat(inventory.reserve(notes)).isFalse();
+        assertThat(inventory.get(FIVE)).isEqualTo(2L);
+        assertThat(inventory.get(FIFTY)).isEqualTo(1L);
+
+        notes.put(FIFTY, 1L);
+        assertThat(inventory.reserve(notes)).isTrue();
+        assertThat(inventory.get(FIVE)).isEqualTo(0L);
+        assertThat(inventory.get(FIFTY)).isEqualTo(0L);
+    }
+
+    @Test
+    public void releasePutsNotesBack() {
+        CassetteInventory inventory = new CassetteInventory();
+        inventory.add(TWENTY, 3);
+        Map<Denomination, Long> notes = new EnumMap<>(Denomination.class);
+        notes.put(TWENTY, 3L);
+
+        assertThat(inventory.reserve(notes)).isTrue();
+        inventory.release(notes);
+        assertThat(inventory.get(TWENTY)).isEqualTo(3L);
+    }
+
+    @Test
+    public void versionChangesOnEveryUpdate() {
+        CassetteInventory inventory = new CassetteInventory();
+        long version = inventory.version();
+
+        inventory.add(TEN, 1);
+        assertThat(inventory.version()).isGreaterThan(version);
+    }
+
+    @Test
+    public void failedReservationNeverHidesNotesFromOthers() throws Exception {
+        CassetteInventory inventory = new CassetteInventory();
+        inventory.add(FIVE, 1);
+        Map<Denomination, Long> fiveAndTen = new EnumMap<>(Denomination.class);
+        fiveAndTen.put(FIVE, 1L);
+        fiveAndTen.put(TEN, 1L);
+        Map<Denomination, Long> five = new EnumMap<>(Denomination.class);
+        five.put(FIVE, 1L);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AtomicBoolean running = new AtomicBoolean(true);
+        Future<?> failing = executor.submit(() -> {
+            while (running.get()) {
+                assertThat(inventory.reserve(fiveAndTen)).isFalse();
+            }
+        });
+        try {
+            for (int i = 0; i < 200_000; i++) {
+                assertThat(inventory.reserve(five)).isTrue();
+                inventory.release(five);
+            }
+        } finally {
+            running.set(false);
+            failing.get(1, TimeUnit.MINUTES);
+            executor.shutdown();
+        }
+        assertThat(inventory.stacks()).containsExactly(1L, 0L, 0L, 0L);
+    }
+
+    @Test
+    public void noNoteIsDispensedTwiceUnderContention() throws Exception {
+        final long notesPerStack = 100_000L;
+        final int threads = 16;
+        final int withdrawalsPerThread = 20_000;
+        CassetteInventory inventory = new CassetteInventory();
+        for (Denomination denomination : Denomination.values()) {
+            inventory.add(denomination, notesPerStack);
+        }
+        AtomicLongArray dispensed = new AtomicLongArray(Denomination.values().length);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < withdrawalsPerThread; i++) {
+                    Map<Denomination, Long> notes = new EnumMap<>(Denomination.class);
+                    for (Denomination denomination : Denomination.values()) {
+                        if (random.nextBoolean()) {
+                            notes.put(denomination, (long) random.nextInt(1, 4));
+                        }
+                    }
+                    if (inventory.reserve(notes)) {
+                        notes.forEach((denomination, nrOfNotes) -> dispensed.addAndGet(denomination.ordinal(), nrOfNotes));
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        for (Denomination denomination : Denomination.values()) {
+            assertThat(inventory.get(denomination)).isGreaterThanOrEqualTo(0L);
+            assertThat(dispensed.get(denomination.ordinal()) + inventory.get(denomination)).isEqualTo(notesPerStack);
+        }
+    }
+}
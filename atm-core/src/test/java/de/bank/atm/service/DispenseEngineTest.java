@@ -0,0 +1,124 @@
+package de.bank.atm.service;
+
+import de.bank.atm.domain.Denomination;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+
+import static de.bank.atm.domain.Denomination.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DispenseEngineTest {
+
+    private final DispenseEngine dispenseEngine = new DispenseEngine();
+
+    @Test
+    public void dispenseSmallestNumberOfNotesWithAtLeastOne5Note() {
+        CassetteInventory inventory = inventory(2, 2, 4, 4);
+
+        Map<Denomination, Long> notes = dispenseEngine.plan(inventory, 100);
+        assertThat(notes).containsOnlyKeys(FIVE, TWENTY, FIFTY);
+        assertThat(notes.get(FIVE)).isEqualTo(2L);
+        assertThat(notes.get(TWENTY)).isEqualTo(2L);
+        assertThat(notes.get(FIFTY)).isEqualTo(1L);
+    }
+
+    @Test
+    public void dispenseAmountGreedyCouldNotDispense() {
+        // greedy takes the 50 note first and is left with 10 it cannot pay out
+        CassetteInventory inventory = inventory(1, 3, 0, 0);
+
+        Map<Denomination, Long> notes = dispenseEngine.plan(inventory, 60);
+        assertThat(notes).containsOnlyKeys(TWENTY);
+        assertThat(notes.get(TWENTY)).isEqualTo(3L);
+    }
+
+    @Test
+    public void dispenseWithoutFivesWhenNoneAvailable() {
+        CassetteInventory inventory = inventory(2, 3, 4, 0);
+
+        Map<Denomination, Long> notes = dispenseEngine.plan(inventory, 100);
+        assertThat(notes).containsOnlyKeys(FIFTY);
+        assertThat(notes.get(FIFTY)).isEqualTo(2L);
+    }
+
+    @Test
+    public void noPlanForAmountOutOfRangeOrNotMultipleOf5() {
+        CassetteInventory inventory = inventory(10, 10, 10, 10);
+
+        assertThat(dispenseEngine.plan(inventory, 15)).isNull();
+        assertThat(dispenseEngine.plan(inventory, 255)).isNull();
+        assertThat(dispenseEngine.plan(inventory, 42)).isNull();
+    }
+
+    @Test
+    public void planFollowsInventoryChanges() {
+        CassetteInventory inventory = inventory(0, 1, 0, 0);
+        assertThat(dispenseEngine.plan(inventory, 50)).isNull();
+
+        inventory.set(FIFTY, 1);
+        assertThat(dispenseEngine.plan(inventory, 50)).containsOnlyKeys(FIFTY);
+
+        inventory.set(FIVE, 1);
+        assertThat(dispenseEngine.plan(inventory, 50)).isNull();
+    }
+
+    @Test
+    public void dispensableAmountsFollowInventoryChanges() {
+        CassetteInventory inventory = new CassetteInventory();
+        assertThat(dispenseEngine.dispensableAmounts(inventory).toList()).isEmpty();
+
+        inventory.add(TWENTY, 2);
+        inventory.add(FIFTY, 1);
+        DispensableAmounts amounts = dispenseEngine.dispensableAmounts(inventory);
+        assertThat(amounts.toList()).containsExactly(20L, 40L, 50L, 70L, 90L);
+        assertThat(amounts.contains(70)).isTrue();
+        assertThat(amounts.contains(60)).isFalse();
+        assertThat(amounts.contains(15)).isFalse();
+
+        // a 5 note must be part of every withdrawal once the ATM holds one
+        inventory.add(FIVE, 1);
+        assertThat(dispenseEngine.dispensableAmounts(inventory).toList()).containsExactly(25L, 45L, 55L, 75L, 95L);
+    }
+
+    @Test
+    public void everyDispensableAmountHasAPlan() {
+        CassetteInventory inventory = inventory(1, 3, 2, 1);
+
+        DispensableAmounts amounts = dispenseEngine.dispensableAmounts(inventory);
+        for (long amount = DispenseEngine.MIN_AMOUNT; amount <= DispenseEngine.MAX_AMOUNT; amount += DispenseEngine.STEP) {
+            assertThat(amounts.contains(amount)).as("amount %d", amount).isEqualTo(dispenseEngine.plan(inventory, amount) != null);
+        }
+    }
+
+    @Test
+    public void updatedTableMatchesFreshlyBuiltOne() {
+        CassetteInventory inventory = inventory(6, 14, 27, 52);
+        Random random = new Random(42);
+        for (int change = 0; change < 2000; change++) {
+            Denomination denomination = Denomination.values()[random.nextInt(Denomination.values().length)];
+            // mostly withdrawals below the caps, now and then a refill or an empty stack
+            long stack = inventory.get(denomination);
+            int kind = random.nextInt(10);
+            inventory.set(denomination, kind == 0 ? random.nextInt(60) : kind == 1 ? 0 : Math.max(0, stack - 1 - random.nextInt(3)));
+
+            DispenseEngine fresh = new DispenseEngine();
+            assertThat(dispenseEngine.dispensableAmounts(inventory).getMask())
+                    .isEqualTo(fresh.dispensableAmounts(inventory).getMask());
+            for (long amount = DispenseEngine.MIN_AMOUNT; amount <= DispenseEngine.MAX_AMOUNT; amount += DispenseEngine.STEP) {
+                assertThat(dispenseEngine.plan(inventory, amount)).as("amount %d after change %d", amount, change)
+                        .isEqualTo(fresh.plan(inventory, amount));
+            }
+        }
+    }
+
+    private static CassetteInventory inventory(long fifties, long twenties, long tens, long fives) {
+        CassetteInventory inventory = new CassetteInventory();
+        inventory.set(FIFTY, fifties);
+        inventory.set(TWENTY, twenties);
+        inventory.set(TEN, tens);
+        inventory.set(FIVE, fives);
+        return inventory;
+    }
+}
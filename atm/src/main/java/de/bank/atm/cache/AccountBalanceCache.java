@@ -0,0 +1,53 @@
+package de.bank.atm.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Available account balances in cents, i.e. without held amounts, by account number. Hit, miss and eviction counters
+ * are exported via JMX.
+ */
+@Component
+@ManagedResource(objectName = "de.bank.atm:type=Cache,name=accountBalance")
+public class AccountBalanceCache extends BoundedExpiringCache<String, Long> {
+
+    public AccountBalanceCache(@Value("${atm.account-cache.max-size:10000}") int maxSize,
+                               @Value("${atm.account-cache.ttl-ms:30000}") long ttlMillis) {
+        super(maxSize, Duration.ofMillis(ttlMillis));
+    }
+
+    @Scheduled(fixedDelayString = "${atm.account-cache.ttl-ms:30000}")
+    @Override
+    public void cleanUp() {
+        super.cleanUp();
+    }
+
+    @ManagedAttribute
+    @Override
+    public int size() {
+        return super.size();
+    }
+
+    @ManagedAttribute
+    @Override
+    public long hitCount() {
+        return super.hitCount();
+    }
+
+    @ManagedAttribute
+    @Override
+    public long missCount() {
+        return super.missCount();
+    }
+
+    @ManagedAttribute
+    @Override
+    public long evictionCount() {
+        return super.evictionCount();
+    }
+}
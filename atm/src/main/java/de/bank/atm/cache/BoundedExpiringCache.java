@@ -0,0 +1,268 @@
+package de.bank.atm.cache;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache holding at most maxSize entries, each for at most the given time to live. Reads take no lock; writes lock
+ * only their key. Eviction is approximately least recently used: a full cache drops the least recently read of
+ * {@value #EVICTION_SAMPLES} entries sampled round robin.
+ */
+public class BoundedExpiringCache<K, V> {
+
+    static final int EVICTION_SAMPLES = 8;
+    // reads of an entry within this time record no new access, so a hot entry is not written by every read
+    private static final long ACCESS_RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier ticker;
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    // the latest load started for a key, dropped by every write to the key; changed under the lock of the key
+    private final Map<K, Object> loads = new ConcurrentHashMap<>();
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // where the next eviction samples, guarded by evictionLock
+    private Iterator<Map.Entry<K, Entry<V>>> evictionHand;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BoundedExpiringCache(int maxSize, Duration ttl) {
+        this(maxSize, ttl, System::nanoTime);
+    }
+
+    BoundedExpiringCache(int maxSize, Duration ttl, LongSupplier ticker) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.ticker = ticker;
+    }
+
+    /**
+     * @return the cached value, or null if there is none or it expired
+     */
+    public V get(K key) {
+        V value = liveValue(key);
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the cached value or loads it. The loader runs without any lock, null values are not cached. A loaded
+     * value is only cached if the key was neither written nor invalidated while it loaded, so a slow load of an old
+     * value never replaces a newer one.
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        V cached = liveValue(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        Object load = new Object();
+        Entry<V> current = entries.compute(key, (k, entry) -> {
+            if (live(entry)) {
+                return entry;
+            }
+            loads.put(k, load);
+            return null;
+        });
+        if (current != null) {
+            // written since the first look
+            hits.increment();
+            return current.value;
+        }
+        misses.increment();
+        V value = null;
+        try {
+            value = loader.apply(key);
+            return value;
+        } finally {
+            V loaded = value;
+            if (loaded != null) {
+                entries.compute(key, (k, entry) -> loads.remove(k, load) ? newEntry(loaded) : entry);
+                evictIfFull();
+            } else {
+                loads.remove(key, load);
+            }
+        }
+    }
+
+    public void put(K key, V value) {
+        entries.compute(key, (k, entry) -> {
+            loads.remove(k);
+            return newEntry(value);
+        });
+        evictIfFull();
+    }
+
+    /**
+     * Caches the value unless the key already has a live value.
+     *
+     * @return the value cached before, or null if the given value is now cached
+     */
+    public V putIfAbsent(K key, V value) {
+        Entry<V> added = newEntry(value);
+        Entry<V> current = entries.compute(key, (k, entry) -> {
+            if (live(entry)) {
+                return entry;
+            }
+            loads.remove(k);
+            return added;
+        });
+        if (current != added) {
+            return current.value;
+        }
+        evictIfFull();
+        return null;
+    }
+
+    public void invalidate(K key) {
+        entries.compute(key, (k, entry) -> {
+            loads.remove(k);
+            return null;
+        });
+    }
+
+    /**
+     * Drops the entry only while it still holds the given value.
+     */
+    public void invalidate(K key, V value) {
+        entries.computeIfPresent(key, (k, entry) -> {
+            if (entry.value != value) {
+                return entry;
+            }
+            loads.remove(k);
+            return null;
+        });
+    }
+
+    public void invalidateAll() {
+        loads.clear();
+        entries.clear();
+    }
+
+    /**
+     * Drops all expired entries.
+     */
+    public void cleanUp() {
+        long now = ticker.getAsLong();
+        entries.forEach((key, entry) -> {
+            if (entry.expired(now) && entries.remove(key, entry)) {
+                evictions.increment();
+            }
+        });
+    }
+
+    // looks the key up without counting a hit or miss, an expired entry is dropped
+    private V liveValue(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        long now = ticker.getAsLong();
+        if (entry.expired(now)) {
+            if (entries.remove(key, entry)) {
+                evictions.increment();
+            }
+            return null;
+        }
+        if (now - entry.accessedAt >= ACCESS_RESOLUTION_NANOS) {
+            entry.accessedAt = now;
+        }
+        return entry.value;
+    }
+
+    // an expired entry is counted as evicted, the caller drops it
+    private boolean live(Entry<V> entry) {
+        if (entry == null) {
+            return false;
+        }
+        if (entry.expired(ticker.getAsLong())) {
+            evictions.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private Entry<V> newEntry(V value) {
+        long now = ticker.getAsLong();
+        return new Entry<>(value, now + ttlNanos, now);
+    }
+
+    // drops the least recently read of a few entries until the cache fits again, the samples go round the table
+    private void evictIfFull() {
+        if (entries.size() <= maxSize) {
+            return;
+        }
+        evictionLock.lock();
+        try {
+            while (entries.size() > maxSize) {
+                Map.Entry<K, Entry<V>> victim = null;
+                for (int i = 0; i < EVICTION_SAMPLES; i++) {
+                    if (evictionHand == null || !evictionHand.hasNext()) {
+                        evictionHand = entries.entrySet().iterator();
+                        if (!evictionHand.hasNext()) {
+                            return;
+                        }
+                    }
+                    Map.Entry<K, Entry<V>> sample = evictionHand.next();
+                    if (victim == null || sample.getValue().accessedAt - victim.getValue().accessedAt < 0) {
+                        victim = sample;
+                    }
+                }
+                if (entries.remove(victim.getKey(), victim.getValue())) {
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+        private volatile long accessedAt;
+
+        private Entry(V value, long expiresAt, long accessedAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.accessedAt = accessedAt;
+        }
+
+        private boolean expired(long now) {
+            return expiresAt - now <= 0;
+        }
+    }
+}
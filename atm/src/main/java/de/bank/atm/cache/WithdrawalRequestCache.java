@@ -0,0 +1,54 @@
+package de.bank.atm.cache;
+
+import de.bank.atm.domain.WithdrawalAttempt;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Withdrawal attempts by terminal and client request id, kept long enough to answer the retries of a terminal.
+ * Hit, miss and eviction counters are exported via JMX.
+ */
+@Component
+@ManagedResource(objectName = "de.bank.atm:type=Cache,name=withdrawalRequests")
+public class WithdrawalRequestCache extends BoundedExpiringCache<String, WithdrawalAttempt> {
+
+    public WithdrawalRequestCache(@Value("${atm.withdrawal-request-cache.max-size:100000}") int maxSize,
+                                  @Value("${atm.withdrawal-request-cache.ttl-ms:600000}") long ttlMillis) {
+        super(maxSize, Duration.ofMillis(ttlMillis));
+    }
+
+    @Scheduled(fixedDelayString = "${atm.withdrawal-request-cache.ttl-ms:600000}")
+    @Override
+    public void cleanUp() {
+        super.cleanUp();
+    }
+
+    @ManagedAttribute
+    @Override
+    public int size() {
+        return super.size();
+    }
+
+    @ManagedAttribute
+    @Override
+    public long hitCount() {
+        return super.hitCount();
+    }
+
+    @ManagedAttribute
+    @Override
+    public long missCount() {
+        return super.missCount();
+    }
+
+    @ManagedAttribute
+    @Override
+    public long evictionCount() {
+        return super.evictionCount();
+    }
+}
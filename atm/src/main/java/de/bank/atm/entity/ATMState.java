@@ -1,34 +1,34 @@
 package de.bank.atm.entity;
 
 import de.bank.atm.domain.Denomination;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
-import java.math.BigDecimal;
+import javax.persistence.Index;
+import javax.persistence.Table;
 import java.time.LocalDateTime;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_atm_state_terminal_change_time", columnList = "terminalId, changeTime"),
+        @Index(name = "idx_atm_state_change_time", columnList = "changeTime")
+})
 @Data
 @Builder
+@NoArgsConstructor
+@AllArgsConstructor
 public class ATMState {
 
-    public ATMState(Long id, BigDecimal atmBalance, long stackOfFive, long stackOfTen, long stackOfTwenty, long stackOfFifty, LocalDateTime changeTime) {
-        this.id = id;
-        this.atmBalance = atmBalance;
-        this.stackOfFive = stackOfFive;
-        this.stackOfTen = stackOfTen;
-        this.stackOfTwenty = stackOfTwenty;
-        this.stackOfFifty = stackOfFifty;
-        this.changeTime = changeTime;
-    }
-
     @Id
     @GeneratedValue
     private Long id;
-    private BigDecimal atmBalance;
+    private String terminalId;
+    private long atmBalanceInCents;
     private long stackOfFive;
     private long stackOfTen;
     private long stackOfTwenty;
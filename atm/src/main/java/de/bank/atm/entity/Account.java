@@ -0,0 +1,34 @@
+package de.bank.atm.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Version;
+
+@Entity
+@Table(indexes = @Index(name = "idx_account_number", columnList = "accountNumber", unique = true))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class Account {
+
+    @Id
+    @GeneratedValue
+    private Long id;
+    private String accountNumber;
+    private long amountInCents;
+    /**
+     * Part of the balance reserved by open withdrawal holds, not available for other debits.
+     */
+    private long heldInCents;
+    @Version
+    private long version;
+}
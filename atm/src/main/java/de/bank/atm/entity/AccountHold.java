@@ -0,0 +1,31 @@
+package de.bank.atm.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+/**
+ * Funds held on an account for a withdrawal which waits for the dispenser. The row lives as long as the hold, so
+ * holds left behind by a crash can be released on the next start.
+ */
+@Entity
+@Table(indexes = @Index(name = "idx_account_hold_expires_at", columnList = "expiresAt"))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class AccountHold {
+
+    @Id
+    private String holdId;
+    private String accountNumber;
+    private long amountInCents;
+    private LocalDateTime expiresAt;
+}
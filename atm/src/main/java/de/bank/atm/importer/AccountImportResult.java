@@ -0,0 +1,17 @@
+package de.bank.atm.importer;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class AccountImportResult {
+
+    private long imported;
+    private long rejected;
+    private long elapsedMillis;
+
+    public long getAccountsPerSecond() {
+        return elapsedMillis == 0 ? imported : imported * 1000L / elapsedMillis;
+    }
+}
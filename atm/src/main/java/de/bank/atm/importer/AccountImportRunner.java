@@ -0,0 +1,30 @@
+package de.bank.atm.importer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Imports the accounts of atm.account-import.file once the application has started.
+ */
+@Component
+@ConditionalOnProperty("atm.account-import.file")
+public class AccountImportRunner implements ApplicationRunner {
+
+    private AccountImporter accountImporter;
+    private String file;
+
+    @Autowired
+    AccountImportRunner(AccountImporter accountImporter, @Value("${atm.account-import.file}") String file) {
+        this.accountImporter = accountImporter;
+        this.file = file;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        accountImporter.importFile(file);
+    }
+}
@@ -0,0 +1,180 @@
+package de.bank.atm.importer;
+
+import de.bank.atm.cache.AccountBalanceCache;
+import de.bank.atm.domain.Money;
+import de.bank.atm.shard.AccountShards;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Imports accounts from CSV lines of account number and balance, e.g. 1234,2738.59. The file is read line by line
+ * and written with JDBC batch inserts that commit batch by batch, so memory stays constant whatever the file size.
+ * A header line and lines that cannot be parsed are skipped and counted as rejected, and so are accounts whose number
+ * is already taken, by an earlier line or an account stored before the import; their balance is left as it is.
+ */
+@Component
+@ManagedResource(objectName = "de.bank.atm:type=Import,name=accounts")
+public class AccountImporter {
+    Logger logger = LoggerFactory.getLogger(AccountImporter.class);
+
+    static final String INSERT = "insert into account (id, account_number, amount_in_cents, held_in_cents, version) "
+            + "values (next value for hibernate_sequence, ?, ?, 0, 0)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final AccountShards shards;
+    private final AccountBalanceCache balanceCache;
+    private final int batchSize;
+    private final long progressInterval;
+
+    @Autowired
+    public AccountImporter(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                           AccountShards shards, AccountBalanceCache balanceCache,
+                           @Value("${atm.account-import.batch-size:1000}") int batchSize,
+                           @Value("${atm.account-import.progress-interval:100000}") long progressInterval) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.shards = shards;
+        this.balanceCache = balanceCache;
+        this.batchSize = batchSize;
+        this.progressInterval = progressInterval;
+    }
+
+    @ManagedOperation(description = "Imports the accounts of a CSV file of account number and balance")
+    public String importFile(String path) {
+        try (Reader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            return importCsv(reader).toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + path, e);
+        }
+    }
+
+    public AccountImportResult importCsv(Reader csv) throws IOException {
+        long start = System.nanoTime();
+        BufferedReader reader = csv instanceof BufferedReader ? (BufferedReader) csv : new BufferedReader(csv);
+        List<Object[]> batch = new ArrayList<>(batchSize);
+        long imported = 0;
+        long rejected = 0;
+        long lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            Object[] row = parse(line);
+            if (row == null) {
+                // an unparseable first line is the header
+                if (lineNumber > 1) {
+                    logger.warn("AccountImporter.importCsv: Skipping line {}: {}", lineNumber, line);
+                    rejected++;
+                }
+                continue;
+            }
+            batch.add(row);
+            if (batch.size() == batchSize) {
+                long inserted = insert(batch);
+                imported += inserted;
+                rejected += batchSize - inserted;
+                if (imported % progressInterval < inserted) {
+                    logProgress(imported, start);
+                }
+            }
+        }
+        int lastBatchSize = batch.size();
+        long inserted = insert(batch);
+        imported += inserted;
+        rejected += lastBatchSize - inserted;
+        // accounts looked up before the import are not cached as missing and stored balances are kept, the cache is
+        // only dropped in case the table was changed outside the application before the import
+        balanceCache.invalidateAll();
+        AccountImportResult result = new AccountImportResult(imported, rejected, (System.nanoTime() - start) / 1_000_000L);
+        logger.info("AccountImporter.importCsv: Imported {} accounts in {} ms ({} accounts/s), rejected {} lines",
+                result.getImported(), result.getElapsedMillis(), result.getAccountsPerSecond(), result.getRejected());
+        return result;
+    }
+
+    private long insert(List<Object[]> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        // one commit per batch and shard instead of one per row
+        Map<Integer, List<Object[]>> rowsByShard = new TreeMap<>();
+        for (Object[] row : batch) {
+            rowsByShard.computeIfAbsent(shards.shardOf((String) row[0]), shard -> new ArrayList<>()).add(row);
+        }
+        long inserted = 0;
+        for (Map.Entry<Integer, List<Object[]>> shardRows : rowsByShard.entrySet()) {
+            inserted += insert(shardRows.getKey(), shardRows.getValue());
+        }
+        batch.clear();
+        return inserted;
+    }
+
+    // a batch with a taken account number is rolled back as a whole, its rows are then inserted one by one
+    private long insert(int shard, List<Object[]> rows) {
+        try {
+            shards.inTransaction(shard,
+                    () -> transactionTemplate.execute(status -> jdbcTemplate.batchUpdate(INSERT, rows)));
+            return rows.size();
+        } catch (DuplicateKeyException e) {
+            long inserted = 0;
+            for (Object[] row : rows) {
+                try {
+                    shards.inTransaction(shard,
+                            () -> transactionTemplate.execute(status -> jdbcTemplate.update(INSERT, row)));
+                    inserted++;
+                } catch (DuplicateKeyException duplicate) {
+                    logger.warn("AccountImporter.importCsv: Skipping account {}, it already exists", row[0]);
+                }
+            }
+            return inserted;
+        }
+    }
+
+    private void logProgress(long imported, long start) {
+        long elapsedMillis = Math.max(1L, (System.nanoTime() - start) / 1_000_000L);
+        logger.info("AccountImporter.importCsv: {} accounts imported, {} accounts/s", imported,
+                imported * 1000L / elapsedMillis);
+    }
+
+    // account number and balance in units with at most two decimals, or null if the line is no such pair
+    private static Object[] parse(String line) {
+        int comma = line.indexOf(',');
+        if (comma <= 0 || line.indexOf(',', comma + 1) >= 0) {
+            return null;
+        }
+        String accountNumber = line.substring(0, comma).trim();
+        try {
+            long amountInCents = Money.toCents(new BigDecimal(line.substring(comma + 1).trim()));
+            if (accountNumber.isEmpty() || amountInCents < 0) {
+                return null;
+            }
+            return new Object[]{accountNumber, amountInCents};
+        } catch (NumberFormatException | ArithmeticException e) {
+            return null;
+        }
+    }
+}
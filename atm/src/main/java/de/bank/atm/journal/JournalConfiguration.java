@@ -0,0 +1,23 @@
+package de.bank.atm.journal;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+@Configuration
+public class JournalConfiguration {
+
+    @Bean(destroyMethod = "close")
+    public TransactionJournals transactionJournals(@Value("${atm.journal.directory:data/journal}") String directory,
+                                                   @Value("${atm.journal.chunk-size:1048576}") long chunkSize,
+                                                   @Value("${atm.journal.commit-interval-ms:5}") long commitIntervalMillis,
+                                                   @Value("${atm.journal.sync-commit:true}") boolean syncCommit,
+                                                   @Value("${atm.journal.retained-segments:1000}") int retainedSegments)
+            throws IOException {
+        return new TransactionJournals(Paths.get(directory), chunkSize, commitIntervalMillis, syncCommit,
+                retainedSegments);
+    }
+}
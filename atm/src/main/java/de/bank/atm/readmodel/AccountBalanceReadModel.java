@@ -0,0 +1,131 @@
+package de.bank.atm.readmodel;
+
+import de.bank.atm.shard.AccountShards;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Query side of the account balances, serving balance inquiries from memory instead of the account table the debits
+ * write to. A balance is the available one, i.e. without the amounts held for open withdrawals. It is fed by the
+ * balance changes AccountServiceImpl publishes after commit and rebuilt from the database when the application starts
+ * and every atm.balance-read-model.refresh-ms. Reads are a lock-free map lookup. Every balance carries its row version,
+ * so neither a late change nor a rebuild replaces a newer balance with an older one. A rebuild drops the accounts it
+ * did not find any more.
+ * <p>
+ * Staleness: a debit of this instance is visible as soon as its transaction committed. Changes made elsewhere (another
+ * instance, plain SQL) are visible after the next rebuild, so at most refresh-ms plus the rebuild time late. Until the
+ * first rebuild finished, and for accounts created after the last one, {@link #balance} answers null and the caller
+ * falls back to the database.
+ */
+@Component
+@ManagedResource(objectName = "de.bank.atm:type=ReadModel,name=accountBalance")
+public class AccountBalanceReadModel {
+    Logger logger = LoggerFactory.getLogger(AccountBalanceReadModel.class);
+
+    static final String SELECT = "select account_number, amount_in_cents - held_in_cents, version from account";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AccountShards shards;
+    private final boolean enabled;
+    private final ConcurrentMap<String, VersionedBalance> balances = new ConcurrentHashMap<>();
+    private volatile boolean built;
+    // incremented by every rebuild, a balance neither read nor changed since the current one started is dropped
+    private volatile long generation;
+
+    @Autowired
+    public AccountBalanceReadModel(JdbcTemplate jdbcTemplate, AccountShards shards,
+                                   @Value("${atm.balance-read-model.enabled:true}") boolean enabled) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.shards = shards;
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the available balance in cents, or null if the model was not built yet or does not know the account
+     */
+    public Long balance(String accountNumber) {
+        if (!built) {
+            return null;
+        }
+        VersionedBalance balance = balances.get(accountNumber);
+        return balance == null ? null : balance.amountInCents;
+    }
+
+    /**
+     * Applies a committed balance change unless the model already holds the same or a newer version of the account.
+     */
+    public void apply(String accountNumber, long availableInCents, long version) {
+        if (enabled) {
+            balances.merge(accountNumber, new VersionedBalance(availableInCents, version, generation),
+                    (current, next) -> next.version > current.version ? next : current.seenIn(next.generation));
+        }
+    }
+
+    /**
+     * Reads every account balance from the database, shard by shard. Balance changes applied meanwhile are kept if they
+     * are newer, accounts which are gone are dropped once every shard was read.
+     *
+     * @return the number of accounts read
+     */
+    @Scheduled(fixedDelayString = "${atm.balance-read-model.refresh-ms:60000}")
+    @ManagedOperation(description = "Rebuilds the balances from the account table")
+    public synchronized long rebuild() {
+        if (!enabled) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        long rebuilt = ++generation;
+        long[] rows = new long[1];
+        shards.forEachShard(() -> jdbcTemplate.query(SELECT, resultSet -> {
+            apply(resultSet.getString(1), resultSet.getLong(2), resultSet.getLong(3));
+            rows[0]++;
+        }));
+        long[] dropped = new long[1];
+        balances.forEach((accountNumber, balance) -> {
+            if (balance.generation < rebuilt && balances.remove(accountNumber, balance)) {
+                dropped[0]++;
+            }
+        });
+        built = true;
+        logger.info("AccountBalanceReadModel.rebuild: Read {} accounts in {} ms, dropped {} which are gone", rows[0],
+                (System.nanoTime() - start) / 1_000_000L, dropped[0]);
+        return rows[0];
+    }
+
+    @ManagedAttribute
+    public boolean isBuilt() {
+        return built;
+    }
+
+    @ManagedAttribute
+    public int getSize() {
+        return balances.size();
+    }
+
+    private static final class VersionedBalance {
+        private final long amountInCents;
+        private final long version;
+        private final long generation;
+
+        private VersionedBalance(long amountInCents, long version, long generation) {
+            this.amountInCents = amountInCents;
+            this.version = version;
+            this.generation = generation;
+        }
+
+        private VersionedBalance seenIn(long generation) {
+            return generation > this.generation ? new VersionedBalance(amountInCents, version, generation) : this;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package de.bank.atm.repository;
+
+import de.bank.atm.entity.ATMState;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+public interface ATMStateRepository extends JpaRepository<ATMState, Long> {
+
+    Optional<ATMState> findFirstByTerminalIdOrderByChangeTimeDesc(String terminalId);
+
+    @Query("select distinct s.terminalId from ATMState s")
+    List<String> findTerminalIds();
+
+    Optional<ATMState> findFirstByTerminalIdAndChangeTimeGreaterThanEqualOrderByChangeTimeAsc(String terminalId,
+                                                                                              LocalDateTime from);
+
+    Optional<ATMState> findFirstByTerminalIdAndChangeTimeLessThanOrderByChangeTimeDesc(String terminalId,
+                                                                                       LocalDateTime before);
+
+    /**
+     * Deletes the snapshots of a terminal in [from, before) except the one to keep.
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from ATMState s where s.terminalId = :terminalId and s.changeTime >= :from "
+            + "and s.changeTime < :before and s.id <> :keepId")
+    int deleteSnapshotsExcept(@Param("terminalId") String terminalId, @Param("from") LocalDateTime from,
+                              @Param("before") LocalDateTime before, @Param("keepId") Long keepId);
+}
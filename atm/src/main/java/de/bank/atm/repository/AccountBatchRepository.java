@@ -0,0 +1,139 @@
+package de.bank.atm.repository;
+
+import de.bank.atm.repository.AccountRepository.VersionedBalance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plain JDBC access to many accounts at once for bulk debits. Like the importer it bypasses the persistence context,
+ * so it must not be mixed with account entities loaded in the same transaction.
+ */
+@Repository
+public class AccountBatchRepository {
+
+    static final String SELECT_FOR_UPDATE = "select account_number, amount_in_cents, held_in_cents, version "
+            + "from account where account_number in (:accountNumbers) order by account_number for update";
+    static final String UPDATE = "update account set amount_in_cents = ?, version = version + 1 "
+            + "where account_number = ?";
+    static final String INSERT = "insert into account (id, account_number, amount_in_cents, held_in_cents, version) "
+            + "values (next value for hibernate_sequence, ?, ?, ?, ?)";
+    static final String DELETE = "delete from account where account_number = ?";
+    static final String SELECT_ACCOUNT_NUMBERS = "select account_number from account where account_number > ? "
+            + "order by account_number limit ?";
+    static final int CHUNK_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    @Autowired
+    public AccountBatchRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+    }
+
+    /**
+     * Reads and locks the given accounts until the transaction ends. Pass the account numbers sorted, so concurrent
+     * callers lock in the same order and cannot deadlock.
+     *
+     * @return the balances of the accounts that exist, by account number
+     */
+    public Map<String, VersionedBalance> lockBalances(Collection<String> accountNumbers) {
+        Map<String, VersionedBalance> balances = new HashMap<>();
+        List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+        for (String accountNumber : accountNumbers) {
+            chunk.add(accountNumber);
+            if (chunk.size() == CHUNK_SIZE) {
+                lockChunk(chunk, balances);
+            }
+        }
+        lockChunk(chunk, balances);
+        return balances;
+    }
+
+    /**
+     * Sets the balances in one JDBC batch and increments the version of every account.
+     */
+    public void updateBalances(Map<String, Long> balances) {
+        if (balances.isEmpty()) {
+            return;
+        }
+        List<Object[]> batch = new ArrayList<>(balances.size());
+        balances.forEach((accountNumber, amountInCents) -> batch.add(new Object[]{amountInCents, accountNumber}));
+        jdbcTemplate.batchUpdate(UPDATE, batch);
+    }
+
+    /**
+     * Inserts the accounts with their balances and versions in one JDBC batch.
+     */
+    public void insertBalances(Map<String, VersionedBalance> balances) {
+        if (balances.isEmpty()) {
+            return;
+        }
+        List<Object[]> batch = new ArrayList<>(balances.size());
+        balances.forEach((accountNumber, balance) -> batch.add(new Object[]{accountNumber, balance.getAmountInCents(),
+                balance.getHeldInCents(), balance.getVersion()}));
+        jdbcTemplate.batchUpdate(INSERT, batch);
+    }
+
+    public void deleteAccounts(Collection<String> accountNumbers) {
+        List<Object[]> batch = new ArrayList<>(accountNumbers.size());
+        accountNumbers.forEach(accountNumber -> batch.add(new Object[]{accountNumber}));
+        if (!batch.isEmpty()) {
+            jdbcTemplate.batchUpdate(DELETE, batch);
+        }
+    }
+
+    /**
+     * Pages through the accounts in account number order, start with an empty string.
+     */
+    public List<String> findAccountNumbersAfter(String accountNumber, int limit) {
+        return jdbcTemplate.queryForList(SELECT_ACCOUNT_NUMBERS, String.class, accountNumber, limit);
+    }
+
+    private void lockChunk(List<String> chunk, Map<String, VersionedBalance> balances) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        namedJdbcTemplate.query(SELECT_FOR_UPDATE, new MapSqlParameterSource("accountNumbers", chunk), resultSet -> {
+            balances.put(resultSet.getString(1),
+                    new LockedBalance(resultSet.getLong(2), resultSet.getLong(3), resultSet.getLong(4)));
+        });
+        chunk.clear();
+    }
+
+    private static final class LockedBalance implements VersionedBalance {
+        private final long amountInCents;
+        private final long heldInCents;
+        private final long version;
+
+        private LockedBalance(long amountInCents, long heldInCents, long version) {
+            this.amountInCents = amountInCents;
+            this.heldInCents = heldInCents;
+            this.version = version;
+        }
+
+        @Override
+        public long getAmountInCents() {
+            return amountInCents;
+        }
+
+        @Override
+        public long getHeldInCents() {
+            return heldInCents;
+        }
+
+        @Override
+        public long getVersion() {
+            return version;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package de.bank.atm.repository;
+
+import de.bank.atm.entity.AccountHold;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface AccountHoldRepository extends JpaRepository<AccountHold, String> {
+
+    /**
+     * Served by idx_account_hold_expires_at.
+     */
+    List<AccountHold> findByExpiresAtBefore(LocalDateTime time);
+
+    /**
+     * @return 1 if this call removed the hold, 0 if it was already committed or released
+     */
+    @Modifying
+    @Query("delete from AccountHold h where h.holdId = :holdId")
+    int removeById(@Param("holdId") String holdId);
+}
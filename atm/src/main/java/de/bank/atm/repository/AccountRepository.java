@@ -0,0 +1,92 @@
+package de.bank.atm.repository;
+
+import de.bank.atm.entity.Account;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.util.Optional;
+
+@Repository
+public interface AccountRepository extends JpaRepository<Account, Long> {
+
+    Optional<Account> findOptionalByAccountNumber(String accountNumber);
+
+    @Query("select a.amountInCents from Account a where a.accountNumber = :accountNumber")
+    Optional<Long> findAmountInCentsByAccountNumber(@Param("accountNumber") String accountNumber);
+
+    /**
+     * Checks the balance and debits the account in a single statement.
+     *
+     * @return 1 if the account was debited, 0 if it does not exist or its balance not held is too low
+     */
+    @Modifying
+    @Query("update Account a set a.amountInCents = a.amountInCents - :amountInCents, a.version = a.version + 1 "
+            + "where a.accountNumber = :accountNumber and a.amountInCents - a.heldInCents >= :amountInCents")
+    int debitIfBalanceAvailable(@Param("accountNumber") String accountNumber, @Param("amountInCents") long amountInCents);
+
+    /**
+     * Reads balance and version without loading the entity, so a re-read after a conflict sees the committed row.
+     */
+    @Query("select a.amountInCents as amountInCents, a.heldInCents as heldInCents, a.version as version from Account a "
+            + "where a.accountNumber = :accountNumber")
+    Optional<VersionedBalance> findVersionedBalanceByAccountNumber(@Param("accountNumber") String accountNumber);
+
+    /**
+     * @return 1 if the balance was set, 0 if the account changed since the given version was read
+     */
+    @Modifying
+    @Query("update Account a set a.amountInCents = :amountInCents, a.version = a.version + 1 "
+            + "where a.accountNumber = :accountNumber and a.version = :version")
+    int updateBalanceIfVersionMatches(@Param("accountNumber") String accountNumber,
+                                      @Param("amountInCents") long amountInCents, @Param("version") long version);
+
+    /**
+     * Reserves part of the balance for a withdrawal hold if the balance not held yet covers it.
+     *
+     * @return 1 if the amount is held, 0 if the account does not exist or its balance not held is too low
+     */
+    @Modifying
+    @Query("update Account a set a.heldInCents = a.heldInCents + :amountInCents, a.version = a.version + 1 "
+            + "where a.accountNumber = :accountNumber and a.amountInCents - a.heldInCents >= :amountInCents")
+    int holdIfBalanceAvailable(@Param("accountNumber") String accountNumber, @Param("amountInCents") long amountInCents);
+
+    /**
+     * Debits a held amount and drops its hold.
+     */
+    @Modifying
+    @Query("update Account a set a.amountInCents = a.amountInCents - :amountInCents, "
+            + "a.heldInCents = a.heldInCents - :amountInCents, a.version = a.version + 1 "
+            + "where a.accountNumber = :accountNumber and a.heldInCents >= :amountInCents")
+    int debitHeld(@Param("accountNumber") String accountNumber, @Param("amountInCents") long amountInCents);
+
+    @Modifying
+    @Query("update Account a set a.heldInCents = a.heldInCents - :amountInCents, a.version = a.version + 1 "
+            + "where a.accountNumber = :accountNumber and a.heldInCents >= :amountInCents")
+    int releaseHeld(@Param("accountNumber") String accountNumber, @Param("amountInCents") long amountInCents);
+
+    /**
+     * Gives a debited amount back.
+     */
+    @Modifying
+    @Query("update Account a set a.amountInCents = a.amountInCents + :amountInCents, a.version = a.version + 1 "
+            + "where a.accountNumber = :accountNumber")
+    int credit(@Param("accountNumber") String accountNumber, @Param("amountInCents") long amountInCents);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select a from Account a where a.accountNumber = :accountNumber")
+    Optional<Account> findLockedByAccountNumber(@Param("accountNumber") String accountNumber);
+
+    interface VersionedBalance {
+
+        long getAmountInCents();
+
+        long getHeldInCents();
+
+        long getVersion();
+    }
+}
@@ -0,0 +1,72 @@
+package de.bank.atm.service;
+
+import de.bank.atm.domain.CurrencyNote;
+import de.bank.atm.domain.Denomination;
+import de.bank.atm.domain.ReplenishmentCounts;
+import de.bank.atm.domain.SettlementItem;
+import de.bank.atm.domain.SettlementResult;
+import de.bank.atm.domain.WithdrawalHold;
+import de.bank.atm.entity.ATMState;
+import de.bank.atm.exception.ATMWithdrawException;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * ATM operations of a fleet; replenishments and withdrawals address one terminal by its id.
+ */
+public interface ATMService {
+
+    ATMState replenishATM(String terminalId, List<CurrencyNote> currencyNotes);
+
+    ATMState replenishATM(String terminalId, ReplenishmentCounts counts);
+
+    /**
+     * Replenishes the notes of a note-by-note feed, e.g. a note counter, without holding them in memory.
+     */
+    ATMState replenishATM(String terminalId, Stream<Denomination> noteFeed);
+
+    /**
+     * Read-only quote of the amounts the terminal can dispense right now, answered from memory.
+     */
+    DispensableAmounts dispensableAmounts(String terminalId);
+
+    String checkAccountBalance(String accountNumber);
+
+    Map<Denomination, Long> withrawAccountBalance(String terminalId, String accountNumber, BigDecimal amount) throws ATMWithdrawException;
+
+    /**
+     * Withdraws at most once per terminal and client request id: a retry with the same id gets the notes of the first
+     * withdrawal, or its rejection if that stays true, instead of debiting the account again.
+     */
+    Map<Denomination, Long> withrawAccountBalance(String terminalId, String requestId, String accountNumber,
+                                                  BigDecimal amount) throws ATMWithdrawException;
+
+    /**
+     * Settles many withdrawals of one terminal, e.g. those it made offline, in a single transaction. Every item is
+     * checked like {@link #withrawAccountBalance}, the accounts are read and debited once per batch. With account
+     * shards the batch gets one transaction per shard and is not atomic, the items of a failed shard are rejected with
+     * {@code LEDGER_FAILURE} while the others stay settled.
+     *
+     * @return the result of every item in list order; a rejected item does not affect the others
+     */
+    List<SettlementResult> settleWithdrawals(String terminalId, List<SettlementItem> items) throws ATMWithdrawException;
+
+    /**
+     * First phase of a withdrawal: takes the notes out of the cassettes and holds the amount on the account. Nothing is
+     * debited until {@link #confirmWithdrawal}; a hold neither confirmed nor cancelled in time expires.
+     */
+    WithdrawalHold reserveWithdrawal(String terminalId, String accountNumber, BigDecimal amount) throws ATMWithdrawException;
+
+    /**
+     * Debits the held amount once the dispenser reports the notes as dispensed.
+     */
+    Map<Denomination, Long> confirmWithdrawal(String holdId) throws ATMWithdrawException;
+
+    /**
+     * Puts the notes back and releases the held amount, e.g. after the dispenser jammed.
+     */
+    void cancelWithdrawal(String holdId) throws ATMWithdrawException;
+}
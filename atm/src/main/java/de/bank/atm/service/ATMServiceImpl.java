@@ -0,0 +1,468 @@
+package de.bank.atm.service;
+
+import de.bank.atm.domain.AccountDebit;
+import de.bank.atm.domain.AccountWithdrawTO;
+import de.bank.atm.domain.CurrencyNote;
+import de.bank.atm.domain.Denomination;
+import de.bank.atm.domain.Money;
+import de.bank.atm.domain.MoneyFormatter;
+import de.bank.atm.domain.ReplenishmentCounts;
+import de.bank.atm.domain.SettlementItem;
+import de.bank.atm.domain.SettlementResult;
+import de.bank.atm.domain.WithdrawalHold;
+import de.bank.atm.entity.ATMState;
+import de.bank.atm.exception.ATMWithdrawException;
+import de.bank.atm.exception.ATMWithdrawException.Reason;
+import de.bank.atm.journal.TransactionJournal;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Service
+public class ATMServiceImpl implements ATMService {
+    Logger logger = LoggerFactory.getLogger(ATMServiceImpl.class);
+
+    private ATMStateHolder atmStateHolder;
+    private AccountService accountService;
+
+    private final Timer succeededTimer;
+    private final Timer failedTimer;
+    private final Timer stateLookupTimer;
+    private final Timer dispenseTimer;
+    private final Timer debitTimer;
+    private final Timer journalTimer;
+    private final Timer settlementTimer;
+    private final Map<Reason, Counter> failureCounters = new EnumMap<>(Reason.class);
+    private final Counter expiredHolds;
+
+    private final Duration holdTtl;
+    private final ConcurrentMap<String, WithdrawalHold> holds = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ATMServiceImpl(ATMStateHolder atmStateHolder, AccountService accountService,
+                          @Value("${atm.withdrawal.hold-ttl-ms:30000}") long holdTtlMillis, MeterRegistry meterRegistry) {
+        this.atmStateHolder = atmStateHolder;
+        this.accountService = accountService;
+        this.holdTtl = Duration.ofMillis(holdTtlMillis);
+        expiredHolds = meterRegistry.counter("atm.withdrawal.holds.expired");
+        meterRegistry.gaugeMapSize("atm.withdrawal.holds.open", Collections.emptyList(), holds);
+        succeededTimer = meterRegistry.timer("atm.withdrawal", "outcome", "success");
+        failedTimer = meterRegistry.timer("atm.withdrawal", "outcome", "failure");
+        stateLookupTimer = meterRegistry.timer("atm.withdrawal.stage", "stage", "state_lookup");
+        dispenseTimer = meterRegistry.timer("atm.withdrawal.stage", "stage", "dispense");
+        debitTimer = meterRegistry.timer("atm.withdrawal.stage", "stage", "debit");
+        journalTimer = meterRegistry.timer("atm.withdrawal.stage", "stage", "journal");
+        settlementTimer = meterRegistry.timer("atm.settlement");
+        for (Reason reason : Reason.values()) {
+            failureCounters.put(reason, meterRegistry.counter("atm.withdrawal.failures", "reason", reason.name()));
+        }
+    }
+
+    @Override
+    @Transactional
+    public ATMState replenishATM(String terminalId, List<CurrencyNote> currencyNotes) {
+        ReplenishmentCounts counts = new ReplenishmentCounts();
+        for (CurrencyNote currencyNote : currencyNotes) {
+            counts.count(currencyNote.getDenomination());
+        }
+        return replenishATM(terminalId, counts);
+    }
+
+    @Override
+    @Transactional
+    public ATMState replenishATM(String terminalId, ReplenishmentCounts counts) {
+        return atmStateHolder.terminal(terminalId).replenish(counts);
+    }
+
+    @Override
+    @Transactional
+    public ATMState replenishATM(String terminalId, Stream<Denomination> noteFeed) {
+        ReplenishmentCounts counts = new ReplenishmentCounts();
+        noteFeed.forEach(counts::count);
+        return replenishATM(terminalId, counts);
+    }
+
+    @Override
+    public DispensableAmounts dispensableAmounts(String terminalId) {
+        TerminalState terminal = atmStateHolder.find(terminalId);
+        if (terminal == null || !terminal.isInitialised()) {
+            return DispensableAmounts.NONE;
+        }
+        return terminal.dispensableAmounts();
+    }
+
+    @Override
+    public String checkAccountBalance(String accountNumber) {
+        Long accountBalance = accountService.checkBalance(accountNumber);
+        if (accountBalance != null) {
+            return MoneyFormatter.format(accountBalance);
+        }
+        return "NOT_FOUND";
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.NESTED)
+    public Map<Denomination, Long> withrawAccountBalance(String terminalId, String accountNumber, BigDecimal amountBigDecimal) {
+        long start = System.nanoTime();
+        try {
+            Map<Denomination, Long> notesDispensed = withdraw(terminalId, accountNumber, amountBigDecimal);
+            succeededTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return notesDispensed;
+        } catch (ATMWithdrawException e) {
+            failedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            failureCounters.get(e.getReason()).increment();
+            logger.debug("Exception ocured; Amount={}, account={}, terminal={}, reason={}", amountBigDecimal,
+                    accountNumber, terminalId, e.getReason());
+            throw e;
+        }
+    }
+
+    /**
+     * Withdraws without looking at the request id; retries are deduplicated by {@link IdempotentWithdrawals}, the
+     * primary ATMService in front of this one.
+     */
+    @Override
+    @Transactional(propagation = Propagation.NESTED)
+    public Map<Denomination, Long> withrawAccountBalance(String terminalId, String requestId, String accountNumber,
+                                                         BigDecimal amountBigDecimal) {
+        return withrawAccountBalance(terminalId, accountNumber, amountBigDecimal);
+    }
+
+    private Map<Denomination, Long> withdraw(String terminalId, String accountNumber, BigDecimal amountBigDecimal) {
+        long amountInCents = validAmountInCents(amountBigDecimal);
+        checkJournalable(accountNumber);
+        TerminalState terminal = initialisedTerminal(terminalId);
+        Map<Denomination, Long> notesDispensed = reserveNotesOrFail(terminal, amountInCents / Money.CENTS_PER_UNIT);
+        debitAccount(terminal, accountNumber, amountInCents, notesDispensed);
+        recordWithdrawal(terminal, accountNumber, amountInCents, notesDispensed);
+        return notesDispensed;
+    }
+
+    @Override
+    @Transactional
+    public List<SettlementResult> settleWithdrawals(String terminalId, List<SettlementItem> items) {
+        long start = System.nanoTime();
+        TerminalState terminal = initialisedTerminal(terminalId);
+        SettlementResult[] results = new SettlementResult[items.size()];
+        List<Integer> reserved = new ArrayList<>();
+        List<Map<Denomination, Long>> reservedNotes = new ArrayList<>();
+        List<AccountDebit> debits = new ArrayList<>();
+        for (int i = 0; i < items.size(); i++) {
+            SettlementItem item = items.get(i);
+            try {
+                long amountInCents = validAmountInCents(item.getAmount());
+                checkJournalable(item.getAccountNumber());
+                reservedNotes.add(reserveNotesOrFail(terminal, amountInCents / Money.CENTS_PER_UNIT));
+                reserved.add(i);
+                debits.add(new AccountDebit(item.getAccountNumber(), amountInCents));
+            } catch (ATMWithdrawException e) {
+                results[i] = rejected(item, e.getReason());
+            }
+        }
+
+        List<AccountWithdrawTO> debited;
+        try {
+            debited = debits.isEmpty() ? Collections.emptyList() : accountService.withdrawAmounts(debits);
+        } catch (RuntimeException e) {
+            reservedNotes.forEach(terminal.inventory()::release);
+            throw e;
+        }
+        List<Integer> settled = new ArrayList<>();
+        for (int k = 0; k < reserved.size(); k++) {
+            int i = reserved.get(k);
+            AccountWithdrawTO accountWithdrawTO = debited.get(k);
+            if (accountWithdrawTO == null) {
+                terminal.inventory().release(reservedNotes.get(k));
+                results[i] = rejected(items.get(i), Reason.UNKNOWN_ACCOUNT);
+            } else if (accountWithdrawTO.isFailed()) {
+                terminal.inventory().release(reservedNotes.get(k));
+                results[i] = rejected(items.get(i), Reason.LEDGER_FAILURE);
+            } else if (!accountWithdrawTO.isSuccess()) {
+                terminal.inventory().release(reservedNotes.get(k));
+                results[i] = rejected(items.get(i), Reason.INSUFFICIENT_FUNDS);
+            } else {
+                results[i] = SettlementResult.settled(items.get(i), reservedNotes.get(k));
+                settled.add(k);
+            }
+        }
+        recordSettlement(terminal, settled, debits, reservedNotes);
+        settlementTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public WithdrawalHold reserveWithdrawal(String terminalId, String accountNumber, BigDecimal amountBigDecimal) {
+        try {
+            long amountInCents = validAmountInCents(amountBigDecimal);
+            checkJournalable(accountNumber);
+            TerminalState terminal = initialisedTerminal(terminalId);
+            Map<Denomination, Long> notes = reserveNotesOrFail(terminal, amountInCents / Money.CENTS_PER_UNIT);
+            WithdrawalHold hold = WithdrawalHold.builder()
+                    .holdId(UUID.randomUUID().toString())
+                    .terminalId(terminalId)
+                    .accountNumber(accountNumber)
+                    .amountInCents(amountInCents)
+                    .notes(notes)
+                    .expiresAt(LocalDateTime.now().plus(holdTtl))
+                    .build();
+            holdAmount(terminal, hold);
+            holds.put(hold.getHoldId(), hold);
+            return hold;
+        } catch (ATMWithdrawException e) {
+            failureCounters.get(e.getReason()).increment();
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<Denomination, Long> confirmWithdrawal(String holdId) {
+        WithdrawalHold hold = claimHold(holdId);
+        TerminalState terminal = atmStateHolder.terminal(hold.getTerminalId());
+        List<AccountDebit> withdrawal = Collections.singletonList(
+                new AccountDebit(hold.getAccountNumber(), hold.getAmountInCents()));
+        List<Map<Denomination, Long>> notes = Collections.singletonList(hold.getNotes());
+        // journaled before the debit commits, like every withdrawal, and reversed if it does not
+        try {
+            journalTimer.record(() -> terminal.recordWithdrawals(withdrawal, notes));
+        } catch (RuntimeException e) {
+            reopenHold(hold);
+            throw e;
+        }
+        boolean committed;
+        try {
+            committed = accountService.commitHold(holdId);
+        } catch (RuntimeException e) {
+            terminal.recordReversals(withdrawal, notes);
+            reopenHold(hold);
+            throw e;
+        }
+        if (!committed) {
+            terminal.inventory().release(hold.getNotes());
+            terminal.recordReversals(withdrawal, notes);
+            throw new ATMWithdrawException(Reason.UNKNOWN_HOLD, "Could not process request; Hold " + holdId + " was released");
+        }
+        return hold.getNotes();
+    }
+
+    @Override
+    public void cancelWithdrawal(String holdId) {
+        release(claimHold(holdId));
+    }
+
+    @Scheduled(fixedDelayString = "${atm.withdrawal.hold-sweep-ms:1000}")
+    public void expireHolds() {
+        LocalDateTime now = LocalDateTime.now();
+        for (WithdrawalHold hold : holds.values()) {
+            // whoever removes the hold from the map owns it, a concurrent confirm either wins or finds it gone
+            if (hold.getExpiresAt().isBefore(now) && holds.remove(hold.getHoldId(), hold)) {
+                logger.warn("ATMServiceImpl.expireHolds: Hold={} of terminal={} expired without confirmation",
+                        hold.getHoldId(), hold.getTerminalId());
+                try {
+                    release(hold);
+                    expiredHolds.increment();
+                } catch (RuntimeException e) {
+                    logger.warn("ATMServiceImpl.expireHolds: Could not release hold={}, retrying with the next sweep",
+                            hold.getHoldId(), e);
+                }
+            }
+        }
+        // funds of expired holds no longer open here, e.g. of a run which stopped, are released in the database; a hold
+        // not yet expired may belong to another instance sharing the database and is left alone
+        try {
+            int released = accountService.releaseExpiredHolds(now);
+            if (released > 0) {
+                logger.warn("ATMServiceImpl.expireHolds: Released {} expired holds without an open hold", released);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("ATMServiceImpl.expireHolds: Could not release expired holds in the database", e);
+        }
+    }
+
+    private WithdrawalHold claimHold(String holdId) {
+        WithdrawalHold hold = holds.remove(holdId);
+        if (hold == null) {
+            throw new ATMWithdrawException(Reason.UNKNOWN_HOLD,
+                    "Could not process request; Hold " + holdId + " is unknown or expired");
+        }
+        return hold;
+    }
+
+    // the notes go back only once the funds are released, so a hold reopened after a failure still owns them
+    private void release(WithdrawalHold hold) {
+        try {
+            accountService.releaseHold(hold.getHoldId());
+        } catch (RuntimeException e) {
+            reopenHold(hold);
+            throw e;
+        }
+        atmStateHolder.terminal(hold.getTerminalId()).inventory().release(hold.getNotes());
+    }
+
+    // a hold whose database call failed is open again, to be confirmed or cancelled by a retry or expired by the sweep
+    private void reopenHold(WithdrawalHold hold) {
+        holds.put(hold.getHoldId(), hold);
+    }
+
+    private void holdAmount(TerminalState terminal, WithdrawalHold hold) {
+        boolean held = false;
+        try {
+            AccountWithdrawTO accountWithdrawTO = debitTimer.record(() -> accountService.holdAmount(hold.getHoldId(),
+                    hold.getAccountNumber(), hold.getAmountInCents(), hold.getExpiresAt()));
+            if (accountWithdrawTO == null) {
+                throw new ATMWithdrawException(Reason.UNKNOWN_ACCOUNT, "Could not process request; Unknown account");
+            }
+            if (!accountWithdrawTO.isSuccess()) {
+                throw new ATMWithdrawException(Reason.INSUFFICIENT_FUNDS, "Could not process request; Insufficient funds");
+            }
+            held = true;
+        } finally {
+            if (!held) {
+                terminal.inventory().release(hold.getNotes());
+            }
+        }
+    }
+
+    private long validAmountInCents(BigDecimal amountBigDecimal) {
+        long amountInCents = toCents(amountBigDecimal);
+        long amount = amountInCents / Money.CENTS_PER_UNIT;
+        if (amountInCents % Money.CENTS_PER_UNIT != 0 || amount % DispenseEngine.STEP != 0) {
+            throw new ATMWithdrawException(Reason.INVALID_AMOUNT,
+                    "Could not process request; Amount " + amountBigDecimal + " is not a multiple of 5");
+        }
+        if (!isAmountInRange(amount)) {
+            throw new ATMWithdrawException(Reason.OUT_OF_RANGE, "Could not process request; Amount not in 20-250 range");
+        }
+        return amountInCents;
+    }
+
+    // the withdrawal is journaled after its commit, so an account number the journal cannot hold is refused up front
+    private static void checkJournalable(String accountNumber) {
+        if (accountNumber == null || !TransactionJournal.fitsAccountNumber(accountNumber)) {
+            throw new ATMWithdrawException(Reason.UNKNOWN_ACCOUNT, "Could not process request; Unknown account");
+        }
+    }
+
+    private TerminalState initialisedTerminal(String terminalId) {
+        TerminalState terminal = stateLookupTimer.record(() -> atmStateHolder.find(terminalId));
+        if (terminal == null || !terminal.isInitialised()) {
+            throw new ATMWithdrawException(Reason.NO_ATM_STATE, "Could not process request; ATM " + terminalId + " has no state");
+        }
+        return terminal;
+    }
+
+    private Map<Denomination, Long> reserveNotesOrFail(TerminalState terminal, long amount) {
+        Map<Denomination, Long> notes = dispenseTimer.record(() -> reserveNotes(terminal, amount));
+        if (notes == null) {
+            throw new ATMWithdrawException(Reason.INSUFFICIENT_NOTES, "Could not process request; ATM out of cash/notes");
+        }
+        return notes;
+    }
+
+    // the balance check and debit are one statement, the reserved notes go back if the account cannot pay
+    private void debitAccount(TerminalState terminal, String accountNumber, long amountInCents,
+                              Map<Denomination, Long> reservedNotes) {
+        boolean debited = false;
+        try {
+            AccountWithdrawTO accountWithdrawTO = debitTimer.record(
+                    () -> accountService.withdrawAmount(accountNumber, amountInCents));
+            if (accountWithdrawTO == null) {
+                throw new ATMWithdrawException(Reason.UNKNOWN_ACCOUNT, "Could not process request; Unknown account");
+            }
+            if (!accountWithdrawTO.isSuccess()) {
+                throw new ATMWithdrawException(Reason.INSUFFICIENT_FUNDS, "Could not process request; Insufficient funds");
+            }
+            debited = true;
+        } finally {
+            if (!debited) {
+                terminal.inventory().release(reservedNotes);
+            }
+        }
+    }
+
+    private void recordWithdrawal(TerminalState terminal, String accountNumber, long amountInCents,
+                                  Map<Denomination, Long> notesDispensed) {
+        recordSettlement(terminal, Collections.singletonList(0),
+                Collections.singletonList(new AccountDebit(accountNumber, amountInCents)),
+                Collections.singletonList(notesDispensed));
+    }
+
+    private SettlementResult rejected(SettlementItem item, Reason reason) {
+        failureCounters.get(reason).increment();
+        return SettlementResult.rejected(item, reason);
+    }
+
+    // journaled right before the commit, so every committed withdrawal has its record; a failed journal append rolls
+    // the withdrawal back. If the commit fails after the append, the records are reversed and the notes go back.
+    private void recordSettlement(TerminalState terminal, List<Integer> settled, List<AccountDebit> debits,
+                                  List<Map<Denomination, Long>> notes) {
+        List<AccountDebit> settledDebits = settled.stream().map(debits::get).collect(Collectors.toList());
+        List<Map<Denomination, Long>> settledNotes = settled.stream().map(notes::get).collect(Collectors.toList());
+        Runnable journal = () -> journalTimer.record(() -> terminal.recordWithdrawals(settledDebits, settledNotes));
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                private boolean journaled;
+
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    journal.run();
+                    journaled = true;
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        settledNotes.forEach(terminal.inventory()::release);
+                        if (journaled) {
+                            terminal.recordReversals(settledDebits, settledNotes);
+                        }
+                    }
+                }
+            });
+        } else {
+            journal.run();
+        }
+    }
+
+    private Map<Denomination, Long> reserveNotes(TerminalState terminal, long amount) {
+        CassetteInventory inventory = terminal.inventory();
+        Map<Denomination, Long> notes;
+        // another withdrawal may take the planned notes first, plan again against the new stacks
+        do {
+            notes = terminal.dispenseEngine().plan(inventory, amount);
+        } while (notes != null && !inventory.reserve(notes));
+        return notes;
+    }
+
+    private long toCents(BigDecimal amount) {
+        try {
+            return Money.toCents(amount);
+        } catch (ArithmeticException e) {
+            throw new ATMWithdrawException(Reason.INVALID_AMOUNT,
+                    "Could not process request; Amount " + amount + " is not in whole cents");
+        }
+    }
+
+    private boolean isAmountInRange(long amount) {
+        return amount >= 20 && amount <= 250;
+    }
+}
@@ -0,0 +1,103 @@
+package de.bank.atm.service;
+
+import de.bank.atm.entity.ATMState;
+import de.bank.atm.repository.ATMStateRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thins out the ATMState history. Snapshots younger than the retention window are all kept; older ones are collapsed
+ * to the latest snapshot of every period, so the table grows with the number of periods instead of the number of
+ * flushes. Every period is compacted in its own statement on the (terminalId, changeTime) index, and periods already
+ * compacted by this instance are not visited again.
+ */
+@Component
+public class ATMStateCompaction {
+    Logger logger = LoggerFactory.getLogger(ATMStateCompaction.class);
+
+    private static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private ATMStateRepository atmRepository;
+    private final Duration retention;
+    private final Duration period;
+    private final Counter deletedSnapshots;
+    private final Map<String, LocalDateTime> compactedUntil = new ConcurrentHashMap<>();
+
+    @Autowired
+    ATMStateCompaction(ATMStateRepository repository,
+                       @Value("${atm.state.compaction.retention-ms:604800000}") long retentionMillis,
+                       @Value("${atm.state.compaction.period-ms:3600000}") long periodMillis,
+                       MeterRegistry meterRegistry) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Compaction period must be positive: " + periodMillis);
+        }
+        this.atmRepository = repository;
+        this.retention = Duration.ofMillis(retentionMillis);
+        this.period = Duration.ofMillis(periodMillis);
+        deletedSnapshots = meterRegistry.counter("atm.state.compaction.deleted");
+    }
+
+    @Scheduled(initialDelayString = "${atm.state.compaction.interval-ms:3600000}",
+            fixedDelayString = "${atm.state.compaction.interval-ms:3600000}")
+    public void compact() {
+        compact(LocalDateTime.now());
+    }
+
+    /**
+     * @return the number of deleted snapshots
+     */
+    public synchronized long compact(LocalDateTime now) {
+        LocalDateTime cutoff = periodStart(now.minus(retention));
+        long deleted = 0;
+        for (String terminalId : atmRepository.findTerminalIds()) {
+            if (terminalId != null) {
+                deleted += compact(terminalId, cutoff);
+            }
+        }
+        deletedSnapshots.increment(deleted);
+        logger.info("ATMStateCompaction.compact: Deleted {} snapshots older than {}", deleted, cutoff);
+        return deleted;
+    }
+
+    private long compact(String terminalId, LocalDateTime cutoff) {
+        long deleted = 0;
+        LocalDateTime from = compactedUntil.getOrDefault(terminalId, EPOCH);
+        while (true) {
+            Optional<ATMState> first = atmRepository
+                    .findFirstByTerminalIdAndChangeTimeGreaterThanEqualOrderByChangeTimeAsc(terminalId, from);
+            if (!first.isPresent() || !first.get().getChangeTime().isBefore(cutoff)) {
+                break;
+            }
+            LocalDateTime start = periodStart(first.get().getChangeTime());
+            LocalDateTime end = start.plus(period);
+            // the period holds at least the first snapshot, so its latest one is found
+            ATMState latest = atmRepository
+                    .findFirstByTerminalIdAndChangeTimeLessThanOrderByChangeTimeDesc(terminalId, end).get();
+            deleted += atmRepository.deleteSnapshotsExcept(terminalId, start, end, latest.getId());
+            from = end;
+        }
+        compactedUntil.merge(terminalId, from, (previous, next) -> next.isAfter(previous) ? next : previous);
+        return deleted;
+    }
+
+    private LocalDateTime periodStart(LocalDateTime time) {
+        long millis = time.toInstant(ZoneOffset.UTC).toEpochMilli();
+        long periodMillis = period.toMillis();
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(Math.floorDiv(millis, periodMillis) * periodMillis),
+                ZoneOffset.UTC);
+    }
+}
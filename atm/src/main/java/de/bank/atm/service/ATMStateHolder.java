@@ -0,0 +1,170 @@
+package de.bank.atm.service;
+
+import de.bank.atm.domain.Denomination;
+import de.bank.atm.entity.ATMState;
+import de.bank.atm.journal.JournalRecovery;
+import de.bank.atm.journal.TransactionJournals;
+import de.bank.atm.repository.ATMStateRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Owns the current state of every terminal. The stacks of a terminal live in its own {@link TerminalState} which is
+ * read and updated in memory. Every change is also appended to the terminal's journal; {@link #flush()} writes one
+ * ATMState snapshot per terminal covering all records appended since the previous flush, with the stacks the journal
+ * holds rather than the ones net of open reservations, and then checkpoints the journal so it is replayed from there.
+ * After a crash {@link #recover()} takes whichever of the latest snapshot and the journal is newer.
+ */
+@Component
+public class ATMStateHolder {
+    Logger logger = LoggerFactory.getLogger(ATMStateHolder.class);
+
+    private ATMStateRepository atmRepository;
+    private TransactionJournals journals;
+    private MeterRegistry meterRegistry;
+    private final ConcurrentMap<String, TerminalState> terminals = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ATMStateHolder(ATMStateRepository repository, TransactionJournals journals, MeterRegistry meterRegistry) {
+        this.atmRepository = repository;
+        this.journals = journals;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Loads every terminal that has a snapshot or a journal.
+     */
+    @PostConstruct
+    public void recover() {
+        Set<String> terminalIds = new TreeSet<>(atmRepository.findTerminalIds());
+        terminalIds.addAll(journals.terminalIds());
+        terminalIds.forEach(this::terminal);
+        logger.info("ATMStateHolder.recover: Recovered terminals={}", terminalIds);
+    }
+
+    /**
+     * @return the state of the terminal, recovered on first use
+     */
+    public TerminalState terminal(String terminalId) {
+        TerminalState terminal = terminals.get(terminalId);
+        return terminal != null ? terminal : terminals.computeIfAbsent(terminalId, this::load);
+    }
+
+    /**
+     * @return the state of a known terminal, or null for a terminal which was never replenished
+     */
+    public TerminalState find(String terminalId) {
+        return terminals.get(terminalId);
+    }
+
+    public Optional<ATMState> current(String terminalId) {
+        TerminalState terminal = terminals.get(terminalId);
+        return terminal == null ? Optional.empty() : terminal.current();
+    }
+
+    @Scheduled(fixedDelayString = "${atm.state.flush-interval-ms:500}")
+    public synchronized void flush() {
+        List<TerminalState> changed = new ArrayList<>();
+        List<Long> sequences = new ArrayList<>();
+        List<ATMState> snapshots = new ArrayList<>();
+        for (TerminalState terminal : terminals.values()) {
+            // read before the stacks, a record appended in between is written again by the next flush
+            long sequence = terminal.journal().appendedSequence();
+            if (terminal.isInitialised() && sequence != terminal.getFlushedSequence()) {
+                changed.add(terminal);
+                sequences.add(sequence);
+                snapshots.add(terminal.journaledSnapshot());
+            }
+        }
+        if (snapshots.isEmpty()) {
+            return;
+        }
+        // on failure no sequence is advanced, so the next flush writes new snapshots
+        atmRepository.saveAll(snapshots);
+        for (int i = 0; i < changed.size(); i++) {
+            changed.get(i).setFlushedSequence(sequences.get(i));
+            checkpoint(changed.get(i));
+        }
+        logger.debug("ATMStateHolder.flush: Persisted the state of {} terminals.", snapshots.size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    // the stacks are persisted, a recovery no longer needs the records before them
+    private void checkpoint(TerminalState terminal) {
+        try {
+            terminal.journal().checkpoint();
+        } catch (RuntimeException e) {
+            logger.warn("ATMStateHolder.flush: Could not checkpoint the journal of terminal {}, recovery reads it "
+                    + "since the previous checkpoint.", terminal.getTerminalId(), e);
+        }
+    }
+
+    private TerminalState load(String terminalId) {
+        TerminalState terminal = new TerminalState(terminalId, journals.journal(terminalId));
+        Optional<ATMState> latestState = atmRepository.findFirstByTerminalIdOrderByChangeTimeDesc(terminalId);
+        latestState.ifPresent(atmState -> {
+            for (Denomination denomination : Denomination.values()) {
+                terminal.inventory().set(denomination, atmState.getStackByDenomination(denomination));
+            }
+        });
+        terminal.setInitialised(latestState.isPresent());
+        boolean fromJournal = recoverFromJournal(terminal, latestState.map(ATMState::getChangeTime).orElse(null));
+        // nothing is reserved yet, the journal continues from the stacks the terminal starts with
+        terminal.journal().resetStacks(terminal.inventory().stacks());
+        // stacks taken from the journal are persisted by the next flush, those of the snapshot are already
+        terminal.setFlushedSequence(fromJournal ? -1L : terminal.journal().appendedSequence());
+        registerGauges(terminal);
+        logger.info("ATMStateHolder.load: Loaded terminal={}, state={}", terminalId, terminal.current().orElse(null));
+        return terminal;
+    }
+
+    private void registerGauges(TerminalState terminal) {
+        for (Denomination denomination : Denomination.values()) {
+            Gauge.builder("atm.cassette.notes", terminal.inventory(), inventory -> inventory.get(denomination))
+                    .tag("terminal", terminal.getTerminalId())
+                    .tag("denomination", denomination.name())
+                    .register(meterRegistry);
+        }
+    }
+
+    // true if the stacks were taken from the journal
+    private boolean recoverFromJournal(TerminalState terminal, LocalDateTime snapshotTime) {
+        JournalRecovery recovery = terminal.journal().getRecovery();
+        if (recovery.isEmpty()) {
+            return false;
+        }
+        // account debits are committed in the database, the journal deltas are only reported for audit
+        logger.info("ATMStateHolder.recover: Journal of terminal {} holds {} records from the checkpoint at "
+                + "sequence {} up to sequence {}, account deltas={}", terminal.getTerminalId(), recovery.getRecords(),
+                recovery.getCheckpointSequence(), recovery.getLastSequence(), recovery.getAccountDeltasInCents());
+        if (snapshotTime != null && toMillis(snapshotTime) >= recovery.getLastTimestampMillis()) {
+            return false;
+        }
+        for (Denomination denomination : Denomination.values()) {
+            terminal.inventory().set(denomination, recovery.getStack(denomination));
+        }
+        terminal.setInitialised(true);
+        return true;
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
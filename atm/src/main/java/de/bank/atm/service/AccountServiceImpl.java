@@ -0,0 +1,317 @@
+package de.bank.atm.service;
+
+import de.bank.atm.cache.AccountBalanceCache;
+import de.bank.atm.domain.AccountDebit;
+import de.bank.atm.domain.AccountWithdrawTO;
+import de.bank.atm.entity.Account;
+import de.bank.atm.entity.AccountHold;
+import de.bank.atm.readmodel.AccountBalanceReadModel;
+import de.bank.atm.repository.AccountBatchRepository;
+import de.bank.atm.repository.AccountHoldRepository;
+import de.bank.atm.repository.AccountRepository;
+import de.bank.atm.repository.AccountRepository.VersionedBalance;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+@Service
+public class AccountServiceImpl implements AccountService {
+    Logger logger = LoggerFactory.getLogger(AccountServiceImpl.class);
+
+    private AccountRepository accountRepo;
+    private AccountHoldRepository holdRepo;
+    private AccountBatchRepository batchRepo;
+    private AccountBalanceCache balanceCache;
+    private AccountBalanceReadModel balanceReadModel;
+    private OptimisticRetry optimisticRetry;
+    private DebitMode debitMode;
+
+    private final Timer balanceLookupTimer;
+    private final Timer debitTimer;
+    private final Timer balanceReadTimer;
+
+    @Autowired
+    AccountServiceImpl(AccountRepository repository, AccountHoldRepository holdRepository,
+                       AccountBatchRepository batchRepository,
+                       AccountBalanceCache balanceCache, AccountBalanceReadModel balanceReadModel,
+                       OptimisticRetry optimisticRetry,
+                       @Value("${atm.account.debit-mode:STATEMENT}") DebitMode debitMode, MeterRegistry meterRegistry) {
+        accountRepo = repository;
+        holdRepo = holdRepository;
+        batchRepo = batchRepository;
+        this.balanceCache = balanceCache;
+        this.balanceReadModel = balanceReadModel;
+        this.optimisticRetry = optimisticRetry;
+        this.debitMode = debitMode;
+        balanceLookupTimer = meterRegistry.timer("atm.account.stage", "stage", "balance_lookup");
+        debitTimer = meterRegistry.timer("atm.account.stage", "stage", "debit");
+        balanceReadTimer = meterRegistry.timer("atm.account.stage", "stage", "balance_read");
+    }
+
+    @Override
+    public Long checkBalance(String accountNumber) {
+        return balanceLookupTimer.record(() -> {
+            Long balance = balanceReadModel.balance(accountNumber);
+            return balance != null ? balance : balanceCache.get(accountNumber, this::loadBalance);
+        });
+    }
+
+    @Override
+    @Transactional
+    public AccountWithdrawTO withdrawAmount(String accountNumber, long withdrawAmountInCents) {
+        // every mode is timed around the whole debit, including the reads it needs, so the modes compare
+        AccountWithdrawTO result = debitTimer.record(() -> debit(accountNumber, withdrawAmountInCents));
+        if (result == null) {
+            return null;
+        }
+        if (result.isSuccess()) {
+            logger.debug("AccountService.withdrawAmount: Amount={} cents available in account{}.", withdrawAmountInCents, accountNumber);
+        } else {
+            logger.debug("AccountService.withdrawAmount: Amount={} cents not available in account{}.", withdrawAmountInCents, accountNumber);
+        }
+        return result;
+    }
+
+    @Override
+    @Transactional
+    public List<AccountWithdrawTO> withdrawAmounts(List<AccountDebit> debits) {
+        // locked in account number order, so concurrent batches cannot deadlock
+        Set<String> accountNumbers = new TreeSet<>();
+        debits.forEach(debit -> accountNumbers.add(debit.getAccountNumber()));
+        Map<String, VersionedBalance> balances = balanceReadTimer.record(() -> batchRepo.lockBalances(accountNumbers));
+
+        Map<String, Long> newBalances = new HashMap<>();
+        boolean[] debited = new boolean[debits.size()];
+        long[] balanceAfter = new long[debits.size()];
+        for (int i = 0; i < debits.size(); i++) {
+            AccountDebit debit = debits.get(i);
+            VersionedBalance balance = balances.get(debit.getAccountNumber());
+            if (balance == null) {
+                continue;
+            }
+            long current = newBalances.getOrDefault(debit.getAccountNumber(), balance.getAmountInCents());
+            debited[i] = current - balance.getHeldInCents() >= debit.getAmountInCents();
+            if (debited[i]) {
+                current -= debit.getAmountInCents();
+                newBalances.put(debit.getAccountNumber(), current);
+            }
+            balanceAfter[i] = current;
+        }
+        debitTimer.record(() -> batchRepo.updateBalances(newBalances));
+
+        List<AccountWithdrawTO> results = new ArrayList<>(debits.size());
+        for (int i = 0; i < debits.size(); i++) {
+            String accountNumber = debits.get(i).getAccountNumber();
+            VersionedBalance balance = balances.get(accountNumber);
+            if (balance == null) {
+                results.add(null);
+            } else {
+                long version = balance.getVersion() + (newBalances.containsKey(accountNumber) ? 1 : 0);
+                results.add(prepareResultObj(debited[i], balanceAfter[i], version));
+            }
+        }
+        newBalances.forEach((accountNumber, newBalance) -> {
+            VersionedBalance locked = balances.get(accountNumber);
+            publishBalance(accountNumber, newBalance - locked.getHeldInCents(), locked.getVersion() + 1);
+        });
+        return results;
+    }
+
+    /**
+     * Gives committed debits back, for debits committed in a transaction of their own whose withdrawal then rolled back.
+     */
+    @Transactional
+    public void refundAmounts(List<AccountDebit> debits) {
+        for (AccountDebit debit : debits) {
+            String accountNumber = debit.getAccountNumber();
+            if (accountRepo.credit(accountNumber, debit.getAmountInCents()) == 0) {
+                logger.error("AccountService.refundAmounts: Account{} is gone, {} cents could not be refunded.",
+                        accountNumber, debit.getAmountInCents());
+                continue;
+            }
+            accountRepo.findVersionedBalanceByAccountNumber(accountNumber)
+                    .ifPresent(newBalance -> publishBalance(accountNumber, newBalance));
+        }
+    }
+
+    private AccountWithdrawTO debit(String accountNumber, long withdrawAmountInCents) {
+        switch (debitMode) {
+            case OPTIMISTIC:
+                return optimisticRetry.execute(() -> debitOptimistically(accountNumber, withdrawAmountInCents));
+            case PESSIMISTIC:
+                return debitPessimistically(accountNumber, withdrawAmountInCents);
+            default:
+                return debitInOneStatement(accountNumber, withdrawAmountInCents);
+        }
+    }
+
+    private AccountWithdrawTO debitInOneStatement(String accountNumber, long withdrawAmountInCents) {
+        boolean debited = accountRepo.debitIfBalanceAvailable(accountNumber, withdrawAmountInCents) == 1;
+        Optional<VersionedBalance> balance = accountRepo.findVersionedBalanceByAccountNumber(accountNumber);
+        if (debited) {
+            balance.ifPresent(newBalance -> publishBalance(accountNumber, newBalance));
+        }
+        return balance.map(newBalance -> prepareResultObj(debited, newBalance.getAmountInCents(), newBalance.getVersion()))
+                .orElse(null);
+    }
+
+    private AccountWithdrawTO debitOptimistically(String accountNumber, long withdrawAmountInCents) {
+        Optional<VersionedBalance> read = accountRepo.findVersionedBalanceByAccountNumber(accountNumber);
+        if (!read.isPresent()) {
+            return null;
+        }
+        long balance = read.get().getAmountInCents();
+        long version = read.get().getVersion();
+        if (balance - read.get().getHeldInCents() < withdrawAmountInCents) {
+            return prepareResultObj(false, balance, version);
+        }
+        long newBalance = balance - withdrawAmountInCents;
+        if (accountRepo.updateBalanceIfVersionMatches(accountNumber, newBalance, version) == 0) {
+            throw new OptimisticLockingFailureException("Account " + accountNumber + " changed concurrently");
+        }
+        publishBalance(accountNumber, newBalance - read.get().getHeldInCents(), version + 1);
+        return prepareResultObj(true, newBalance, version + 1);
+    }
+
+    // the row lock is held until the transaction ends, the debit itself is flushed with the commit
+    private AccountWithdrawTO debitPessimistically(String accountNumber, long withdrawAmountInCents) {
+        Optional<Account> account = accountRepo.findLockedByAccountNumber(accountNumber);
+        if (!account.isPresent()) {
+            return null;
+        }
+        long balance = account.get().getAmountInCents();
+        long version = account.get().getVersion();
+        if (balance - account.get().getHeldInCents() < withdrawAmountInCents) {
+            return prepareResultObj(false, balance, version);
+        }
+        // the flush with the commit increments the version
+        account.get().setAmountInCents(balance - withdrawAmountInCents);
+        publishBalance(accountNumber, balance - withdrawAmountInCents - account.get().getHeldInCents(), version + 1);
+        return prepareResultObj(true, balance - withdrawAmountInCents, version + 1);
+    }
+
+    @Override
+    @Transactional
+    public AccountWithdrawTO holdAmount(String holdId, String accountNumber, long amountInCents, LocalDateTime expiresAt) {
+        boolean held = accountRepo.holdIfBalanceAvailable(accountNumber, amountInCents) == 1;
+        if (held) {
+            holdRepo.save(new AccountHold(holdId, accountNumber, amountInCents, expiresAt));
+        }
+        Optional<VersionedBalance> balance = balanceReadTimer.record(
+                () -> accountRepo.findVersionedBalanceByAccountNumber(accountNumber));
+        if (held) {
+            balance.ifPresent(heldBalance -> publishBalance(accountNumber, heldBalance));
+        }
+        return balance.map(currentBalance -> prepareResultObj(held, currentBalance.getAmountInCents())).orElse(null);
+    }
+
+    @Override
+    @Transactional
+    public boolean commitHold(String holdId) {
+        Optional<AccountHold> hold = claimHold(holdId);
+        if (!hold.isPresent()) {
+            return false;
+        }
+        String accountNumber = hold.get().getAccountNumber();
+        if (accountRepo.debitHeld(accountNumber, hold.get().getAmountInCents()) == 0) {
+            logger.warn("AccountService.commitHold: Hold={} of {} cents is no longer held on account{}, nothing debited.",
+                    holdId, hold.get().getAmountInCents(), accountNumber);
+            return false;
+        }
+        accountRepo.findVersionedBalanceByAccountNumber(accountNumber)
+                .ifPresent(newBalance -> publishBalance(accountNumber, newBalance));
+        return true;
+    }
+
+    @Override
+    @Transactional
+    public boolean releaseHold(String holdId) {
+        Optional<AccountHold> hold = claimHold(holdId);
+        if (!hold.isPresent()) {
+            return false;
+        }
+        String accountNumber = hold.get().getAccountNumber();
+        if (accountRepo.releaseHeld(accountNumber, hold.get().getAmountInCents()) == 1) {
+            accountRepo.findVersionedBalanceByAccountNumber(accountNumber)
+                    .ifPresent(newBalance -> publishBalance(accountNumber, newBalance));
+        }
+        return true;
+    }
+
+    @Override
+    @Transactional
+    public int releaseExpiredHolds(LocalDateTime now) {
+        int released = 0;
+        for (AccountHold hold : holdRepo.findByExpiresAtBefore(now)) {
+            if (releaseHold(hold.getHoldId())) {
+                released++;
+            }
+        }
+        return released;
+    }
+
+    // only the caller whose delete removed the row may debit or release the held amount
+    private Optional<AccountHold> claimHold(String holdId) {
+        Optional<AccountHold> hold = holdRepo.findById(holdId);
+        if (!hold.isPresent() || holdRepo.removeById(holdId) == 0) {
+            return Optional.empty();
+        }
+        return hold;
+    }
+
+    private Long loadBalance(String accountNumber) {
+        Optional<Account> account = accountRepo.findOptionalByAccountNumber(accountNumber);
+        return account.map(found -> found.getAmountInCents() - found.getHeldInCents()).orElse(null);
+    }
+
+    private void publishBalance(String accountNumber, VersionedBalance balance) {
+        publishBalance(accountNumber, balance.getAmountInCents() - balance.getHeldInCents(), balance.getVersion());
+    }
+
+    // inquiries show the balance not held for open withdrawals; a rolled back change must not show up in the cache
+    // or the read model, so the update waits for the commit
+    private void publishBalance(String accountNumber, long availableInCents, long version) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            balanceCache.invalidate(accountNumber);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    balanceCache.put(accountNumber, availableInCents);
+                    balanceReadModel.apply(accountNumber, availableInCents, version);
+                }
+            });
+        } else {
+            balanceCache.put(accountNumber, availableInCents);
+            balanceReadModel.apply(accountNumber, availableInCents, version);
+        }
+    }
+
+    private AccountWithdrawTO prepareResultObj(boolean isSuccessful, long newBalance) {
+        return prepareResultObj(isSuccessful, newBalance, 0L);
+    }
+
+    private AccountWithdrawTO prepareResultObj(boolean isSuccessful, long newBalance, long version) {
+        return AccountWithdrawTO.builder()
+                .success(isSuccessful)
+                .newBalanceInCents(newBalance)
+                .version(version)
+                .build();
+    }
+}
@@ -0,0 +1,23 @@
+package de.bank.atm.service;
+
+/**
+ * How an account debit is protected against concurrent debits of the same account (atm.account.debit-mode).
+ */
+public enum DebitMode {
+
+    /**
+     * Balance check and debit in one conditional update statement; the row is only locked for that statement.
+     */
+    STATEMENT,
+
+    /**
+     * Reads balance and version, then updates only if the version is unchanged; a conflict is retried with a
+     * jittered backoff.
+     */
+    OPTIMISTIC,
+
+    /**
+     * Locks the account row with select for update until the transaction ends.
+     */
+    PESSIMISTIC
+}
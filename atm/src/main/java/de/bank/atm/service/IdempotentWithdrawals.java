@@ -0,0 +1,149 @@
+package de.bank.atm.service;
+
+import de.bank.atm.cache.WithdrawalRequestCache;
+import de.bank.atm.domain.CurrencyNote;
+import de.bank.atm.domain.Denomination;
+import de.bank.atm.domain.ReplenishmentCounts;
+import de.bank.atm.domain.SettlementItem;
+import de.bank.atm.domain.SettlementResult;
+import de.bank.atm.domain.WithdrawalAttempt;
+import de.bank.atm.domain.WithdrawalHold;
+import de.bank.atm.entity.ATMState;
+import de.bank.atm.exception.ATMWithdrawException;
+import de.bank.atm.exception.ATMWithdrawException.Reason;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+
+/**
+ * Runs a withdrawal at most once per terminal and client request id. A repeated id gets the outcome of the first
+ * withdrawal, waiting for it if it is still running, instead of debiting the account again. Rejections which stay
+ * true, e.g. an unknown account, are repeated as well; a withdrawal rejected for missing funds or notes, or failed
+ * for another reason, rolled back and may run again.
+ * <p>
+ * Sits in front of the transactional ATMServiceImpl as the primary {@link ATMService}, so in-process callers and
+ * the REST API share one request cache and only committed withdrawals are answered from it. Every other call is
+ * passed on as it is.
+ */
+@Service
+@Primary
+public class IdempotentWithdrawals implements ATMService {
+
+    // rejections a retry of the same withdrawal would get again
+    private static final Set<Reason> FINAL_REJECTIONS =
+            EnumSet.of(Reason.INVALID_AMOUNT, Reason.OUT_OF_RANGE, Reason.UNKNOWN_ACCOUNT);
+
+    private ATMServiceImpl atmService;
+    private WithdrawalRequestCache requestCache;
+    private final Counter deduplicated;
+
+    @Autowired
+    public IdempotentWithdrawals(ATMServiceImpl atmService, WithdrawalRequestCache requestCache,
+                                 MeterRegistry meterRegistry) {
+        this.atmService = atmService;
+        this.requestCache = requestCache;
+        deduplicated = meterRegistry.counter("atm.withdrawal.deduplicated");
+    }
+
+    @Override
+    public ATMState replenishATM(String terminalId, List<CurrencyNote> currencyNotes) {
+        return atmService.replenishATM(terminalId, currencyNotes);
+    }
+
+    @Override
+    public ATMState replenishATM(String terminalId, ReplenishmentCounts counts) {
+        return atmService.replenishATM(terminalId, counts);
+    }
+
+    @Override
+    public ATMState replenishATM(String terminalId, Stream<Denomination> noteFeed) {
+        return atmService.replenishATM(terminalId, noteFeed);
+    }
+
+    @Override
+    public DispensableAmounts dispensableAmounts(String terminalId) {
+        return atmService.dispensableAmounts(terminalId);
+    }
+
+    @Override
+    public String checkAccountBalance(String accountNumber) {
+        return atmService.checkAccountBalance(accountNumber);
+    }
+
+    @Override
+    public Map<Denomination, Long> withrawAccountBalance(String terminalId, String accountNumber, BigDecimal amount) {
+        return atmService.withrawAccountBalance(terminalId, accountNumber, amount);
+    }
+
+    @Override
+    public Map<Denomination, Long> withrawAccountBalance(String terminalId, String requestId, String accountNumber,
+                                                         BigDecimal amount) {
+        String key = terminalId + '/' + requestId;
+        WithdrawalAttempt attempt = new WithdrawalAttempt(accountNumber, amount, new CompletableFuture<>());
+        WithdrawalAttempt original = requestCache.putIfAbsent(key, attempt);
+        if (original != null) {
+            if (!original.matches(accountNumber, amount)) {
+                throw new IllegalArgumentException("Request id " + requestId + " was used for a different withdrawal");
+            }
+            deduplicated.increment();
+            return outcome(original.getResult());
+        }
+        try {
+            Map<Denomination, Long> notesDispensed = atmService.withrawAccountBalance(terminalId, accountNumber, amount);
+            attempt.getResult().complete(notesDispensed);
+            return notesDispensed;
+        } catch (ATMWithdrawException e) {
+            if (!FINAL_REJECTIONS.contains(e.getReason())) {
+                requestCache.invalidate(key, attempt);
+            }
+            attempt.getResult().completeExceptionally(e);
+            throw e;
+        } catch (RuntimeException e) {
+            requestCache.invalidate(key, attempt);
+            attempt.getResult().completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public List<SettlementResult> settleWithdrawals(String terminalId, List<SettlementItem> items) {
+        return atmService.settleWithdrawals(terminalId, items);
+    }
+
+    @Override
+    public WithdrawalHold reserveWithdrawal(String terminalId, String accountNumber, BigDecimal amount) {
+        return atmService.reserveWithdrawal(terminalId, accountNumber, amount);
+    }
+
+    @Override
+    public Map<Denomination, Long> confirmWithdrawal(String holdId) {
+        return atmService.confirmWithdrawal(holdId);
+    }
+
+    @Override
+    public void cancelWithdrawal(String holdId) {
+        atmService.cancelWithdrawal(holdId);
+    }
+
+    private static Map<Denomination, Long> outcome(CompletableFuture<Map<Denomination, Long>> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package de.bank.atm.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Runs an optimistic update again when it lost against a concurrent change. Before every retry it waits a random
+ * time of up to backoff * 2^retry, so writers that collided once do not collide again in lockstep.
+ * <p>
+ * An attempt signals a conflict with {@link OptimisticLockingFailureException} and must leave the transaction
+ * usable, i.e. detect the conflict with a versioned update statement rather than an entity flush.
+ */
+@Component
+public class OptimisticRetry {
+
+    private static final int MAX_BACKOFF_SHIFT = 10;
+
+    private final int maxAttempts;
+    private final long backoffNanos;
+    private final Counter retries;
+    private final Counter exhausted;
+
+    @Autowired
+    public OptimisticRetry(@Value("${atm.optimistic-retry.max-attempts:5}") int maxAttempts,
+                           @Value("${atm.optimistic-retry.backoff-micros:500}") long backoffMicros,
+                           MeterRegistry meterRegistry) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("At least one attempt is required: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        this.backoffNanos = TimeUnit.MICROSECONDS.toNanos(backoffMicros);
+        retries = meterRegistry.counter("atm.optimistic.retries");
+        exhausted = meterRegistry.counter("atm.optimistic.exhausted");
+    }
+
+    /**
+     * @throws OptimisticLockingFailureException if the last of the attempts still conflicted
+     */
+    public <T> T execute(Supplier<T> attempt) {
+        for (int retry = 0; ; retry++) {
+            try {
+                return attempt.get();
+            } catch (OptimisticLockingFailureException e) {
+                if (retry + 1 >= maxAttempts) {
+                    exhausted.increment();
+                    throw e;
+                }
+                retries.increment();
+                backOff(retry);
+            }
+        }
+    }
+
+    private void backOff(int retry) {
+        long bound = backoffNanos << Math.min(retry, MAX_BACKOFF_SHIFT);
+        if (bound > 0) {
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(bound));
+        }
+    }
+}
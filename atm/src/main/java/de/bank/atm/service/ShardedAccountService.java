@@ -0,0 +1,214 @@
+package de.bank.atm.service;
+
+import de.bank.atm.domain.AccountDebit;
+import de.bank.atm.domain.AccountWithdrawTO;
+import de.bank.atm.shard.AccountShards;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+/**
+ * Routes every ledger call to the shard of its account and lets AccountServiceImpl do the work there, in a
+ * transaction of that shard. Active with more than one account shard only.
+ * <p>
+ * A settlement batch spanning several shards is not atomic: the debits of every shard are applied in a transaction of
+ * their own, one shard after the other, and each of them commits on its own. If a shard fails, its debits come back
+ * marked failed while those of the other shards stay applied; only when every shard fails is the failure thrown. Holds
+ * are looked up by id on every shard, the hold id does not tell the account.
+ * <p>
+ * A debit commits on its shard before the caller's transaction does. If the caller's transaction then rolls back, the
+ * debit is given back in a new transaction on the shard, so a withdrawal which dispenses nothing debits nothing.
+ */
+@Service
+@Primary
+@ConditionalOnExpression("${atm.account-shards.count:1} > 1")
+public class ShardedAccountService implements AccountService {
+    Logger logger = LoggerFactory.getLogger(ShardedAccountService.class);
+
+    private AccountServiceImpl accounts;
+    private AccountShards shards;
+
+    @Autowired
+    ShardedAccountService(AccountServiceImpl accounts, AccountShards shards) {
+        this.accounts = accounts;
+        this.shards = shards;
+    }
+
+    @Override
+    public Long checkBalance(String accountNumber) {
+        return locate(accountNumber, shard -> shards.outsideTransaction(shard,
+                () -> accounts.checkBalance(accountNumber)));
+    }
+
+    @Override
+    public AccountWithdrawTO withdrawAmount(String accountNumber, long withdrawAmountInCents) {
+        return locate(accountNumber, shard -> withdrawOnShard(shard, accountNumber, withdrawAmountInCents));
+    }
+
+    @Override
+    public List<AccountWithdrawTO> withdrawAmounts(List<AccountDebit> debits) {
+        Map<Integer, List<Integer>> itemsByShard = new TreeMap<>();
+        for (int i = 0; i < debits.size(); i++) {
+            itemsByShard.computeIfAbsent(shards.shardOf(debits.get(i).getAccountNumber()), shard -> new ArrayList<>())
+                    .add(i);
+        }
+        boolean resharding = shards.isResharding();
+        AccountWithdrawTO[] results = new AccountWithdrawTO[debits.size()];
+        RuntimeException failure = null;
+        boolean committed = false;
+        for (Map.Entry<Integer, List<Integer>> shard : itemsByShard.entrySet()) {
+            try {
+                withdrawOnShard(shard.getKey(), shard.getValue(), debits, results);
+                committed = true;
+            } catch (RuntimeException e) {
+                logger.warn("ShardedAccountService.withdrawAmounts: Debits on shard {} failed, {} of {} debits are not "
+                        + "applied.", shard.getKey(), shard.getValue().size(), debits.size(), e);
+                failure = failure == null ? e : failure;
+                shard.getValue().forEach(i -> results[i] = AccountWithdrawTO.builder().failed(true).build());
+            }
+        }
+        // nothing is applied, fail the batch as a whole like a single transaction would
+        if (!committed && failure != null) {
+            throw failure;
+        }
+        if (resharding || shards.isResharding()) {
+            withdrawMovedAccounts(debits, results);
+        }
+        return Arrays.asList(results);
+    }
+
+    private void withdrawOnShard(int shard, List<Integer> items, List<AccountDebit> debits,
+                                 AccountWithdrawTO[] results) {
+        List<AccountDebit> shardDebits = new ArrayList<>(items.size());
+        items.forEach(i -> shardDebits.add(debits.get(i)));
+        List<AccountWithdrawTO> withdrawn = shards.inTransaction(shard, () -> accounts.withdrawAmounts(shardDebits));
+        List<AccountDebit> applied = new ArrayList<>();
+        for (int k = 0; k < withdrawn.size(); k++) {
+            results[items.get(k)] = withdrawn.get(k);
+            if (withdrawn.get(k) != null && withdrawn.get(k).isSuccess()) {
+                applied.add(shardDebits.get(k));
+            }
+        }
+        refundOnRollback(shard, applied);
+    }
+
+    private AccountWithdrawTO withdrawOnShard(int shard, String accountNumber, long amountInCents) {
+        AccountWithdrawTO result = shards.inTransaction(shard,
+                () -> accounts.withdrawAmount(accountNumber, amountInCents));
+        if (result != null && result.isSuccess()) {
+            refundOnRollback(shard, Collections.singletonList(new AccountDebit(accountNumber, amountInCents)));
+        }
+        return result;
+    }
+
+    // debits of accounts not found on their shard while resharding, one by one in list order on the shard they are on
+    private void withdrawMovedAccounts(List<AccountDebit> debits, AccountWithdrawTO[] results) {
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            AccountDebit debit = debits.get(i);
+            try {
+                results[i] = locateElsewhere(shards.shardOf(debit.getAccountNumber()),
+                        shard -> withdrawOnShard(shard, debit.getAccountNumber(), debit.getAmountInCents()));
+            } catch (RuntimeException e) {
+                logger.warn("ShardedAccountService.withdrawAmounts: Debit of account{} not found on its shard failed.",
+                        debit.getAccountNumber(), e);
+                results[i] = AccountWithdrawTO.builder().failed(true).build();
+            }
+        }
+    }
+
+    // the shard transaction has committed, a rollback of the caller's transaction has to give the debits back
+    private void refundOnRollback(int shard, List<AccountDebit> applied) {
+        if (applied.isEmpty() || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    return;
+                }
+                try {
+                    shards.inTransaction(shard, () -> {
+                        accounts.refundAmounts(applied);
+                        return null;
+                    });
+                } catch (RuntimeException e) {
+                    logger.error("ShardedAccountService.refundOnRollback: Could not refund {} on shard {} after the "
+                            + "withdrawal rolled back.", applied, shard, e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public AccountWithdrawTO holdAmount(String holdId, String accountNumber, long amountInCents, LocalDateTime expiresAt) {
+        return locate(accountNumber, shard -> shards.inTransaction(shard,
+                () -> accounts.holdAmount(holdId, accountNumber, amountInCents, expiresAt)));
+    }
+
+    @Override
+    public boolean commitHold(String holdId) {
+        for (int shard = 0; shard < shards.getCount(); shard++) {
+            if (shards.inTransaction(shard, () -> accounts.commitHold(holdId))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean releaseHold(String holdId) {
+        for (int shard = 0; shard < shards.getCount(); shard++) {
+            if (shards.inTransaction(shard, () -> accounts.releaseHold(holdId))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public int releaseExpiredHolds(LocalDateTime now) {
+        int released = 0;
+        for (int shard = 0; shard < shards.getCount(); shard++) {
+            released += shards.inTransaction(shard, () -> accounts.releaseExpiredHolds(now));
+        }
+        return released;
+    }
+
+    // an account the resharding has not moved yet is still on its old shard
+    private <T> T locate(String accountNumber, IntFunction<T> onShard) {
+        boolean resharding = shards.isResharding();
+        int home = shards.shardOf(accountNumber);
+        T result = onShard.apply(home);
+        return result == null && (resharding || shards.isResharding()) ? locateElsewhere(home, onShard) : result;
+    }
+
+    // the copy on the home shard commits before the old row is deleted, so an account whose move commits while the
+    // other shards are asked is found by asking the home shard once more
+    private <T> T locateElsewhere(int home, IntFunction<T> onShard) {
+        T result = null;
+        for (int shard = 0; result == null && shard < shards.getCount(); shard++) {
+            if (shard != home) {
+                result = onShard.apply(shard);
+            }
+        }
+        return result != null ? result : onShard.apply(home);
+    }
+}
@@ -0,0 +1,131 @@
+package de.bank.atm.service;
+
+import de.bank.atm.domain.AccountDebit;
+import de.bank.atm.domain.Denomination;
+import de.bank.atm.domain.Money;
+import de.bank.atm.domain.ReplenishmentCounts;
+import de.bank.atm.entity.ATMState;
+import de.bank.atm.journal.TransactionJournal;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The in-memory state of one terminal: its cassettes, its dispense table and its journal. Nothing in here is shared
+ * with other terminals, so withdrawals on different terminals never touch the same counter or lock.
+ */
+public class TerminalState {
+
+    private final String terminalId;
+    private final CassetteInventory inventory = new CassetteInventory();
+    private final DispenseEngine dispenseEngine = new DispenseEngine();
+    private final TransactionJournal journal;
+    private volatile boolean initialised;
+    private volatile long flushedSequence;
+
+    TerminalState(String terminalId, TransactionJournal journal) {
+        this.terminalId = terminalId;
+        this.journal = journal;
+    }
+
+    public String getTerminalId() {
+        return terminalId;
+    }
+
+    public CassetteInventory inventory() {
+        return inventory;
+    }
+
+    public DispenseEngine dispenseEngine() {
+        return dispenseEngine;
+    }
+
+    public DispensableAmounts dispensableAmounts() {
+        return dispenseEngine.dispensableAmounts(inventory);
+    }
+
+    public boolean isInitialised() {
+        return initialised;
+    }
+
+    public Optional<ATMState> current() {
+        return initialised ? Optional.of(snapshot()) : Optional.empty();
+    }
+
+    public ATMState replenish(ReplenishmentCounts counts) {
+        for (Denomination denomination : Denomination.values()) {
+            if (counts.get(denomination) > 0) {
+                inventory.add(denomination, counts.get(denomination));
+            }
+        }
+        initialised = true;
+        journal.appendReplenishment(counts);
+        return snapshot();
+    }
+
+    /**
+     * Appends a withdrawal whose notes were taken from the inventory and whose amount was debited.
+     */
+    public void recordWithdrawal(String accountNumber, long amountInCents, Map<Denomination, Long> notesDispensed) {
+        journal.appendWithdrawal(accountNumber, amountInCents, notesDispensed);
+    }
+
+    /**
+     * Appends the withdrawals of a settlement batch, waiting for at most one journal commit.
+     */
+    public void recordWithdrawals(List<AccountDebit> withdrawals, List<Map<Denomination, Long>> notesDispensed) {
+        journal.appendWithdrawals(withdrawals, notesDispensed);
+    }
+
+    /**
+     * Appends reversals of recorded withdrawals which were not committed after all.
+     */
+    public void recordReversals(List<AccountDebit> withdrawals, List<Map<Denomination, Long>> notesDispensed) {
+        journal.appendReversals(withdrawals, notesDispensed);
+    }
+
+    TransactionJournal journal() {
+        return journal;
+    }
+
+    void setInitialised(boolean initialised) {
+        this.initialised = initialised;
+    }
+
+    long getFlushedSequence() {
+        return flushedSequence;
+    }
+
+    void setFlushedSequence(long flushedSequence) {
+        this.flushedSequence = flushedSequence;
+    }
+
+    ATMState snapshot() {
+        return snapshot(inventory.stacks());
+    }
+
+    /**
+     * The stacks left by the journaled changes. Notes of withdrawals in flight and of open holds are counted as in the
+     * cassettes, so a snapshot taken while they are reserved loses none of them once the reservation is gone.
+     */
+    ATMState journaledSnapshot() {
+        return snapshot(journal.stacks());
+    }
+
+    private ATMState snapshot(long[] stacks) {
+        ATMState atmState = new ATMState(null, terminalId, 0L, stacks[Denomination.FIVE.ordinal()],
+                stacks[Denomination.TEN.ordinal()], stacks[Denomination.TWENTY.ordinal()],
+                stacks[Denomination.FIFTY.ordinal()], LocalDateTime.now());
+        atmState.setAtmBalanceInCents(calcATMBalance(atmState) * Money.CENTS_PER_UNIT);
+        return atmState;
+    }
+
+    private long calcATMBalance(ATMState atmState) {
+        return atmState.getStackOfFive() * 5L
+                + atmState.getStackOfTen() * 10L
+                + atmState.getStackOfTwenty() * 20L
+                + atmState.getStackOfFifty() * 50L;
+    }
+}
@@ -0,0 +1,115 @@
+package de.bank.atm.shard;
+
+import de.bank.atm.repository.AccountBatchRepository;
+import de.bank.atm.repository.AccountRepository.VersionedBalance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Moves every account that is not on the shard its account number hashes to, e.g. after atm.account-shards.count was
+ * raised or when accounts were written to shard 0 by plain SQL (data.sql). Shards are paged through in account number
+ * order; every page is moved with one batch insert on the new shard and one batch delete on the old one, the insert
+ * committing first. Accounts with open holds are skipped, their hold rows would have to move along.
+ * <p>
+ * Withdrawals and settlements may continue meanwhile: an account not found on its new shard yet is looked up on the
+ * others and then on its new shard once more. The row being moved stays locked on its old shard until it is deleted
+ * there, after its copy committed, so a lookup which waited for the lock finds the copy on the second look.
+ */
+@Component
+@ManagedResource(objectName = "de.bank.atm:type=Shards,name=accounts")
+public class AccountResharder {
+    Logger logger = LoggerFactory.getLogger(AccountResharder.class);
+
+    static final int PAGE_SIZE = 500;
+
+    private final AccountShards shards;
+    private final AccountBatchRepository batchRepository;
+    private final boolean reshardOnStartup;
+
+    @Autowired
+    public AccountResharder(AccountShards shards, AccountBatchRepository batchRepository,
+                            @Value("${atm.account-shards.reshard-on-startup:true}") boolean reshardOnStartup) {
+        this.shards = shards;
+        this.batchRepository = batchRepository;
+        this.reshardOnStartup = reshardOnStartup;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reshardAfterStartup() {
+        if (shards.isSharded() && reshardOnStartup) {
+            reshard();
+        }
+    }
+
+    @ManagedOperation(description = "Moves every account that is not on its shard to it")
+    public String reshardAccounts() {
+        return reshard().toString();
+    }
+
+    public synchronized ReshardResult reshard() {
+        long start = System.nanoTime();
+        long moved = 0;
+        long skipped = 0;
+        shards.setResharding(true);
+        try {
+            for (int source = 0; source < shards.getCount(); source++) {
+                int shard = source;
+                String last = "";
+                List<String> page;
+                do {
+                    String after = last;
+                    page = shards.outsideTransaction(shard,
+                            () -> batchRepository.findAccountNumbersAfter(after, PAGE_SIZE));
+                    Map<Integer, List<String>> misplaced = new TreeMap<>();
+                    for (String accountNumber : page) {
+                        int target = shards.shardOf(accountNumber);
+                        if (target != shard) {
+                            misplaced.computeIfAbsent(target, key -> new ArrayList<>()).add(accountNumber);
+                        }
+                        last = accountNumber;
+                    }
+                    for (Map.Entry<Integer, List<String>> accounts : misplaced.entrySet()) {
+                        long movedNow = move(shard, accounts.getKey(), accounts.getValue());
+                        moved += movedNow;
+                        skipped += accounts.getValue().size() - movedNow;
+                    }
+                } while (page.size() == PAGE_SIZE);
+            }
+        } finally {
+            shards.setResharding(false);
+        }
+        ReshardResult result = new ReshardResult(moved, skipped, (System.nanoTime() - start) / 1_000_000L);
+        logger.info("AccountResharder.reshard: Moved {} accounts to their shard in {} ms, skipped {} with open holds",
+                result.getMoved(), result.getElapsedMillis(), result.getSkipped());
+        return result;
+    }
+
+    private long move(int source, int target, List<String> accountNumbers) {
+        return shards.inTransaction(source, () -> {
+            Map<String, VersionedBalance> balances = batchRepository.lockBalances(new TreeSet<>(accountNumbers));
+            balances.values().removeIf(balance -> balance.getHeldInCents() != 0);
+            shards.inTransaction(target, () -> {
+                // copies left by a run that stopped between the two commits are the ones debited since, keep them
+                Map<String, VersionedBalance> copies = new TreeMap<>(balances);
+                copies.keySet().removeAll(batchRepository.lockBalances(copies.keySet()).keySet());
+                batchRepository.insertBalances(copies);
+                return null;
+            });
+            batchRepository.deleteAccounts(balances.keySet());
+            return (long) balances.size();
+        });
+    }
+}
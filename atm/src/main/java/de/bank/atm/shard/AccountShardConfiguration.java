@@ -0,0 +1,89 @@
+package de.bank.atm.shard;
+
+import de.bank.atm.entity.Account;
+import de.bank.atm.entity.AccountHold;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.tool.hbm2ddl.SchemaUpdate;
+import org.hibernate.tool.schema.TargetType;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.boot.orm.jpa.hibernate.SpringImplicitNamingStrategy;
+import org.springframework.boot.orm.jpa.hibernate.SpringPhysicalNamingStrategy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Replaces the single datasource by one routing over atm.account-shards.count databases once there is more than one
+ * shard. Shard 0 is spring.datasource, shard i is atm.account-shards.url with {shard} replaced by i. JPA and JDBC keep
+ * seeing one datasource; the schema of the other shards holds only the account tables and is kept up to date here.
+ */
+@Configuration
+@ConditionalOnExpression("${atm.account-shards.count:1} > 1")
+public class AccountShardConfiguration implements DisposableBean {
+
+    private AccountShardRoutingDataSource routingDataSource;
+
+    // lazy connections: a transaction that never runs a statement, like the one of a withdrawal around the shard
+    // transaction of its debit, does not take a connection from shard 0
+    @Bean
+    @Primary
+    public DataSource dataSource(DataSourceProperties properties,
+                                 @Value("${atm.account-shards.count}") int count,
+                                 @Value("${atm.account-shards.url:jdbc:h2:mem:account-shard-{shard};DB_CLOSE_DELAY=-1}")
+                                         String url) {
+        List<DataSource> shards = new ArrayList<>(count);
+        shards.add(properties.initializeDataSourceBuilder().build());
+        for (int shard = 1; shard < count; shard++) {
+            DataSource dataSource = DataSourceBuilder.create()
+                    .url(url.replace("{shard}", String.valueOf(shard)))
+                    .username(properties.determineUsername())
+                    .password(properties.determinePassword())
+                    .build();
+            updateAccountSchema(dataSource);
+            shards.add(dataSource);
+        }
+        routingDataSource = new AccountShardRoutingDataSource(shards);
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        if (routingDataSource != null) {
+            routingDataSource.close();
+        }
+    }
+
+    // Hibernate creates the schema of shard 0 with all other tables, the other shards get the account tables alike
+    private static void updateAccountSchema(DataSource dataSource) {
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+                .applySetting(AvailableSettings.DATASOURCE, dataSource)
+                .build();
+        try {
+            Metadata metadata = new MetadataSources(registry)
+                    .addAnnotatedClass(Account.class)
+                    .addAnnotatedClass(AccountHold.class)
+                    .getMetadataBuilder()
+                    .applyImplicitNamingStrategy(new SpringImplicitNamingStrategy())
+                    .applyPhysicalNamingStrategy(new SpringPhysicalNamingStrategy())
+                    .build();
+            new SchemaUpdate().setHaltOnError(true).execute(EnumSet.of(TargetType.DATABASE), metadata);
+        } finally {
+            StandardServiceRegistryBuilder.destroy(registry);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package de.bank.atm.shard;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.function.Supplier;
+
+/**
+ * Places every account on one of atm.account-shards.count databases by a hash of its account number and runs work
+ * against a shard. With a single shard (the default) the work simply runs, in the caller's transaction if there is
+ * one. With more shards the work gets its own transaction on the shard's database, because a transaction is bound to
+ * the one connection it started with.
+ * <p>
+ * The shard is chosen by jump consistent hashing, so growing from n to n + 1 shards moves only the accounts that
+ * belong to the new shard, about 1 / (n + 1) of them, and nothing between the old shards.
+ */
+@Component
+public class AccountShards {
+
+    private final int count;
+    private final TransactionTemplate newTransaction;
+    private final TransactionTemplate noTransaction;
+    private volatile boolean resharding;
+
+    @Autowired
+    public AccountShards(@Value("${atm.account-shards.count:1}") int count, PlatformTransactionManager transactionManager) {
+        if (count < 1) {
+            throw new IllegalArgumentException("atm.account-shards.count must be at least 1, was " + count);
+        }
+        this.count = count;
+        if (count > 1) {
+            newTransaction = new TransactionTemplate(transactionManager);
+            newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            noTransaction = new TransactionTemplate(transactionManager);
+            noTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_NOT_SUPPORTED);
+        } else {
+            newTransaction = null;
+            noTransaction = null;
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public boolean isSharded() {
+        return count > 1;
+    }
+
+    /**
+     * @return the shard the account belongs on, between 0 and count - 1
+     */
+    public int shardOf(String accountNumber) {
+        return shardOf(accountNumber, count);
+    }
+
+    static int shardOf(String accountNumber, int count) {
+        // FNV-1a, stable across JVMs unlike identity based hashes
+        long key = 0xcbf29ce484222325L;
+        for (int i = 0; i < accountNumber.length(); i++) {
+            key ^= accountNumber.charAt(i);
+            key *= 0x100000001b3L;
+        }
+        // Lamping and Veach, "A Fast, Minimal Memory, Consistent Hash Algorithm"
+        long bucket = -1;
+        long next = 0;
+        while (next < count) {
+            bucket = next;
+            key = key * 2862933555777941757L + 1;
+            next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+
+    /**
+     * Runs the work in a new transaction on the shard; the caller's transaction, if any, is suspended meanwhile. Work
+     * on another shard started from within commits before this one, so a failure there rolls this one back too.
+     */
+    public <T> T inTransaction(int shard, Supplier<T> work) {
+        return isSharded() ? route(shard, () -> newTransaction.execute(status -> work.get())) : work.get();
+    }
+
+    /**
+     * Runs the work on the shard outside of any transaction, for reads.
+     */
+    public <T> T outsideTransaction(int shard, Supplier<T> work) {
+        return isSharded() ? route(shard, () -> noTransaction.execute(status -> work.get())) : work.get();
+    }
+
+    /**
+     * Runs the work on every shard in turn, outside of any transaction.
+     */
+    public void forEachShard(Runnable work) {
+        for (int shard = 0; shard < count; shard++) {
+            outsideTransaction(shard, () -> {
+                work.run();
+                return null;
+            });
+        }
+    }
+
+    /**
+     * True while {@link AccountResharder} moves accounts; an account may then still be found on its old shard.
+     */
+    public boolean isResharding() {
+        return resharding;
+    }
+
+    void setResharding(boolean resharding) {
+        this.resharding = resharding;
+    }
+
+    private static <T> T route(int shard, Supplier<T> work) {
+        Integer previous = AccountShardRoutingDataSource.currentShard();
+        AccountShardRoutingDataSource.setCurrentShard(shard);
+        try {
+            return work.get();
+        } finally {
+            AccountShardRoutingDataSource.setCurrentShard(previous);
+        }
+    }
+}
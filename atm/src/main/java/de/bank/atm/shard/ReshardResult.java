@@ -0,0 +1,16 @@
+package de.bank.atm.shard;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class ReshardResult {
+
+    private long moved;
+    /**
+     * Accounts left on their old shard because of open withdrawal holds, a later run moves them.
+     */
+    private long skipped;
+    private long elapsedMillis;
+}
@@ -0,0 +1,116 @@
+package de.bank.atm.web;
+
+import de.bank.atm.domain.ReplenishmentCounts;
+import de.bank.atm.domain.WithdrawalHold;
+import de.bank.atm.entity.ATMState;
+import de.bank.atm.service.ATMService;
+import de.bank.atm.service.DispensableAmounts;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * REST API of the ATM service. Every call that reaches the database runs on the bounded atmRequestExecutor and the
+ * servlet thread is released until the returned future completes; in-memory quotes are answered directly.
+ */
+@RestController
+@RequestMapping("/api")
+public class ATMController {
+
+    private static final String NOT_FOUND = "NOT_FOUND";
+
+    private ATMService atmService;
+    private Executor executor;
+    private int maxSettlementItems;
+
+    @Autowired
+    ATMController(ATMService atmService, @Qualifier("atmRequestExecutor") Executor executor,
+                  @Value("${atm.settlement.max-items:10000}") int maxSettlementItems) {
+        this.atmService = atmService;
+        this.executor = executor;
+        this.maxSettlementItems = maxSettlementItems;
+    }
+
+    @GetMapping("/accounts/{accountNumber}/balance")
+    public CompletableFuture<ResponseEntity<BalanceResponse>> checkBalance(@PathVariable String accountNumber) {
+        return CompletableFuture.supplyAsync(() -> {
+            String balance = atmService.checkAccountBalance(accountNumber);
+            if (NOT_FOUND.equals(balance)) {
+                return ResponseEntity.notFound().build();
+            }
+            return ResponseEntity.ok(new BalanceResponse(accountNumber, balance));
+        }, executor);
+    }
+
+    @GetMapping("/terminals/{terminalId}/dispensable-amounts")
+    public DispensableAmountsResponse dispensableAmounts(@PathVariable String terminalId) {
+        DispensableAmounts amounts = atmService.dispensableAmounts(terminalId);
+        return new DispensableAmountsResponse(terminalId, amounts.toList(), amounts.getMask());
+    }
+
+    @PostMapping("/terminals/{terminalId}/withdrawals")
+    public CompletableFuture<WithdrawalResponse> withdraw(@PathVariable String terminalId,
+                                                          @RequestBody WithdrawalRequest request) {
+        if (request.getAccountNumber() == null || request.getAmount() == null) {
+            throw new IllegalArgumentException("accountNumber and amount are required");
+        }
+        if (request.getRequestId() != null) {
+            return CompletableFuture.supplyAsync(() -> new WithdrawalResponse(atmService.withrawAccountBalance(
+                    terminalId, request.getRequestId(), request.getAccountNumber(), request.getAmount())), executor);
+        }
+        return CompletableFuture.supplyAsync(() -> new WithdrawalResponse(
+                atmService.withrawAccountBalance(terminalId, request.getAccountNumber(), request.getAmount())), executor);
+    }
+
+    @PostMapping("/terminals/{terminalId}/settlements")
+    public CompletableFuture<SettlementResponse> settle(@PathVariable String terminalId,
+                                                        @RequestBody SettlementRequest request) {
+        if (request.getWithdrawals() == null || request.getWithdrawals().isEmpty()) {
+            throw new IllegalArgumentException("withdrawals are required");
+        }
+        if (request.getWithdrawals().size() > maxSettlementItems) {
+            throw new IllegalArgumentException("At most " + maxSettlementItems + " withdrawals per settlement");
+        }
+        if (request.getWithdrawals().stream().anyMatch(item -> item.getAccountNumber() == null || item.getAmount() == null)) {
+            throw new IllegalArgumentException("accountNumber and amount are required for every withdrawal");
+        }
+        return CompletableFuture.supplyAsync(() -> SettlementResponse.of(terminalId,
+                atmService.settleWithdrawals(terminalId, request.getWithdrawals())), executor);
+    }
+
+    @PostMapping("/terminals/{terminalId}/withdrawal-holds")
+    public CompletableFuture<WithdrawalHold> reserveWithdrawal(@PathVariable String terminalId,
+                                                               @RequestBody WithdrawalRequest request) {
+        if (request.getAccountNumber() == null || request.getAmount() == null) {
+            throw new IllegalArgumentException("accountNumber and amount are required");
+        }
+        return CompletableFuture.supplyAsync(
+                () -> atmService.reserveWithdrawal(terminalId, request.getAccountNumber(), request.getAmount()), executor);
+    }
+
+    @PostMapping("/withdrawal-holds/{holdId}/confirmation")
+    public CompletableFuture<WithdrawalResponse> confirmWithdrawal(@PathVariable String holdId) {
+        return CompletableFuture.supplyAsync(() -> new WithdrawalResponse(atmService.confirmWithdrawal(holdId)), executor);
+    }
+
+    @DeleteMapping("/withdrawal-holds/{holdId}")
+    public CompletableFuture<ResponseEntity<Void>> cancelWithdrawal(@PathVariable String holdId) {
+        return CompletableFuture.supplyAsync(() -> {
+            atmService.cancelWithdrawal(holdId);
+            return ResponseEntity.noContent().<Void>build();
+        }, executor);
+    }
+
+    @PostMapping("/terminals/{terminalId}/replenishments")
+    public CompletableFuture<ATMState> replenish(@PathVariable String terminalId,
+                                                 @RequestBody ReplenishmentRequest request) {
+        ReplenishmentCounts counts = ReplenishmentCounts.of(request.getFives(), request.getTens(),
+                request.getTwenties(), request.getFifties());
+        return CompletableFuture.supplyAsync(() -> atmService.replenishATM(terminalId, counts), executor);
+    }
+}
@@ -0,0 +1,43 @@
+package de.bank.atm.web;
+
+import de.bank.atm.exception.ATMWithdrawException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.util.concurrent.RejectedExecutionException;
+
+@RestControllerAdvice
+public class ApiExceptionHandler {
+    Logger logger = LoggerFactory.getLogger(ApiExceptionHandler.class);
+
+    @ExceptionHandler(ATMWithdrawException.class)
+    @ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+    public ErrorResponse withdrawFailed(ATMWithdrawException e) {
+        return new ErrorResponse(e.getReason().name(), e.getMessage());
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ErrorResponse badRequest(IllegalArgumentException e) {
+        return new ErrorResponse("BAD_REQUEST", e.getMessage());
+    }
+
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public ErrorResponse concurrentUpdate(OptimisticLockingFailureException e) {
+        logger.warn("ApiExceptionHandler.concurrentUpdate: {}", e.getMessage());
+        return new ErrorResponse("CONCURRENT_UPDATE", "The account is being changed by another request, try again");
+    }
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public ErrorResponse overloaded(RejectedExecutionException e) {
+        logger.warn("ApiExceptionHandler.overloaded: Request rejected, the request executor is saturated.");
+        return new ErrorResponse("OVERLOADED", "Too many requests in progress, try again later");
+    }
+}
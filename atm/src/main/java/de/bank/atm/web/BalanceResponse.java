@@ -0,0 +1,14 @@
+package de.bank.atm.web;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BalanceResponse {
+
+    private String accountNumber;
+    private String balance;
+}
@@ -0,0 +1,20 @@
+package de.bank.atm.web;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DispensableAmountsResponse {
+
+    private String terminalId;
+    private List<Long> amounts;
+    /**
+     * Bit i stands for the amount 20 + 5 * i.
+     */
+    private long mask;
+}
@@ -0,0 +1,19 @@
+package de.bank.atm.web;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Number of notes loaded per denomination.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReplenishmentRequest {
+
+    private long fives;
+    private long tens;
+    private long twenties;
+    private long fifties;
+}
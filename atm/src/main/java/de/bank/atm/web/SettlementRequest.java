@@ -0,0 +1,16 @@
+package de.bank.atm.web;
+
+import de.bank.atm.domain.SettlementItem;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SettlementRequest {
+
+    private List<SettlementItem> withdrawals;
+}
@@ -0,0 +1,27 @@
+package de.bank.atm.web;
+
+import de.bank.atm.domain.SettlementResult;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SettlementResponse {
+
+    private String terminalId;
+    private long settled;
+    private long rejected;
+    /**
+     * One result per requested withdrawal, in request order.
+     */
+    private List<SettlementResult> results;
+
+    public static SettlementResponse of(String terminalId, List<SettlementResult> results) {
+        long settled = results.stream().filter(SettlementResult::isSuccess).count();
+        return new SettlementResponse(terminalId, settled, results.size() - settled, results);
+    }
+}
@@ -0,0 +1,27 @@
+package de.bank.atm.web;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class WebConfiguration {
+
+    /**
+     * Runs the service calls of the REST API so the servlet threads are free while the database works. The queue is
+     * bounded; requests beyond it are rejected with 503 instead of piling up.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor atmRequestExecutor(@Value("${atm.web.executor.core-size:16}") int coreSize,
+                                                     @Value("${atm.web.executor.max-size:32}") int maxSize,
+                                                     @Value("${atm.web.executor.queue-capacity:1000}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(coreSize);
+        executor.setMaxPoolSize(maxSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("atm-request-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+}
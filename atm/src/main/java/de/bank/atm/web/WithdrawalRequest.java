@@ -0,0 +1,24 @@
+package de.bank.atm.web;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class WithdrawalRequest {
+
+    private String accountNumber;
+    private BigDecimal amount;
+    /**
+     * Optional client id of the request; a retry with the same id gets the first outcome without a second debit.
+     */
+    private String requestId;
+
+    public WithdrawalRequest(String accountNumber, BigDecimal amount) {
+        this(accountNumber, amount, null);
+    }
+}
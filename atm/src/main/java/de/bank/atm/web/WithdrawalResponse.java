@@ -0,0 +1,16 @@
+package de.bank.atm.web;
+
+import de.bank.atm.domain.Denomination;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class WithdrawalResponse {
+
+    private Map<Denomination, Long> notes;
+}
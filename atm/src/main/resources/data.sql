@@ -0,0 +1 @@
+insert into account (id, account_number, amount_in_cents, held_in_cents, version) values(next value for hibernate_sequence, '1234', 20000, 0, 0);
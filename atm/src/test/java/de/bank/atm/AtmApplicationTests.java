@@ -0,0 +1,152 @@
+package de.bank.atm;
+
+import de.bank.atm.domain.ReplenishmentCounts;
+import de.bank.atm.domain.SettlementItem;
+import de.bank.atm.domain.SettlementResult;
+import de.bank.atm.entity.ATMState;
+import de.bank.atm.entity.Account;
+import de.bank.atm.exception.ATMWithdrawException.Reason;
+import de.bank.atm.importer.AccountImportResult;
+import de.bank.atm.importer.AccountImporter;
+import de.bank.atm.repository.ATMStateRepository;
+import de.bank.atm.repository.AccountRepository;
+import de.bank.atm.service.ATMService;
+import de.bank.atm.service.ATMStateCompaction;
+import de.bank.atm.service.AccountService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "atm.journal.directory=target/journal-test")
+public class AtmApplicationTests {
+
+	@Autowired
+	private AccountImporter accountImporter;
+	@Autowired
+	private AccountRepository accountRepository;
+	@Autowired
+	private ATMStateRepository atmStateRepository;
+	@Autowired
+	private ATMStateCompaction compaction;
+	@Autowired
+	private AccountService accountService;
+	@Autowired
+	private ATMService atmService;
+
+	@Test
+	public void contextLoads() {
+	}
+
+	@Test
+	public void importedAccountsAreStoredNextToTheSeededOnes() throws IOException {
+		AccountImportResult result = accountImporter.importCsv(
+				new StringReader("account_number,balance\nIMP1,100.00\nIMP2,0.01\n"));
+		assertThat(result.getImported()).isEqualTo(2L);
+		assertThat(accountRepository.findAmountInCentsByAccountNumber("IMP1")).contains(10000L);
+		assertThat(accountRepository.findAmountInCentsByAccountNumber("IMP2")).contains(1L);
+		assertThat(accountRepository.findAmountInCentsByAccountNumber("1234")).contains(20000L);
+	}
+
+	@Test
+	public void importSkipsAccountNumbersAlreadyTaken() throws IOException {
+		// 1234 is seeded, DUP1 comes twice
+		AccountImportResult result = accountImporter.importCsv(new StringReader("DUP1,1\n1234,5\nDUP1,2\nDUP2,3\n"));
+		assertThat(result.getImported()).isEqualTo(2L);
+		assertThat(result.getRejected()).isEqualTo(2L);
+		assertThat(accountRepository.findAmountInCentsByAccountNumber("DUP1")).contains(100L);
+		assertThat(accountRepository.findAmountInCentsByAccountNumber("DUP2")).contains(300L);
+		assertThat(accountRepository.findAmountInCentsByAccountNumber("1234")).contains(20000L);
+	}
+
+	@Test
+	public void compactionKeepsTheLatestSnapshotPerHourBeforeTheRetentionWindow() {
+		atmStateRepository.saveAll(Arrays.asList(
+				snapshot("2026-01-01T10:05:00"), snapshot("2026-01-01T10:20:00"), snapshot("2026-01-01T10:55:00"),
+				snapshot("2026-01-01T11:10:00"),
+				snapshot("2026-01-03T11:59:00"),
+				snapshot("2026-01-03T12:30:00"), snapshot("2026-01-03T12:40:00"),
+				snapshot("2026-01-09T00:00:00")));
+
+		// 7 days retention, everything before 2026-01-03T12:00 is collapsed to one snapshot per hour
+		assertThat(compaction.compact(LocalDateTime.parse("2026-01-10T12:00:00"))).isEqualTo(2L);
+		assertThat(compaction.compact(LocalDateTime.parse("2026-01-10T12:00:00"))).isEqualTo(0L);
+		assertThat(atmStateRepository.findAll().stream()
+				.filter(state -> "COMPACT".equals(state.getTerminalId()))
+				.map(state -> state.getChangeTime().toString())
+				.collect(Collectors.toList()))
+				.containsExactlyInAnyOrder("2026-01-01T10:55", "2026-01-01T11:10", "2026-01-03T11:59",
+						"2026-01-03T12:30", "2026-01-03T12:40", "2026-01-09T00:00");
+		assertThat(atmStateRepository.findFirstByTerminalIdOrderByChangeTimeDesc("COMPACT").get().getChangeTime())
+				.isEqualTo(LocalDateTime.parse("2026-01-09T00:00:00"));
+	}
+
+	@Test
+	public void heldFundsAreNotAvailableUntilReleased() {
+		accountRepository.save(Account.builder().accountNumber("HOLD1").amountInCents(20000L).build());
+		LocalDateTime expiresAt = LocalDateTime.now().plusSeconds(30);
+
+		assertThat(accountService.holdAmount("hold-1", "HOLD1", 15000L, expiresAt).isSuccess()).isTrue();
+		assertThat(accountService.holdAmount("hold-2", "HOLD1", 10000L, expiresAt).isSuccess()).isFalse();
+		assertThat(accountService.withdrawAmount("HOLD1", 10000L).isSuccess()).isFalse();
+
+		assertThat(accountService.releaseHold("hold-1")).isTrue();
+		assertThat(accountService.holdAmount("hold-3", "HOLD1", 10000L, expiresAt).isSuccess()).isTrue();
+		assertThat(accountService.commitHold("hold-3")).isTrue();
+		assertThat(accountService.commitHold("hold-3")).isFalse();
+		assertThat(accountRepository.findAmountInCentsByAccountNumber("HOLD1")).contains(10000L);
+		assertThat(accountService.withdrawAmount("HOLD1", 10000L).isSuccess()).isTrue();
+	}
+
+	@Test
+	public void expiredHoldsAreReleasedByTheDatabaseSweep() {
+		accountRepository.save(Account.builder().accountNumber("HOLD2").amountInCents(20000L).build());
+		LocalDateTime now = LocalDateTime.now();
+		accountService.holdAmount("hold-expired", "HOLD2", 5000L, now.minusSeconds(1));
+		accountService.holdAmount("hold-open", "HOLD2", 5000L, now.plusSeconds(30));
+
+		assertThat(accountService.releaseExpiredHolds(now)).isEqualTo(1);
+		assertThat(accountService.commitHold("hold-expired")).isFalse();
+		assertThat(accountService.commitHold("hold-open")).isTrue();
+		assertThat(accountRepository.findAmountInCentsByAccountNumber("HOLD2")).contains(15000L);
+		assertThat(accountService.withdrawAmount("HOLD2", 15000L).isSuccess()).isTrue();
+	}
+
+	@Test
+	public void settlementDebitsEveryAccountOnceAndReportsEveryItem() {
+		accountRepository.save(Account.builder().accountNumber("SET1").amountInCents(10000L).build());
+		accountRepository.save(Account.builder().accountNumber("SET2").amountInCents(5000L).build());
+		atmService.replenishATM("SETTLE", ReplenishmentCounts.of(0, 0, 10, 10));
+
+		List<SettlementResult> results = atmService.settleWithdrawals("SETTLE", Arrays.asList(
+				new SettlementItem("SET1", new BigDecimal("60")),
+				new SettlementItem("SET2", new BigDecimal("50")),
+				new SettlementItem("SET1", new BigDecimal("60")),
+				new SettlementItem("NONE", new BigDecimal("20")),
+				new SettlementItem("SET1", new BigDecimal("40"))));
+
+		assertThat(results).extracting(SettlementResult::getReason).containsExactly(null, null,
+				Reason.INSUFFICIENT_FUNDS, Reason.UNKNOWN_ACCOUNT, null);
+		assertThat(accountRepository.findVersionedBalanceByAccountNumber("SET1").get().getAmountInCents()).isEqualTo(0L);
+		assertThat(accountRepository.findVersionedBalanceByAccountNumber("SET1").get().getVersion()).isEqualTo(1L);
+		assertThat(accountRepository.findAmountInCentsByAccountNumber("SET2")).contains(0L);
+		assertThat(accountService.checkBalance("SET1")).isEqualTo(0L);
+		assertThat(atmService.dispensableAmounts("SETTLE").toList()).contains(250L);
+	}
+
+	private static ATMState snapshot(String changeTime) {
+		return new ATMState(null, "COMPACT", 5000L, 0L, 0L, 0L, 1L, LocalDateTime.parse(changeTime));
+	}
+}
@@ -0,0 +1,339 @@
+package de.bank.atm;
+
+import de.bank.atm.domain.Denomination;
+import de.bank.atm.domain.ReplenishmentCounts;
+import de.bank.atm.domain.SettlementItem;
+import de.bank.atm.domain.SettlementResult;
+import de.bank.atm.domain.WithdrawalHold;
+import de.bank.atm.entity.ATMState;
+import de.bank.atm.entity.Account;
+import de.bank.atm.exception.ATMWithdrawException;
+import de.bank.atm.exception.ATMWithdrawException.Reason;
+import de.bank.atm.repository.AccountRepository;
+import de.bank.atm.repository.AccountRepository.VersionedBalance;
+import de.bank.atm.service.ATMService;
+import de.bank.atm.service.ATMStateHolder;
+import de.bank.atm.service.AccountService;
+import de.bank.atm.service.CassetteInventory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Many threads withdrawing, settling, holding, replenishing and asking for balances on the same few accounts and one
+ * terminal, checked against what the callers were told: every debit the callers saw is in the account table exactly
+ * once, notes are neither created nor lost, and no stack ever goes negative, in memory or in a flushed snapshot.
+ * Scale up with -Dstress.threads and -Dstress.operations (per thread).
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"atm.journal.directory=target/journal-stress-test", "atm.journal.sync-commit=false",
+        "atm.state.flush-interval-ms=10"})
+public class ConcurrencyStressTests {
+
+    private static final int THREADS = Integer.getInteger("stress.threads", 8);
+    private static final int OPERATIONS = Integer.getInteger("stress.operations", 300);
+    private static final long INITIAL_BALANCE = 1_000_000L;
+    private static final long INITIAL_NOTES = 50L;
+
+    @Autowired
+    private ATMService atmService;
+    @Autowired
+    private AccountService accountService;
+    @Autowired
+    private ATMStateHolder atmStateHolder;
+    @Autowired
+    private AccountRepository accountRepository;
+
+    private final Map<String, LongAdder> debitedCents = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> accountWrites = new ConcurrentHashMap<>();
+    private final AtomicLongArray dispensedNotes = new AtomicLongArray(Denomination.values().length);
+    private final AtomicLongArray replenishedNotes = new AtomicLongArray(Denomination.values().length);
+    private final Queue<String> violations = new ConcurrentLinkedQueue<>();
+
+    @Test
+    public void concurrentTrafficConservesMoneyAndNotes() throws Exception {
+        String terminalId = "STRESS";
+        List<String> accounts = createAccounts("STRESS", 4);
+        atmService.replenishATM(terminalId, ReplenishmentCounts.of(INITIAL_NOTES, INITIAL_NOTES, INITIAL_NOTES,
+                INITIAL_NOTES));
+        // the journal of an earlier run may have left notes in the terminal
+        CassetteInventory inventory = atmStateHolder.find(terminalId).inventory();
+        long[] initialNotes = new long[Denomination.values().length];
+        for (Denomination denomination : Denomination.values()) {
+            initialNotes[denomination.ordinal()] = inventory.get(denomination);
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread sampler = new Thread(() -> {
+            while (running.get()) {
+                checkStacks(terminalId);
+            }
+        });
+        sampler.start();
+        runConcurrently(THREADS, thread -> {
+            SplittableRandom random = new SplittableRandom(thread);
+            for (int i = 0; i < OPERATIONS; i++) {
+                randomOperation(random, terminalId, accounts);
+            }
+        });
+        running.set(false);
+        sampler.join();
+
+        assertThat(violations).isEmpty();
+        long totalDebited = 0;
+        for (String accountNumber : accounts) {
+            VersionedBalance balance = accountRepository.findVersionedBalanceByAccountNumber(accountNumber).get();
+            long debited = debitedCents.get(accountNumber).sum();
+            assertThat(balance.getAmountInCents()).as(accountNumber).isEqualTo(INITIAL_BALANCE - debited)
+                    .isGreaterThanOrEqualTo(0L);
+            assertThat(balance.getHeldInCents()).as(accountNumber).isEqualTo(0L);
+            // one row update per debit, hold, confirmation and release the callers saw succeed, no more
+            assertThat(balance.getVersion()).as(accountNumber).isEqualTo(accountWrites.get(accountNumber).sum());
+            assertThat(accountService.checkBalance(accountNumber)).as(accountNumber)
+                    .isEqualTo(balance.getAmountInCents());
+            totalDebited += debited;
+        }
+        long dispensedCents = 0;
+        for (Denomination denomination : Denomination.values()) {
+            int i = denomination.ordinal();
+            assertThat(inventory.get(denomination)).as(denomination.name())
+                    .isEqualTo(initialNotes[i] + replenishedNotes.get(i) - dispensedNotes.get(i));
+            dispensedCents += dispensedNotes.get(i) * denomination.getValue() * 100L;
+        }
+        assertThat(dispensedCents).isEqualTo(totalDebited).isPositive();
+
+        atmStateHolder.flush();
+        ATMState snapshot = atmStateHolder.current(terminalId).get();
+        for (Denomination denomination : Denomination.values()) {
+            assertThat(snapshot.getStackByDenomination(denomination)).isEqualTo(inventory.get(denomination));
+        }
+    }
+
+    @Test
+    public void retriesOfOneRequestDebitOnce() throws Exception {
+        String terminalId = "STRESS-RETRY";
+        String accountNumber = createAccounts("RETRY", 1).get(0);
+        atmService.replenishATM(terminalId, ReplenishmentCounts.of(100, 100, 100, 100));
+        int requests = 20;
+        List<Queue<Map<Denomination, Long>>> answers = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            answers.add(new ConcurrentLinkedQueue<>());
+        }
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+
+        runConcurrently(THREADS, thread -> {
+            for (int i = 0; i < requests; i++) {
+                barrier.await();
+                answers.get(i).add(atmService.withrawAccountBalance(terminalId, "request-" + i, accountNumber,
+                        new BigDecimal("50")));
+            }
+        });
+
+        for (Queue<Map<Denomination, Long>> answer : answers) {
+            assertThat(answer).hasSize(THREADS);
+            assertThat(new HashSet<>(answer)).hasSize(1);
+        }
+        assertThat(accountRepository.findAmountInCentsByAccountNumber(accountNumber))
+                .contains(INITIAL_BALANCE - requests * 5000L);
+    }
+
+    @Test
+    public void confirmationAndCancellationOfOneHoldHaveOneOutcome() throws Exception {
+        String terminalId = "STRESS-HOLD";
+        String accountNumber = createAccounts("HOLD", 1).get(0);
+        atmService.replenishATM(terminalId, ReplenishmentCounts.of(100, 100, 100, 100));
+        CassetteInventory inventory = atmStateHolder.find(terminalId).inventory();
+        long notesBefore = notes(inventory);
+        int holds = 50;
+        long confirmed = 0;
+        long confirmedNotes = 0;
+
+        for (int i = 0; i < holds; i++) {
+            WithdrawalHold hold = atmService.reserveWithdrawal(terminalId, accountNumber, new BigDecimal("100"));
+            CyclicBarrier barrier = new CyclicBarrier(2);
+            Queue<Boolean> outcomes = new ConcurrentLinkedQueue<>();
+            runConcurrently(2, thread -> {
+                barrier.await();
+                try {
+                    if (thread == 0) {
+                        atmService.confirmWithdrawal(hold.getHoldId());
+                    } else {
+                        atmService.cancelWithdrawal(hold.getHoldId());
+                    }
+                    outcomes.add(thread == 0);
+                } catch (ATMWithdrawException e) {
+                    assertThat(e.getReason()).isEqualTo(Reason.UNKNOWN_HOLD);
+                }
+            });
+            assertThat(outcomes).hasSize(1);
+            if (outcomes.peek()) {
+                confirmed++;
+                confirmedNotes += hold.getNotes().values().stream().mapToLong(Long::longValue).sum();
+            }
+        }
+
+        assertThat(accountRepository.findVersionedBalanceByAccountNumber(accountNumber).get().getHeldInCents())
+                .isEqualTo(0L);
+        assertThat(accountRepository.findAmountInCentsByAccountNumber(accountNumber))
+                .contains(INITIAL_BALANCE - confirmed * 10000L);
+        // a confirmed hold dispensed its notes, a cancelled one put them back
+        assertThat(notesBefore - notes(inventory)).isEqualTo(confirmedNotes);
+    }
+
+    private void randomOperation(SplittableRandom random, String terminalId, List<String> accounts) {
+        String accountNumber = accounts.get(random.nextInt(accounts.size()));
+        BigDecimal amount = BigDecimal.valueOf(20 + 5 * random.nextInt(47));
+        int operation = random.nextInt(100);
+        try {
+            if (operation < 45) {
+                dispensed(accountNumber, amount, atmService.withrawAccountBalance(terminalId, accountNumber, amount));
+                accountWrites.get(accountNumber).increment();
+            } else if (operation < 55) {
+                settle(terminalId, Arrays.asList(
+                        new SettlementItem(accountNumber, amount),
+                        new SettlementItem(accounts.get(random.nextInt(accounts.size())), amount),
+                        new SettlementItem(accountNumber, BigDecimal.valueOf(20 + 5 * random.nextInt(47)))));
+            } else if (operation < 65) {
+                ReplenishmentCounts counts = ReplenishmentCounts.of(random.nextInt(6), random.nextInt(6),
+                        random.nextInt(6), random.nextInt(6));
+                atmService.replenishATM(terminalId, counts);
+                for (Denomination denomination : Denomination.values()) {
+                    replenishedNotes.addAndGet(denomination.ordinal(), counts.get(denomination));
+                }
+            } else if (operation < 75) {
+                WithdrawalHold hold = atmService.reserveWithdrawal(terminalId, accountNumber, amount);
+                accountWrites.get(accountNumber).increment();
+                if (random.nextBoolean()) {
+                    dispensed(accountNumber, amount, atmService.confirmWithdrawal(hold.getHoldId()));
+                } else {
+                    atmService.cancelWithdrawal(hold.getHoldId());
+                }
+                accountWrites.get(accountNumber).increment();
+            } else {
+                Long balance = accountService.checkBalance(accountNumber);
+                if (balance == null || balance < 0) {
+                    violations.add("Balance of " + accountNumber + " read as " + balance);
+                }
+            }
+        } catch (ATMWithdrawException e) {
+            if (e.getReason() != Reason.INSUFFICIENT_FUNDS && e.getReason() != Reason.INSUFFICIENT_NOTES) {
+                violations.add("Unexpected rejection " + e.getReason());
+            }
+        }
+    }
+
+    private void settle(String terminalId, List<SettlementItem> items) {
+        List<SettlementResult> results = atmService.settleWithdrawals(terminalId, items);
+        Set<String> written = new HashSet<>();
+        for (SettlementResult result : results) {
+            if (result.isSuccess()) {
+                dispensed(result.getAccountNumber(), result.getAmount(), result.getNotes());
+                written.add(result.getAccountNumber());
+            } else if (result.getReason() != Reason.INSUFFICIENT_FUNDS
+                    && result.getReason() != Reason.INSUFFICIENT_NOTES) {
+                violations.add("Unexpected settlement rejection " + result.getReason());
+            }
+        }
+        // a batch writes every account once
+        written.forEach(accountNumber -> accountWrites.get(accountNumber).increment());
+    }
+
+    private void dispensed(String accountNumber, BigDecimal amount, Map<Denomination, Long> notes) {
+        long value = 0;
+        for (Map.Entry<Denomination, Long> note : notes.entrySet()) {
+            dispensedNotes.addAndGet(note.getKey().ordinal(), note.getValue());
+            value += note.getKey().getValue() * note.getValue();
+        }
+        if (value != amount.longValueExact()) {
+            violations.add("Dispensed " + value + " for " + amount);
+        }
+        debitedCents.get(accountNumber).add(amount.longValueExact() * 100L);
+    }
+
+    private void checkStacks(String terminalId) {
+        CassetteInventory inventory = atmStateHolder.find(terminalId).inventory();
+        for (Denomination denomination : Denomination.values()) {
+            if (inventory.get(denomination) < 0) {
+                violations.add("Negative " + denomination + " stack in memory");
+            }
+        }
+        atmStateHolder.current(terminalId).ifPresent(snapshot -> {
+            long balance = 0;
+            for (Denomination denomination : Denomination.values()) {
+                if (snapshot.getStackByDenomination(denomination) < 0) {
+                    violations.add("Negative " + denomination + " stack in a snapshot");
+                }
+                balance += snapshot.getStackByDenomination(denomination) * denomination.getValue() * 100L;
+            }
+            if (balance != snapshot.getAtmBalanceInCents()) {
+                violations.add("Snapshot balance " + snapshot.getAtmBalanceInCents() + " != stacks " + balance);
+            }
+        });
+    }
+
+    private List<String> createAccounts(String prefix, int count) {
+        List<String> accountNumbers = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            String accountNumber = prefix + i;
+            accountRepository.save(Account.builder().accountNumber(accountNumber).amountInCents(INITIAL_BALANCE)
+                    .build());
+            debitedCents.put(accountNumber, new LongAdder());
+            accountWrites.put(accountNumber, new LongAdder());
+            accountNumbers.add(accountNumber);
+        }
+        return accountNumbers;
+    }
+
+    private static long notes(CassetteInventory inventory) {
+        long notes = 0;
+        for (Denomination denomination : Denomination.values()) {
+            notes += inventory.get(denomination);
+        }
+        return notes;
+    }
+
+    private static void runConcurrently(int threads, ThreadBody body) throws Exception {
+        Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int thread = i;
+            Thread worker = new Thread(() -> {
+                try {
+                    body.run(thread);
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertThat(failures).isEmpty();
+    }
+
+    private interface ThreadBody {
+        void run(int thread) throws Exception;
+    }
+}
@@ -4,7 +4,6 @@ import de.bank.atm.domain.AccountWithdrawTO;
 import de.bank.atm.entity.ATMState;
 import de.bank.atm.entity.Account;
 
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.Optional;
 
@@ -13,28 +12,28 @@ public class TestData {
     public static Optional<Account> account1() {
         return Optional.of(Account.builder()
                 .accountNumber("01001")
-                .amount(new BigDecimal("2738.59"))
+                .amountInCents(273859L)
                 .build());
     }
 
     public static Optional<Account> account2() {
         return Optional.of(Account.builder()
                 .accountNumber("01002")
-                .amount(new BigDecimal("23.00"))
+                .amountInCents(2300L)
                 .build());
     }
 
     public static Optional<Account> account3() {
         return Optional.of(Account.builder()
                 .accountNumber("01003")
-                .amount(new BigDecimal("0.00"))
+                .amountInCents(0L)
                 .build());
     }
 
     public static ATMState atmState(long balance, long fifties, long twenties, long tens, long fives) {
         return ATMState.builder()
                 .id(null)
-                .atmBalance(new BigDecimal(balance))
+                .atmBalanceInCents(balance * 100)
                 .stackOfFifty(fifties)
                 .stackOfTwenty(twenties)
                 .stackOfTen(tens)
@@ -43,10 +42,10 @@ public class TestData {
                 .build();
     }
 
-    public static AccountWithdrawTO accountWithdrawTO(boolean success, BigDecimal newBalance) {
+    public static AccountWithdrawTO accountWithdrawTO(boolean success, long newBalanceInCents) {
         return AccountWithdrawTO.builder()
                 .success(success)
-                .newBalance(newBalance)
+                .newBalanceInCents(newBalanceInCents)
                 .build();
     }
 }
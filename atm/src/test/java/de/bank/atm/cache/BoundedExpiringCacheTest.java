@@ -0,0 +1,147 @@
+package de.bank.atm.cache;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BoundedExpiringCacheTest {
+
+    private final AtomicLong ticker = new AtomicLong();
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvictedWhenFull() {
+        BoundedExpiringCache<String, Integer> cache = new BoundedExpiringCache<>(2, Duration.ofMinutes(1), ticker::get);
+        cache.put("a", 1);
+        tick();
+        cache.put("b", 2);
+        tick();
+        cache.get("a");
+        tick();
+        cache.put("c", 3);
+
+        assertThat(cache.get("a")).isEqualTo(1);
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.get("c")).isEqualTo(3);
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.evictionCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void sizeStaysBoundedUnderConcurrentWrites() throws InterruptedException {
+        BoundedExpiringCache<Integer, Integer> cache = new BoundedExpiringCache<>(100, Duration.ofMinutes(1));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int thread = 0; thread < 4; thread++) {
+            int offset = thread * 10_000;
+            executor.execute(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    cache.put(offset + i, i);
+                    cache.get(offset + i / 2);
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(cache.size()).isEqualTo(100);
+        assertThat(cache.evictionCount()).isEqualTo(40_000L - 100);
+    }
+
+    @Test
+    public void entryExpiresAfterTimeToLive() {
+        BoundedExpiringCache<String, Integer> cache = new BoundedExpiringCache<>(10, Duration.ofSeconds(1), ticker::get);
+        cache.put("a", 1);
+
+        ticker.addAndGet(Duration.ofMillis(999).toNanos());
+        assertThat(cache.get("a")).isEqualTo(1);
+        ticker.addAndGet(Duration.ofMillis(1).toNanos());
+        assertThat(cache.get("a")).isNull();
+        assertThat(cache.evictionCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void cleanUpDropsExpiredEntries() {
+        BoundedExpiringCache<String, Integer> cache = new BoundedExpiringCache<>(10, Duration.ofSeconds(1), ticker::get);
+        cache.put("a", 1);
+        ticker.addAndGet(Duration.ofMillis(500).toNanos());
+        cache.put("b", 2);
+        ticker.addAndGet(Duration.ofMillis(500).toNanos());
+
+        cache.cleanUp();
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.get("b")).isEqualTo(2);
+    }
+
+    @Test
+    public void slowLoadDoesNotReplaceNewerValue() {
+        BoundedExpiringCache<String, Integer> cache = new BoundedExpiringCache<>(10, Duration.ofMinutes(1), ticker::get);
+
+        // a debit commits and caches its new balance while the old balance is still being read
+        assertThat(cache.get("a", key -> {
+            cache.put("a", 2);
+            return 1;
+        })).isEqualTo(1);
+        assertThat(cache.get("a")).isEqualTo(2);
+
+        cache.invalidate("b");
+        assertThat(cache.get("b", key -> {
+            cache.invalidate("b");
+            return 1;
+        })).isEqualTo(1);
+        assertThat(cache.get("b")).isNull();
+        assertThat(cache.get("b", key -> 3)).isEqualTo(3);
+        assertThat(cache.get("b")).isEqualTo(3);
+    }
+
+    @Test
+    public void readThroughLoadsMissesOnlyAndCountsHits() {
+        BoundedExpiringCache<String, Integer> cache = new BoundedExpiringCache<>(10, Duration.ofMinutes(1), ticker::get);
+        AtomicLong loads = new AtomicLong();
+
+        cache.get("a", key -> (int) loads.incrementAndGet());
+        cache.get("a", key -> (int) loads.incrementAndGet());
+        assertThat(cache.get("missing", key -> null)).isNull();
+
+        assertThat(loads.get()).isEqualTo(1L);
+        assertThat(cache.hitCount()).isEqualTo(1L);
+        assertThat(cache.missCount()).isEqualTo(2L);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void putIfAbsentKeepsTheLiveValue() {
+        BoundedExpiringCache<String, Integer> cache = new BoundedExpiringCache<>(10, Duration.ofSeconds(1), ticker::get);
+        assertThat(cache.putIfAbsent("a", 1)).isNull();
+        assertThat(cache.putIfAbsent("a", 2)).isEqualTo(1);
+
+        ticker.addAndGet(Duration.ofSeconds(1).toNanos());
+        assertThat(cache.putIfAbsent("a", 3)).isNull();
+        // registrations are no lookups, only the get below counts
+        assertThat(cache.hitCount()).isEqualTo(0L);
+        assertThat(cache.missCount()).isEqualTo(0L);
+        assertThat(cache.get("a")).isEqualTo(3);
+        assertThat(cache.hitCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void invalidateOnlyDropsTheGivenValue() {
+        BoundedExpiringCache<String, Integer> cache = new BoundedExpiringCache<>(10, Duration.ofSeconds(1), ticker::get);
+        Integer first = 1000;
+        Integer second = 1000;
+        cache.put("a", second);
+
+        cache.invalidate("a", first);
+        assertThat(cache.get("a")).isSameAs(second);
+        cache.invalidate("a", second);
+        assertThat(cache.get("a")).isNull();
+    }
+
+    private void tick() {
+        ticker.addAndGet(Duration.ofSeconds(1).toNanos());
+    }
+}
@@ -0,0 +1,94 @@
+package de.bank.atm.importer;
+
+import de.bank.atm.cache.AccountBalanceCache;
+import de.bank.atm.shard.AccountShards;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AccountImporterTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private AccountBalanceCache balanceCache;
+    private AccountImporter accountImporter;
+    private final List<List<Object[]>> batches = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        balanceCache = new AccountBalanceCache(100, 60_000);
+        accountImporter = new AccountImporter(jdbcTemplate, transactionManager, new AccountShards(1, transactionManager),
+                balanceCache, 2, 2);
+        // the importer reuses its batch list, keep a copy of every batch
+        doAnswer(invocation -> {
+            batches.add(new ArrayList<>(invocation.<List<Object[]>>getArgument(1)));
+            return new int[0];
+        }).when(jdbcTemplate).batchUpdate(eq(AccountImporter.INSERT), anyList());
+    }
+
+    @Test
+    public void importsInBatchesAndSkipsHeaderAndInvalidLines() throws IOException {
+        String csv = "account_number,balance\n"
+                + "1001,10.00\n"
+                + "1002,0.5\n"
+                + "garbage\n"
+                + "1003,1.234\n"
+                + "\n"
+                + "1004,7\n"
+                + "1005,-1\n"
+                + "1006,2738.59\n";
+
+        AccountImportResult result = accountImporter.importCsv(new StringReader(csv));
+        assertThat(result.getImported()).isEqualTo(4L);
+        assertThat(result.getRejected()).isEqualTo(3L);
+        assertThat(batches).hasSize(2);
+        assertThat(batches.get(0)).containsExactly(new Object[]{"1001", 1000L}, new Object[]{"1002", 50L});
+        assertThat(batches.get(1)).containsExactly(new Object[]{"1004", 700L}, new Object[]{"1006", 273859L});
+        verify(transactionManager, times(2)).commit(any());
+    }
+
+    @Test
+    public void batchWithATakenAccountNumberIsInsertedRowByRow() throws IOException {
+        doThrow(new DuplicateKeyException("unique index on account_number"))
+                .when(jdbcTemplate).batchUpdate(eq(AccountImporter.INSERT), anyList());
+        when(jdbcTemplate.update(AccountImporter.INSERT, "1001", 1000L)).thenReturn(1);
+        when(jdbcTemplate.update(AccountImporter.INSERT, "1002", 100L))
+                .thenThrow(new DuplicateKeyException("unique index on account_number"));
+        when(jdbcTemplate.update(AccountImporter.INSERT, "1003", 200L)).thenReturn(1);
+
+        AccountImportResult result = accountImporter.importCsv(new StringReader("1001,10\n1002,1\n1003,2\n"));
+        assertThat(result.getImported()).isEqualTo(2L);
+        assertThat(result.getRejected()).isEqualTo(1L);
+    }
+
+    @Test
+    public void lastPartialBatchIsWrittenAndCachedBalancesAreDropped() throws IOException {
+        balanceCache.put("1001", 1L);
+
+        AccountImportResult result = accountImporter.importCsv(new StringReader("1001,12.34\n1002,1\n1003,2\n"));
+        assertThat(result.getImported()).isEqualTo(3L);
+        assertThat(result.getRejected()).isEqualTo(0L);
+        assertThat(batches).hasSize(2);
+        assertThat(batches.get(1)).containsExactly(new Object[]{"1003", 200L});
+        assertThat(balanceCache.size()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,98 @@
+package de.bank.atm.readmodel;
+
+import de.bank.atm.shard.AccountShards;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AccountBalanceReadModelTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private ResultSet resultSet;
+
+    private AccountBalanceReadModel readModel;
+
+    @Before
+    public void setUp() {
+        readModel = new AccountBalanceReadModel(jdbcTemplate, new AccountShards(1, null), true);
+    }
+
+    @Test
+    public void balancesAreServedOnceTheModelIsBuilt() throws Exception {
+        returnRows(2);
+        when(resultSet.getString(1)).thenReturn("1001", "1002");
+        when(resultSet.getLong(2)).thenReturn(1000L, 2000L);
+        when(resultSet.getLong(3)).thenReturn(1L, 1L);
+
+        readModel.apply("1001", 900L, 2L);
+        assertThat(readModel.balance("1001")).isNull();
+
+        assertThat(readModel.rebuild()).isEqualTo(2L);
+        assertThat(readModel.isBuilt()).isTrue();
+        // the change applied before the rebuild is newer than the row read
+        assertThat(readModel.balance("1001")).isEqualTo(900L);
+        assertThat(readModel.balance("1002")).isEqualTo(2000L);
+        assertThat(readModel.balance("1003")).isNull();
+    }
+
+    @Test
+    public void olderChangeDoesNotReplaceANewerBalance() {
+        returnRows(0);
+        readModel.rebuild();
+
+        readModel.apply("1001", 500L, 5L);
+        readModel.apply("1001", 900L, 4L);
+        assertThat(readModel.balance("1001")).isEqualTo(500L);
+        readModel.apply("1001", 400L, 6L);
+        assertThat(readModel.balance("1001")).isEqualTo(400L);
+        assertThat(readModel.getSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void rebuildDropsAccountsWhichAreGone() throws Exception {
+        returnRows(1);
+        when(resultSet.getString(1)).thenReturn("1001");
+        when(resultSet.getLong(2)).thenReturn(1000L);
+        when(resultSet.getLong(3)).thenReturn(1L);
+        readModel.apply("1002", 2000L, 1L);
+
+        assertThat(readModel.rebuild()).isEqualTo(1L);
+        assertThat(readModel.balance("1001")).isEqualTo(1000L);
+        assertThat(readModel.balance("1002")).isNull();
+        assertThat(readModel.getSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void disabledModelNeitherReadsNorServes() {
+        readModel = new AccountBalanceReadModel(jdbcTemplate, new AccountShards(1, null), false);
+
+        assertThat(readModel.rebuild()).isEqualTo(0L);
+        readModel.apply("1001", 500L, 1L);
+        assertThat(readModel.balance("1001")).isNull();
+        verifyZeroInteractions(jdbcTemplate);
+    }
+
+    private void returnRows(int rows) {
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (int row = 0; row < rows; row++) {
+                handler.processRow(resultSet);
+            }
+            return null;
+        }).when(jdbcTemplate).query(eq(AccountBalanceReadModel.SELECT), any(RowCallbackHandler.class));
+    }
+}
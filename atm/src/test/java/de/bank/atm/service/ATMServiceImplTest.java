@@ -0,0 +1,732 @@
+package de.bank.atm.service;
+
+import de.bank.atm.TestData;
+import de.bank.atm.domain.AccountDebit;
+import de.bank.atm.domain.AccountWithdrawTO;
+import de.bank.atm.domain.CurrencyNote;
+import de.bank.atm.domain.Denomination;
+import de.bank.atm.domain.ReplenishmentCounts;
+import de.bank.atm.domain.SettlementItem;
+import de.bank.atm.domain.SettlementResult;
+import de.bank.atm.domain.WithdrawalHold;
+import de.bank.atm.entity.ATMState;
+import de.bank.atm.exception.ATMWithdrawException;
+import de.bank.atm.journal.TransactionJournal;
+import de.bank.atm.journal.TransactionJournals;
+import de.bank.atm.repository.ATMStateRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static de.bank.atm.domain.Denomination.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ATMServiceImplTest {
+
+    private static final String TERMINAL = "T1";
+
+    private ATMService atmService;
+
+    @Mock
+    private ATMStateRepository repository;
+    @Mock
+    private AccountService accountService;
+
+    private ATMStateHolder atmStateHolder;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private TransactionJournals journals;
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Before
+    public void setUp() throws IOException {
+        journals = new TransactionJournals(folder.getRoot().toPath(), 64 * 1024, 5, false, 10);
+        atmStateHolder = new ATMStateHolder(repository, journals, meterRegistry);
+        atmService = new ATMServiceImpl(atmStateHolder, accountService, 30_000L, meterRegistry);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        journals.close();
+    }
+
+    private void givenLatestATMState(Optional<ATMState> atmState) {
+        when(repository.findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL)).thenReturn(atmState);
+        atmStateHolder.terminal(TERMINAL);
+    }
+
+    @Test
+    public void replenishTenPoundNoteOnNullState() {
+        List<CurrencyNote> replenishNote = Collections.singletonList(new CurrencyNote(Denomination.TEN));
+        ATMState expectedAtmStatus = TestData.atmState(10, 0, 0, 1, 0);
+        givenLatestATMState(Optional.empty());
+
+        ATMState newAtmState = atmService.replenishATM(TERMINAL, replenishNote);
+        assertThat(newAtmState.getStackOfFifty()).isEqualTo(expectedAtmStatus.getStackOfFifty());
+        assertThat(newAtmState.getStackOfFive()).isEqualTo(expectedAtmStatus.getStackOfFive());
+        assertThat(newAtmState.getAtmBalanceInCents()).isEqualTo(expectedAtmStatus.getAtmBalanceInCents());
+        verify(repository, times(1)).findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL);
+        verifyNoMoreInteractions(repository);
+    }
+
+
+    @Test
+    public void replenishNoNote() {
+        ATMState atmState = TestData.atmState(200, 2, 2, 4, 4);
+        List<CurrencyNote> replenishNote = Collections.emptyList();
+        ATMState expectedAtmStatus = TestData.atmState(200, 2, 4, 2, 4);
+        givenLatestATMState(Optional.of(atmState));
+
+        ATMState newAtmState = atmService.replenishATM(TERMINAL, replenishNote);
+        assertThat(newAtmState.getStackOfFifty()).isEqualTo(expectedAtmStatus.getStackOfFifty());
+        assertThat(newAtmState.getStackOfFive()).isEqualTo(expectedAtmStatus.getStackOfFive());
+        assertThat(newAtmState.getAtmBalanceInCents()).isEqualTo(expectedAtmStatus.getAtmBalanceInCents());
+        verify(repository, times(1)).findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL);
+        verifyNoMoreInteractions(repository);
+    }
+
+    @Test
+    public void replenishOne5PoundNote() {
+        ATMState atmState = TestData.atmState(200, 2, 2, 4, 4);
+        List<CurrencyNote> replenishNote = Collections.singletonList(new CurrencyNote(FIVE));
+        ATMState expectedAtmStatus = TestData.atmState(205, 2, 4, 2, 5);
+        givenLatestATMState(Optional.of(atmState));
+
+        ATMState newAtmState = atmService.replenishATM(TERMINAL, replenishNote);
+        assertThat(newAtmState.getStackOfFifty()).isEqualTo(expectedAtmStatus.getStackOfFifty());
+        assertThat(newAtmState.getStackOfFive()).isEqualTo(expectedAtmStatus.getStackOfFive());
+        assertThat(newAtmState.getAtmBalanceInCents()).isEqualTo(expectedAtmStatus.getAtmBalanceInCents());
+        verify(repository, times(1)).findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL);
+        verifyNoMoreInteractions(repository);
+    }
+
+    @Test
+    public void replenishThree20PoundNote() {
+        ATMState atmState = TestData.atmState(200, 2, 2, 4, 4);
+        List<CurrencyNote> replenishNote = Arrays
+                .asList(Denomination.TWENTY, Denomination.TWENTY, Denomination.TWENTY)
+                .stream()
+                .map(CurrencyNote::new)
+                .collect(Collectors.toList());
+        ATMState expectedAtmStatus = TestData.atmState(260, 2, 5, 4, 4);
+        givenLatestATMState(Optional.of(atmState));
+
+        ATMState newAtmState = atmService.replenishATM(TERMINAL, replenishNote);
+        assertThat(newAtmState.getStackOfFifty()).isEqualTo(expectedAtmStatus.getStackOfFifty());
+        assertThat(newAtmState.getStackOfFive()).isEqualTo(expectedAtmStatus.getStackOfFive());
+        assertThat(newAtmState.getAtmBalanceInCents()).isEqualTo(expectedAtmStatus.getAtmBalanceInCents());
+        verify(repository, times(1)).findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL);
+        verifyNoMoreInteractions(repository);
+    }
+
+    @Test
+    public void replenishOne5two10one50PoundNotes() {
+        ATMState atmState = TestData.atmState(200, 2, 2, 4, 4);
+        List<CurrencyNote> replenishNote = Arrays
+                .asList(FIVE, Denomination.TEN, Denomination.TEN, Denomination.FIFTY)
+                .stream()
+                .map(CurrencyNote::new)
+                .collect(Collectors.toList());
+        ATMState expectedAtmStatus = TestData.atmState(275, 3, 4, 4, 5);
+        givenLatestATMState(Optional.of(atmState));
+
+        ATMState newAtmState = atmService.replenishATM(TERMINAL, replenishNote);
+        assertThat(newAtmState.getStackOfFifty()).isEqualTo(expectedAtmStatus.getStackOfFifty());
+        assertThat(newAtmState.getStackOfFive()).isEqualTo(expectedAtmStatus.getStackOfFive());
+        assertThat(newAtmState.getAtmBalanceInCents()).isEqualTo(expectedAtmStatus.getAtmBalanceInCents());
+        verify(repository, times(1)).findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL);
+        verifyNoMoreInteractions(repository);
+    }
+
+
+    @Test
+    public void replenishCountsOnNullState() {
+        givenLatestATMState(Optional.empty());
+
+        ATMState newAtmState = atmService.replenishATM(TERMINAL, ReplenishmentCounts.of(2000, 2000, 2000, 2000));
+        assertThat(newAtmState.getStackOfFive()).isEqualTo(2000L);
+        assertThat(newAtmState.getStackOfTen()).isEqualTo(2000L);
+        assertThat(newAtmState.getStackOfTwenty()).isEqualTo(2000L);
+        assertThat(newAtmState.getStackOfFifty()).isEqualTo(2000L);
+        assertThat(newAtmState.getAtmBalanceInCents()).isEqualTo(17000000L);
+        verify(repository, times(1)).findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL);
+        verifyNoMoreInteractions(repository);
+    }
+
+    @Test
+    public void replenishNoteFeed() {
+        ATMState atmState = TestData.atmState(200, 2, 2, 4, 4);
+        givenLatestATMState(Optional.of(atmState));
+
+        Stream<Denomination> noteFeed = Stream.generate(() -> TWENTY).limit(100_000);
+        ATMState newAtmState = atmService.replenishATM(TERMINAL, noteFeed);
+        assertThat(newAtmState.getStackOfTwenty()).isEqualTo(100_002L);
+        assertThat(newAtmState.getStackOfFifty()).isEqualTo(2L);
+        assertThat(newAtmState.getAtmBalanceInCents()).isEqualTo((200 + 100_000 * 20) * 100L);
+    }
+
+    @Test
+    public void checkBalanceFormatThousandSeparator() {
+        final String accountNumber = "01001";
+        final String expectedString = "2,738.59";
+        when(accountService.checkBalance(accountNumber)).thenReturn(273859L);
+
+        String balanceFormatStr = atmService.checkAccountBalance(accountNumber);
+        assertThat(balanceFormatStr).isNotNull();
+        assertThat(balanceFormatStr).isEqualTo(expectedString);
+        assertThat(balanceFormatStr).isNotEqualTo("2738.59");
+        verify(accountService, times(1)).checkBalance(accountNumber);
+        verifyNoMoreInteractions(accountService);
+    }
+
+    @Test
+    public void checkBalanceFormatString() {
+        final String accountNumber = "01002";
+        final String expectedBalance = "23.00";
+        when(accountService.checkBalance(accountNumber)).thenReturn(2300L);
+
+        String balanceFormatStr = atmService.checkAccountBalance(accountNumber);
+        assertThat(balanceFormatStr).isNotNull();
+        assertThat(balanceFormatStr).isEqualTo(expectedBalance);
+        verify(accountService, times(1)).checkBalance(accountNumber);
+        verifyNoMoreInteractions(accountService);
+    }
+
+    @Test
+    public void checkZeroBalanceFormatString() {
+        final String accountNumber = "01003";
+        final String expectedBalance = "0.00";
+        when(accountService.checkBalance(accountNumber)).thenReturn(0L);
+
+        String balanceFormatStr = atmService.checkAccountBalance(accountNumber);
+        assertThat(balanceFormatStr).isEqualTo(expectedBalance);
+        verify(accountService, times(1)).checkBalance(accountNumber);
+        verifyNoMoreInteractions(accountService);
+    }
+
+    @Test
+    public void checkLargeBalanceFormatString() {
+        final String accountNumber = "010041";
+        final String expectedBalance = "123,456,789.90";
+        when(accountService.checkBalance(accountNumber)).thenReturn(12345678990L);
+
+        String balanceFormatStr = atmService.checkAccountBalance(accountNumber);
+        assertThat(balanceFormatStr).isEqualTo(expectedBalance);
+        verify(accountService, times(1)).checkBalance(accountNumber);
+        verifyNoMoreInteractions(accountService);
+    }
+
+    @Test
+    public void checkNullBalanceGivenAccountNotFound() {
+        final String expectedBalance = "NOT_FOUND";
+        when(accountService.checkBalance(anyString())).thenReturn(null);
+
+        String balanceFormatStr = atmService.checkAccountBalance(anyString());
+        assertThat(balanceFormatStr).isEqualTo(expectedBalance);
+        verify(accountService, times(1)).checkBalance(anyString());
+        verifyNoMoreInteractions(accountService);
+    }
+
+    @Test
+    public void withdraw100FromAccountTest() {
+        ATMState atmState = TestData.atmState(200, 2, 2, 4, 4);
+        BigDecimal withdrawAmount = new BigDecimal("100");
+        AccountWithdrawTO accountWithdrawTO = TestData.accountWithdrawTO(true, 5000L);
+
+        givenLatestATMState(Optional.of(atmState));
+        when(accountService.withdrawAmount(anyString(), anyLong())).thenReturn(accountWithdrawTO);
+
+        Map<Denomination, Long> disbursedNotes = atmService.withrawAccountBalance(TERMINAL, "00100", withdrawAmount);
+        assertThat(disbursedNotes.keySet()).containsOnly(FIVE, TWENTY, FIFTY);
+        assertThat(disbursedNotes.get(FIVE)).isEqualTo(2L);
+        assertThat(disbursedNotes.get(TWENTY)).isEqualTo(2L);
+        assertThat(disbursedNotes.get(FIFTY)).isEqualTo(1L);
+
+        verify(repository, times(1)).findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL);
+        verifyNoMoreInteractions(repository);
+    }
+
+    @Test
+    public void withdraw100TakesNotesOutOfATMTest() {
+        ATMState atmState = TestData.atmState(200, 2, 2, 4, 4);
+        AccountWithdrawTO accountWithdrawTO = TestData.accountWithdrawTO(true, 5000L);
+
+        givenLatestATMState(Optional.of(atmState));
+        when(accountService.withdrawAmount(anyString(), anyLong())).thenReturn(accountWithdrawTO);
+
+        atmService.withrawAccountBalance(TERMINAL, "00100", new BigDecimal("100"));
+        ATMState newAtmState = atmStateHolder.current(TERMINAL).get();
+        assertThat(newAtmState.getStackOfFifty()).isEqualTo(1L);
+        assertThat(newAtmState.getStackOfTwenty()).isEqualTo(0L);
+        assertThat(newAtmState.getStackOfTen()).isEqualTo(4L);
+        assertThat(newAtmState.getStackOfFive()).isEqualTo(2L);
+        assertThat(newAtmState.getAtmBalanceInCents()).isEqualTo(10000L);
+    }
+
+    @Test
+    public void withdrawalIsJournaled() throws IOException {
+        ATMState atmState = TestData.atmState(200, 2, 2, 4, 4);
+        givenLatestATMState(Optional.of(atmState));
+        when(accountService.withdrawAmount(anyString(), anyLong())).thenReturn(TestData.accountWithdrawTO(true, 5000L));
+
+        atmService.withrawAccountBalance(TERMINAL, "00100", new BigDecimal("100"));
+        journals.close();
+        try (TransactionJournal journal = new TransactionJournal(
+                folder.getRoot().toPath().resolve(TERMINAL + ".journal"), 64 * 1024, 5, false, 10)) {
+            assertThat(journal.getRecovery().getRecords()).isEqualTo(1L);
+            assertThat(journal.getRecovery().getAccountDeltasInCents()).containsEntry("00100", -10000L);
+            assertThat(journal.getRecovery().getStack(FIFTY)).isEqualTo(1L);
+        }
+    }
+
+    @Test
+    public void rolledBackWithdrawalPutsNotesBack() {
+        givenLatestATMState(Optional.of(TestData.atmState(200, 2, 2, 4, 4)));
+        when(accountService.withdrawAmount(anyString(), anyLong())).thenReturn(TestData.accountWithdrawTO(true, 5000L));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            atmService.withrawAccountBalance(TERMINAL, "00100", new BigDecimal("100"));
+            assertThat(atmStateHolder.current(TERMINAL).get().getAtmBalanceInCents()).isEqualTo(10000L);
+            // e.g. the commit failed after the debit succeeded
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        assertThat(atmStateHolder.current(TERMINAL).get().getAtmBalanceInCents()).isEqualTo(20000L);
+    }
+
+    @Test
+    public void withdrawalIsJournaledBeforeTheCommitAndReversedWhenTheCommitFails() throws IOException {
+        givenLatestATMState(Optional.of(TestData.atmState(200, 2, 2, 4, 4)));
+        when(accountService.withdrawAmount(anyString(), anyLong())).thenReturn(TestData.accountWithdrawTO(true, 5000L));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            atmService.withrawAccountBalance(TERMINAL, "00100", new BigDecimal("100"));
+            assertThat(journals.journal(TERMINAL).appendedSequence()).isEqualTo(0L);
+            TransactionSynchronizationManager.getSynchronizations().forEach(sync -> sync.beforeCommit(false));
+            assertThat(journals.journal(TERMINAL).appendedSequence()).isEqualTo(1L);
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        journals.close();
+        try (TransactionJournal journal = new TransactionJournal(
+                folder.getRoot().toPath().resolve(TERMINAL + ".journal"), 64 * 1024, 5, false, 10)) {
+            assertThat(journal.getRecovery().getRecords()).isEqualTo(2L);
+            assertThat(journal.getRecovery().getAccountDeltasInCents()).containsEntry("00100", 0L);
+            assertThat(journal.getRecovery().getStack(FIFTY)).isEqualTo(2L);
+        }
+    }
+
+    @Test
+    public void accountNumberTooLongForTheJournalIsRejectedBeforeAnythingIsReserved() {
+        givenLatestATMState(Optional.of(TestData.atmState(200, 2, 2, 4, 4)));
+        String accountNumber = "1234567890123456789012345";
+
+        assertThat(withdrawalFailure(() -> atmService.withrawAccountBalance(TERMINAL, accountNumber,
+                new BigDecimal("100")))).isEqualTo(ATMWithdrawException.Reason.UNKNOWN_ACCOUNT);
+        assertThat(withdrawalFailure(() -> atmService.reserveWithdrawal(TERMINAL, accountNumber,
+                new BigDecimal("100")))).isEqualTo(ATMWithdrawException.Reason.UNKNOWN_ACCOUNT);
+        assertThat(atmService.settleWithdrawals(TERMINAL, Collections.singletonList(
+                new SettlementItem(accountNumber, new BigDecimal("100")))))
+                .extracting(SettlementResult::getReason).containsExactly(ATMWithdrawException.Reason.UNKNOWN_ACCOUNT);
+        assertThat(atmStateHolder.current(TERMINAL).get().getAtmBalanceInCents()).isEqualTo(20000L);
+        verifyZeroInteractions(accountService);
+    }
+
+    @Test
+    public void notesOfOpenHoldsAreNotJournaledAsDispensed() throws IOException {
+        givenLatestATMState(Optional.of(TestData.atmState(200, 2, 2, 4, 4)));
+        when(accountService.holdAmount(anyString(), anyString(), anyLong(), any()))
+                .thenReturn(TestData.accountWithdrawTO(true, 20000L));
+        when(accountService.withdrawAmount(anyString(), anyLong())).thenReturn(TestData.accountWithdrawTO(true, 5000L));
+
+        atmService.reserveWithdrawal(TERMINAL, "00100", new BigDecimal("100"));
+        Map<Denomination, Long> dispensed = atmService.withrawAccountBalance(TERMINAL, "00200", new BigDecimal("50"));
+        journals.close();
+        try (TransactionJournal journal = new TransactionJournal(
+                folder.getRoot().toPath().resolve(TERMINAL + ".journal"), 64 * 1024, 5, false, 10)) {
+            // the hold is not journaled, a recovery must not lose its notes
+            assertThat(journal.getRecovery().getStack(FIFTY)).isEqualTo(2L - dispensed.getOrDefault(FIFTY, 0L));
+            assertThat(journal.getRecovery().getStack(TWENTY)).isEqualTo(2L - dispensed.getOrDefault(TWENTY, 0L));
+            assertThat(journal.getRecovery().getStack(TEN)).isEqualTo(4L - dispensed.getOrDefault(TEN, 0L));
+            assertThat(journal.getRecovery().getStack(FIVE)).isEqualTo(4L - dispensed.getOrDefault(FIVE, 0L));
+        }
+    }
+
+    @Test
+    public void withdraw100FromAccount5NoteNotAvailableTest() {
+        ATMState atmState = TestData.atmState(200, 2, 3, 4, 0);
+        BigDecimal withdrawAmount = new BigDecimal("100");
+        AccountWithdrawTO accountWithdrawTO = TestData.accountWithdrawTO(true, 5000L);
+
+        givenLatestATMState(Optional.of(atmState));
+        when(accountService.withdrawAmount(anyString(), anyLong())).thenReturn(accountWithdrawTO);
+
+        Map<Denomination, Long> disbursedNotes = atmService.withrawAccountBalance(TERMINAL, "00100", withdrawAmount);
+        assertThat(disbursedNotes.keySet()).containsOnly(FIFTY);
+        assertThat(disbursedNotes.get(FIFTY)).isEqualTo(2L);
+
+        verify(repository, times(1)).findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL);
+        verifyNoMoreInteractions(repository);
+    }
+
+
+    @Test
+    public void withdraw70FromAccountTest() {
+        ATMState atmState = TestData.atmState(200, 2, 2, 4, 4);
+        BigDecimal withdrawAmount = new BigDecimal("70");
+        AccountWithdrawTO accountWithdrawTO = TestData.accountWithdrawTO(true, 8000L);
+
+        givenLatestATMState(Optional.of(atmState));
+        when(accountService.withdrawAmount(anyString(), anyLong())).thenReturn(accountWithdrawTO);
+
+        Map<Denomination, Long> disbursedNotes = atmService.withrawAccountBalance(TERMINAL, "00100", withdrawAmount);
+        assertThat(disbursedNotes.keySet()).containsOnly(FIVE, TEN, FIFTY);
+        assertThat(disbursedNotes.get(FIVE)).isEqualTo(2L);
+        assertThat(disbursedNotes.get(TEN)).isEqualTo(1L);
+        assertThat(disbursedNotes.get(FIFTY)).isEqualTo(1L);
+
+        verify(repository, times(1)).findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL);
+        verifyNoMoreInteractions(repository);
+    }
+
+    @Test
+    public void withdraw70FromAccount50NotAvailableInAtmTest() {
+        ATMState atmState = TestData.atmState(200, 0, 5, 9, 2);
+        BigDecimal withdrawAmount = new BigDecimal("70");
+        AccountWithdrawTO accountWithdrawTO = TestData.accountWithdrawTO(true, 8000L);
+
+        givenLatestATMState(Optional.of(atmState));
+        when(accountService.withdrawAmount(anyString(), anyLong())).thenReturn(accountWithdrawTO);
+
+        Map<Denomination, Long> disbursedNotes = atmService.withrawAccountBalance(TERMINAL, "00100", withdrawAmount);
+        assertThat(disbursedNotes.keySet()).containsOnly(FIVE, TWENTY);
+        assertThat(disbursedNotes.get(FIVE)).isEqualTo(2L);
+        assertThat(disbursedNotes.get(TWENTY)).isEqualTo(3L);
+
+        verify(repository, times(1)).findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL);
+        verifyNoMoreInteractions(repository);
+    }
+
+    @Test
+    public void withdraw75FromAccountTest() {
+        ATMState atmState = TestData.atmState(200, 2, 2, 4, 4);
+        BigDecimal withdrawAmount = new BigDecimal("75");
+        AccountWithdrawTO accountWithdrawTO = TestData.accountWithdrawTO(true, 7500L);
+
+        givenLatestATMState(Optional.of(atmState));
+        when(accountService.withdrawAmount(anyString(), anyLong())).thenReturn(accountWithdrawTO);
+
+        Map<Denomination, Long> disbursedNotes = atmService.withrawAccountBalance(TERMINAL, "00100", withdrawAmount);
+        assertThat(disbursedNotes.keySet()).containsOnly(FIVE, TWENTY, FIFTY);
+        assertThat(disbursedNotes.get(FIVE)).isEqualTo(1L);
+        assertThat(disbursedNotes.get(TWENTY)).isEqualTo(1L);
+        assertThat(disbursedNotes.get(FIFTY)).isEqualTo(1L);
+
+        verify(repository, times(1)).findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL);
+        verifyNoMoreInteractions(repository);
+    }
+
+    @Test(expected = ATMWithdrawException.class)
+    public void withdraw75FromAccount5NotAvailableInATMExceptionTest() {
+        ATMState atmState = TestData.atmState(200, 2, 3, 4, 0);
+        BigDecimal withdrawAmount = new BigDecimal("75");
+
+        givenLatestATMState(Optional.of(atmState));
+
+        try {
+            atmService.withrawAccountBalance(TERMINAL, "00100", withdrawAmount);
+        } finally {
+            // notes are reserved before the debit, the account is not touched
+            verifyZeroInteractions(accountService);
+        }
+    }
+
+    @Test(expected = ATMWithdrawException.class)
+    public void withdrawLessThan20FromAccountExceptionTest() {
+        ATMState atmState = TestData.atmState(200, 2, 3, 4, 0);
+        BigDecimal withdrawAmount = new BigDecimal("15");
+
+        givenLatestATMState(Optional.of(atmState));
+        atmService.withrawAccountBalance(TERMINAL, "00100", withdrawAmount);
+    }
+
+    @Test(expected = ATMWithdrawException.class)
+    public void withdrawMoreThan250FromAccountExceptionTest() {
+        ATMState atmState = TestData.atmState(300, 4, 3, 4, 0);
+        BigDecimal withdrawAmount = new BigDecimal("255");
+
+        givenLatestATMState(Optional.of(atmState));
+        atmService.withrawAccountBalance(TERMINAL, "00100", withdrawAmount);
+    }
+
+    @Test(expected = ATMWithdrawException.class)
+    public void withdrawAmountWithPenceExceptionTest() {
+        ATMState atmState = TestData.atmState(200, 2, 3, 4, 4);
+        BigDecimal withdrawAmount = new BigDecimal("20.50");
+
+        givenLatestATMState(Optional.of(atmState));
+        try {
+            atmService.withrawAccountBalance(TERMINAL, "00100", withdrawAmount);
+        } finally {
+            // no longer truncated to 20
+            verifyZeroInteractions(accountService);
+        }
+    }
+
+    @Test(expected = ATMWithdrawException.class)
+    public void withdrawMoreThanBalanceFromAccountExceptionTest() {
+        ATMState atmState = TestData.atmState(400, 6, 3, 4, 0);
+        BigDecimal withdrawAmount = new BigDecimal("250");
+        AccountWithdrawTO accountWithdrawTO = TestData.accountWithdrawTO(false, 20000L);
+
+        givenLatestATMState(Optional.of(atmState));
+        when(accountService.withdrawAmount(anyString(), anyLong())).thenReturn(accountWithdrawTO);
+
+        try {
+            atmService.withrawAccountBalance(TERMINAL, "00100", withdrawAmount);
+        } finally {
+            // the reserved notes go back into the ATM
+            assertThat(atmStateHolder.current(TERMINAL).get().getStackOfFifty()).isEqualTo(6L);
+        }
+    }
+
+    @Test
+    public void terminalsHaveSeparateCassettes() {
+        givenLatestATMState(Optional.empty());
+        when(repository.findFirstByTerminalIdOrderByChangeTimeDesc("T2")).thenReturn(Optional.empty());
+        when(accountService.withdrawAmount(anyString(), anyLong())).thenReturn(TestData.accountWithdrawTO(true, 0L));
+        atmService.replenishATM(TERMINAL, ReplenishmentCounts.of(2, 0, 0, 2));
+        atmService.replenishATM("T2", ReplenishmentCounts.of(2, 0, 0, 2));
+
+        atmService.withrawAccountBalance(TERMINAL, "00100", new BigDecimal("55"));
+        assertThat(atmStateHolder.current(TERMINAL).get().getStackOfFifty()).isEqualTo(1L);
+        assertThat(atmStateHolder.current("T2").get().getStackOfFifty()).isEqualTo(2L);
+        assertThat(atmStateHolder.terminal(TERMINAL).inventory()).isNotSameAs(atmStateHolder.terminal("T2").inventory());
+    }
+
+    @Test(expected = ATMWithdrawException.class)
+    public void withdrawFromUnknownTerminalExceptionTest() {
+        try {
+            atmService.withrawAccountBalance("UNKNOWN", "00100", new BigDecimal("20"));
+        } finally {
+            verifyZeroInteractions(accountService, repository);
+        }
+    }
+
+    @Test
+    public void failuresAreCountedByReason() {
+        givenLatestATMState(Optional.of(TestData.atmState(200, 2, 2, 4, 4)));
+        when(accountService.withdrawAmount(anyString(), anyLong()))
+                .thenReturn(null)
+                .thenReturn(TestData.accountWithdrawTO(false, 0L));
+
+        assertThat(withdrawalFailure(TERMINAL, "23")).isEqualTo(ATMWithdrawException.Reason.INVALID_AMOUNT);
+        assertThat(withdrawalFailure(TERMINAL, "300")).isEqualTo(ATMWithdrawException.Reason.OUT_OF_RANGE);
+        assertThat(withdrawalFailure("T2", "50")).isEqualTo(ATMWithdrawException.Reason.NO_ATM_STATE);
+        assertThat(withdrawalFailure(TERMINAL, "250")).isEqualTo(ATMWithdrawException.Reason.INSUFFICIENT_NOTES);
+        assertThat(withdrawalFailure(TERMINAL, "50")).isEqualTo(ATMWithdrawException.Reason.UNKNOWN_ACCOUNT);
+        assertThat(withdrawalFailure(TERMINAL, "50")).isEqualTo(ATMWithdrawException.Reason.INSUFFICIENT_FUNDS);
+
+        for (ATMWithdrawException.Reason reason : EnumSet.range(ATMWithdrawException.Reason.INVALID_AMOUNT,
+                ATMWithdrawException.Reason.INSUFFICIENT_FUNDS)) {
+            assertThat(meterRegistry.get("atm.withdrawal.failures").tag("reason", reason.name()).counter().count())
+                    .isEqualTo(1.0);
+        }
+        assertThat(meterRegistry.get("atm.withdrawal").tag("outcome", "failure").timer().count()).isEqualTo(6L);
+        // the failed debits put their notes back
+        assertThat(atmStateHolder.current(TERMINAL).get().getStackOfFifty()).isEqualTo(2L);
+    }
+
+    @Test
+    public void stagesOfASuccessfulWithdrawalAreTimed() {
+        givenLatestATMState(Optional.of(TestData.atmState(200, 2, 2, 4, 4)));
+        when(accountService.withdrawAmount(anyString(), anyLong())).thenReturn(TestData.accountWithdrawTO(true, 5000L));
+
+        atmService.withrawAccountBalance(TERMINAL, "00100", new BigDecimal("100"));
+        assertThat(meterRegistry.get("atm.withdrawal").tag("outcome", "success").timer().count()).isEqualTo(1L);
+        for (String stage : Arrays.asList("state_lookup", "dispense", "debit", "journal")) {
+            assertThat(meterRegistry.get("atm.withdrawal.stage").tag("stage", stage).timer().count()).isEqualTo(1L);
+        }
+    }
+
+    @Test
+    public void dispensableAmountsFollowWithdrawals() {
+        givenLatestATMState(Optional.of(TestData.atmState(70, 1, 1, 0, 0)));
+        when(accountService.withdrawAmount(anyString(), anyLong())).thenReturn(TestData.accountWithdrawTO(true, 5000L));
+        assertThat(atmService.dispensableAmounts("T2")).isSameAs(DispensableAmounts.NONE);
+        assertThat(atmService.dispensableAmounts(TERMINAL).toList()).containsExactly(20L, 50L, 70L);
+        atmService.withrawAccountBalance(TERMINAL, "00100", new BigDecimal("50"));
+        assertThat(atmService.dispensableAmounts(TERMINAL).toList()).containsExactly(20L);
+    }
+
+    @Test
+    public void reservedWithdrawalIsDebitedOnlyWhenConfirmed() {
+        givenLatestATMState(Optional.of(TestData.atmState(200, 2, 2, 4, 4)));
+        when(accountService.holdAmount(anyString(), eq("00100"), eq(10000L), any()))
+                .thenReturn(TestData.accountWithdrawTO(true, 20000L));
+
+        WithdrawalHold hold = atmService.reserveWithdrawal(TERMINAL, "00100", new BigDecimal("100"));
+        assertThat(hold.getNotes()).containsOnlyKeys(Denomination.FIVE, Denomination.TWENTY, Denomination.FIFTY);
+        assertThat(atmStateHolder.current(TERMINAL).get().getStackOfFifty()).isEqualTo(1L);
+        verify(accountService, never()).withdrawAmount(anyString(), anyLong());
+
+        when(accountService.commitHold(hold.getHoldId())).thenReturn(true);
+        assertThat(atmService.confirmWithdrawal(hold.getHoldId())).isEqualTo(hold.getNotes());
+        assertThat(atmStateHolder.current(TERMINAL).get().getStackOfFifty()).isEqualTo(1L);
+        assertThat(withdrawalFailure(() -> atmService.confirmWithdrawal(hold.getHoldId())))
+                .isEqualTo(ATMWithdrawException.Reason.UNKNOWN_HOLD);
+    }
+
+    @Test
+    public void cancelledWithdrawalPutsNotesBackAndReleasesTheFunds() {
+        givenLatestATMState(Optional.of(TestData.atmState(200, 2, 2, 4, 4)));
+        when(accountService.holdAmount(anyString(), anyString(), anyLong(), any()))
+                .thenReturn(TestData.accountWithdrawTO(true, 20000L));
+
+        WithdrawalHold hold = atmService.reserveWithdrawal(TERMINAL, "00100", new BigDecimal("100"));
+        atmService.cancelWithdrawal(hold.getHoldId());
+        assertThat(atmStateHolder.current(TERMINAL).get().getAtmBalanceInCents()).isEqualTo(20000L);
+        verify(accountService).releaseHold(hold.getHoldId());
+        verify(accountService, never()).commitHold(anyString());
+    }
+
+    @Test
+    public void rejectedHoldPutsNotesBack() {
+        givenLatestATMState(Optional.of(TestData.atmState(200, 2, 2, 4, 4)));
+        when(accountService.holdAmount(anyString(), anyString(), anyLong(), any()))
+                .thenReturn(TestData.accountWithdrawTO(false, 500L));
+
+        assertThat(withdrawalFailure(() -> atmService.reserveWithdrawal(TERMINAL, "00100", new BigDecimal("100"))))
+                .isEqualTo(ATMWithdrawException.Reason.INSUFFICIENT_FUNDS);
+        assertThat(atmStateHolder.current(TERMINAL).get().getAtmBalanceInCents()).isEqualTo(20000L);
+    }
+
+    @Test
+    public void unconfirmedHoldExpires() {
+        atmService = new ATMServiceImpl(atmStateHolder, accountService, -1L, meterRegistry);
+        givenLatestATMState(Optional.of(TestData.atmState(200, 2, 2, 4, 4)));
+        when(accountService.holdAmount(anyString(), anyString(), anyLong(), any()))
+                .thenReturn(TestData.accountWithdrawTO(true, 20000L));
+
+        WithdrawalHold hold = atmService.reserveWithdrawal(TERMINAL, "00100", new BigDecimal("100"));
+        ((ATMServiceImpl) atmService).expireHolds();
+        assertThat(atmStateHolder.current(TERMINAL).get().getAtmBalanceInCents()).isEqualTo(20000L);
+        verify(accountService).releaseHold(hold.getHoldId());
+        verify(accountService).releaseExpiredHolds(any());
+        assertThat(meterRegistry.get("atm.withdrawal.holds.expired").counter().count()).isEqualTo(1.0);
+        assertThat(withdrawalFailure(() -> atmService.confirmWithdrawal(hold.getHoldId())))
+                .isEqualTo(ATMWithdrawException.Reason.UNKNOWN_HOLD);
+    }
+
+    @Test
+    public void holdWhoseConfirmationFailsStaysOpen() {
+        givenLatestATMState(Optional.of(TestData.atmState(200, 2, 2, 4, 4)));
+        when(accountService.holdAmount(anyString(), anyString(), anyLong(), any()))
+                .thenReturn(TestData.accountWithdrawTO(true, 20000L));
+        WithdrawalHold hold = atmService.reserveWithdrawal(TERMINAL, "00100", new BigDecimal("100"));
+        when(accountService.commitHold(hold.getHoldId()))
+                .thenThrow(new IllegalStateException("database down"))
+                .thenReturn(true);
+
+        assertThatThrownBy(() -> atmService.confirmWithdrawal(hold.getHoldId())).isInstanceOf(IllegalStateException.class);
+        assertThat(atmStateHolder.current(TERMINAL).get().getAtmBalanceInCents()).isEqualTo(10000L);
+        assertThat(atmService.confirmWithdrawal(hold.getHoldId())).isEqualTo(hold.getNotes());
+        assertThat(atmStateHolder.current(TERMINAL).get().getAtmBalanceInCents()).isEqualTo(10000L);
+    }
+
+    @Test
+    public void holdWhoseReleaseFailsIsReleasedByTheNextSweep() {
+        atmService = new ATMServiceImpl(atmStateHolder, accountService, -1L, meterRegistry);
+        givenLatestATMState(Optional.of(TestData.atmState(200, 2, 2, 4, 4)));
+        when(accountService.holdAmount(anyString(), anyString(), anyLong(), any()))
+                .thenReturn(TestData.accountWithdrawTO(true, 20000L));
+        WithdrawalHold hold = atmService.reserveWithdrawal(TERMINAL, "00100", new BigDecimal("100"));
+        when(accountService.releaseHold(hold.getHoldId()))
+                .thenThrow(new IllegalStateException("database down"))
+                .thenReturn(true);
+
+        ((ATMServiceImpl) atmService).expireHolds();
+        // the funds are still held, so are the notes
+        assertThat(atmStateHolder.current(TERMINAL).get().getAtmBalanceInCents()).isEqualTo(10000L);
+        assertThat(meterRegistry.get("atm.withdrawal.holds.expired").counter().count()).isEqualTo(0.0);
+
+        ((ATMServiceImpl) atmService).expireHolds();
+        assertThat(atmStateHolder.current(TERMINAL).get().getAtmBalanceInCents()).isEqualTo(20000L);
+        assertThat(meterRegistry.get("atm.withdrawal.holds.expired").counter().count()).isEqualTo(1.0);
+        verify(accountService, times(2)).releaseHold(hold.getHoldId());
+    }
+
+    @Test
+    public void settlementDebitsAllItemsInOneCallAndReportsEveryItem() {
+        givenLatestATMState(Optional.of(TestData.atmState(540, 6, 6, 8, 8)));
+        when(accountService.withdrawAmounts(anyList())).thenReturn(Arrays.asList(
+                TestData.accountWithdrawTO(true, 5000L), null, TestData.accountWithdrawTO(false, 5000L)));
+
+        List<SettlementResult> results = atmService.settleWithdrawals(TERMINAL, Arrays.asList(
+                new SettlementItem("00100", new BigDecimal("100")),
+                new SettlementItem("00100", new BigDecimal("23")),
+                new SettlementItem("00200", new BigDecimal("50")),
+                new SettlementItem("00100", new BigDecimal("20"))));
+
+        assertThat(results).extracting(SettlementResult::getReason).containsExactly(null,
+                ATMWithdrawException.Reason.INVALID_AMOUNT, ATMWithdrawException.Reason.UNKNOWN_ACCOUNT,
+                ATMWithdrawException.Reason.INSUFFICIENT_FUNDS);
+        assertThat(results.get(0).getNotes()).containsOnlyKeys(FIVE, TWENTY, FIFTY);
+        verify(accountService).withdrawAmounts(Arrays.asList(new AccountDebit("00100", 10000L),
+                new AccountDebit("00200", 5000L), new AccountDebit("00100", 2000L)));
+        verify(accountService, never()).withdrawAmount(anyString(), anyLong());
+        // only the settled withdrawal keeps its notes out of the cassettes
+        assertThat(atmStateHolder.current(TERMINAL).get().getAtmBalanceInCents()).isEqualTo(44000L);
+        assertThat(meterRegistry.get("atm.settlement").timer().count()).isEqualTo(1L);
+    }
+
+    @Test
+    public void settlementForTerminalWithoutStateIsRejected() {
+        assertThat(withdrawalFailure(() -> atmService.settleWithdrawals("UNKNOWN",
+                Collections.singletonList(new SettlementItem("00100", new BigDecimal("20"))))))
+                .isEqualTo(ATMWithdrawException.Reason.NO_ATM_STATE);
+        verifyZeroInteractions(accountService);
+    }
+
+    private static ATMWithdrawException.Reason withdrawalFailure(Runnable call) {
+        try {
+            call.run();
+        } catch (ATMWithdrawException e) {
+            return e.getReason();
+        }
+        throw new AssertionError("Call did not fail");
+    }
+
+    private ATMWithdrawException.Reason withdrawalFailure(String terminalId, String amount) {
+        try {
+            atmService.withrawAccountBalance(terminalId, "00100", new BigDecimal(amount));
+        } catch (ATMWithdrawException e) {
+            return e.getReason();
+        }
+        throw new AssertionError("Withdrawal of " + amount + " did not fail");
+    }
+}
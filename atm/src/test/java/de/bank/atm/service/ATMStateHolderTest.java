@@ -0,0 +1,223 @@
+package de.bank.atm.service;
+
+import de.bank.atm.TestData;
+import de.bank.atm.domain.ReplenishmentCounts;
+import de.bank.atm.entity.ATMState;
+import de.bank.atm.journal.TransactionJournal;
+import de.bank.atm.journal.TransactionJournals;
+import de.bank.atm.repository.ATMStateRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static de.bank.atm.domain.Denomination.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ATMStateHolderTest {
+
+    private static final String TERMINAL = "T1";
+
+    private ATMStateHolder atmStateHolder;
+
+    @Mock
+    private ATMStateRepository repository;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private TransactionJournals journals;
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Before
+    public void setUp() throws IOException {
+        journals = new TransactionJournals(folder.getRoot().toPath(), 64 * 1024, 5, false, 10);
+        atmStateHolder = new ATMStateHolder(repository, journals, meterRegistry);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        journals.close();
+    }
+
+    @Test
+    public void recoverLatestPersistedState() {
+        ATMState atmState = TestData.atmState(200, 2, 2, 4, 4);
+        when(repository.findTerminalIds()).thenReturn(Collections.singletonList(TERMINAL));
+        when(repository.findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL)).thenReturn(Optional.of(atmState));
+
+        atmStateHolder.recover();
+        assertThat(atmStateHolder.current(TERMINAL)).isPresent();
+        // served from memory
+        ATMState current = atmStateHolder.current(TERMINAL).get();
+        assertThat(current.getTerminalId()).isEqualTo(TERMINAL);
+        assertThat(current.getStackOfFifty()).isEqualTo(2L);
+        assertThat(current.getStackOfTwenty()).isEqualTo(2L);
+        assertThat(current.getStackOfTen()).isEqualTo(4L);
+        assertThat(current.getStackOfFive()).isEqualTo(4L);
+        assertThat(current.getAtmBalanceInCents()).isEqualTo(20000L);
+        verify(repository, times(1)).findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL);
+    }
+
+    @Test
+    public void recoverFromJournalNewerThanSnapshot() throws IOException {
+        when(repository.findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL)).thenReturn(Optional.empty());
+        atmStateHolder.terminal(TERMINAL).replenish(new ReplenishmentCounts().add(TWENTY, 3));
+        journals.close();
+
+        ATMState olderSnapshot = TestData.atmState(200, 2, 2, 4, 4);
+        olderSnapshot.setChangeTime(LocalDateTime.now().minusMinutes(1));
+        when(repository.findTerminalIds()).thenReturn(Collections.emptyList());
+        when(repository.findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL)).thenReturn(Optional.of(olderSnapshot));
+        journals = new TransactionJournals(folder.getRoot().toPath(), 64 * 1024, 5, false, 10);
+        atmStateHolder = new ATMStateHolder(repository, journals, meterRegistry);
+        // the terminal is found by its journal file
+        atmStateHolder.recover();
+
+        ATMState current = atmStateHolder.current(TERMINAL).get();
+        assertThat(current.getStackOfTwenty()).isEqualTo(3L);
+        assertThat(current.getStackOfFifty()).isEqualTo(0L);
+        // the recovered stacks are written back as a new snapshot
+        atmStateHolder.flush();
+        verify(repository).saveAll(anyList());
+    }
+
+    @Test
+    public void recoverWithoutPersistedState() {
+        when(repository.findTerminalIds()).thenReturn(Collections.emptyList());
+
+        atmStateHolder.recover();
+        assertThat(atmStateHolder.current(TERMINAL)).isEmpty();
+        assertThat(atmStateHolder.find(TERMINAL)).isNull();
+    }
+
+    @Test
+    public void changesAreServedFromMemoryAndWrittenAsOneSnapshotOnFlush() {
+        when(repository.findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL)).thenReturn(Optional.empty());
+        TerminalState terminal = atmStateHolder.terminal(TERMINAL);
+
+        terminal.replenish(new ReplenishmentCounts().add(TEN, 2));
+        terminal.replenish(new ReplenishmentCounts().add(FIFTY, 1));
+        terminal.inventory().reserve(Collections.singletonMap(TEN, 1L));
+        terminal.recordWithdrawal("01001", 1000L, Collections.singletonMap(TEN, 1L));
+        assertThat(atmStateHolder.current(TERMINAL).get().getAtmBalanceInCents()).isEqualTo(6000L);
+
+        atmStateHolder.flush();
+        List<ATMState> savedStates = captureSavedStates(1);
+        assertThat(savedStates).hasSize(1);
+        assertThat(savedStates.get(0).getTerminalId()).isEqualTo(TERMINAL);
+        assertThat(savedStates.get(0).getStackOfTen()).isEqualTo(1L);
+        assertThat(savedStates.get(0).getStackOfFifty()).isEqualTo(1L);
+
+        atmStateHolder.flush();
+        verify(repository, times(1)).saveAll(anyList());
+    }
+
+    @Test
+    public void notesOfAHoldOpenDuringTheFlushAreRecovered() throws IOException {
+        when(repository.findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL)).thenReturn(Optional.empty());
+        TerminalState terminal = atmStateHolder.terminal(TERMINAL);
+        terminal.replenish(new ReplenishmentCounts().add(TWENTY, 5));
+        // reserved for a hold which is never confirmed before the crash
+        terminal.inventory().reserve(Collections.singletonMap(TWENTY, 2L));
+        atmStateHolder.flush();
+        ATMState flushed = captureSavedStates(1).get(0);
+        assertThat(flushed.getStackOfTwenty()).isEqualTo(5L);
+        journals.close();
+
+        // the snapshot is newer than the journal, so it is the one recovered
+        when(repository.findTerminalIds()).thenReturn(Collections.singletonList(TERMINAL));
+        when(repository.findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL)).thenReturn(Optional.of(flushed));
+        journals = new TransactionJournals(folder.getRoot().toPath(), 64 * 1024, 5, false, 10);
+        atmStateHolder = new ATMStateHolder(repository, journals, new SimpleMeterRegistry());
+        atmStateHolder.recover();
+
+        assertThat(atmStateHolder.current(TERMINAL).get().getStackOfTwenty()).isEqualTo(5L);
+        assertThat(atmStateHolder.current(TERMINAL).get().getAtmBalanceInCents()).isEqualTo(10000L);
+    }
+
+    @Test
+    public void flushCheckpointsTheJournal() throws IOException {
+        when(repository.findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL)).thenReturn(Optional.empty());
+        TerminalState terminal = atmStateHolder.terminal(TERMINAL);
+        terminal.replenish(new ReplenishmentCounts().add(TWENTY, 5));
+        terminal.replenish(new ReplenishmentCounts().add(TEN, 1));
+        atmStateHolder.flush();
+        terminal.replenish(new ReplenishmentCounts().add(FIFTY, 1));
+        journals.close();
+
+        // only the record after the flush is replayed, on top of the checkpointed stacks
+        try (TransactionJournal journal = new TransactionJournal(
+                folder.getRoot().toPath().resolve(TERMINAL + ".journal"), 64 * 1024, 5, false, 10)) {
+            assertThat(journal.getRecovery().getCheckpointSequence()).isEqualTo(2L);
+            assertThat(journal.getRecovery().getRecords()).isEqualTo(1L);
+            assertThat(journal.getRecovery().getStack(TWENTY)).isEqualTo(5L);
+            assertThat(journal.getRecovery().getStack(FIFTY)).isEqualTo(1L);
+        }
+    }
+
+    @Test
+    public void flushWritesOneSnapshotPerChangedTerminal() {
+        when(repository.findFirstByTerminalIdOrderByChangeTimeDesc(any())).thenReturn(Optional.empty());
+        atmStateHolder.terminal("T1").replenish(new ReplenishmentCounts().add(TEN, 1));
+        atmStateHolder.terminal("T2").replenish(new ReplenishmentCounts().add(FIFTY, 1));
+        atmStateHolder.flush();
+        assertThat(captureSavedStates(1)).extracting(ATMState::getTerminalId).containsExactlyInAnyOrder("T1", "T2");
+
+        atmStateHolder.terminal("T2").replenish(new ReplenishmentCounts().add(FIFTY, 1));
+        atmStateHolder.flush();
+        assertThat(captureSavedStates(2)).extracting(ATMState::getTerminalId).containsExactly("T2");
+    }
+
+    @Test
+    public void stacksArePublishedAsGauges() {
+        when(repository.findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL)).thenReturn(Optional.empty());
+        TerminalState terminal = atmStateHolder.terminal(TERMINAL);
+        terminal.replenish(new ReplenishmentCounts().add(TWENTY, 7));
+
+        assertThat(meterRegistry.get("atm.cassette.notes").tag("terminal", TERMINAL).tag("denomination", "TWENTY")
+                .gauge().value()).isEqualTo(7.0);
+        terminal.inventory().reserve(Collections.singletonMap(TWENTY, 2L));
+        assertThat(meterRegistry.get("atm.cassette.notes").tag("terminal", TERMINAL).tag("denomination", "TWENTY")
+                .gauge().value()).isEqualTo(5.0);
+    }
+
+    @Test
+    public void failedFlushIsRetried() {
+        when(repository.findFirstByTerminalIdOrderByChangeTimeDesc(TERMINAL)).thenReturn(Optional.empty());
+        when(repository.saveAll(anyList()))
+                .thenThrow(new IllegalStateException("database down"))
+                .thenReturn(null);
+
+        atmStateHolder.terminal(TERMINAL).replenish(new ReplenishmentCounts().add(TEN, 1));
+        try {
+            atmStateHolder.flush();
+        } catch (IllegalStateException expected) {
+            // the change stays unflushed
+        }
+        atmStateHolder.flush();
+        verify(repository, times(2)).saveAll(anyList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ATMState> captureSavedStates(int flushes) {
+        ArgumentCaptor<List<ATMState>> savedStates = ArgumentCaptor.forClass(List.class);
+        verify(repository, times(flushes)).saveAll(savedStates.capture());
+        return savedStates.getValue();
+    }
+}
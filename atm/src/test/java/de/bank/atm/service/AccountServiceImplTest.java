@@ -0,0 +1,428 @@
+package de.bank.atm.service;
+
+import de.bank.atm.TestData;
+import de.bank.atm.cache.AccountBalanceCache;
+import de.bank.atm.domain.AccountDebit;
+import de.bank.atm.domain.AccountWithdrawTO;
+import de.bank.atm.entity.Account;
+import de.bank.atm.entity.AccountHold;
+import de.bank.atm.readmodel.AccountBalanceReadModel;
+import de.bank.atm.repository.AccountBatchRepository;
+import de.bank.atm.repository.AccountHoldRepository;
+import de.bank.atm.repository.AccountRepository;
+import de.bank.atm.repository.AccountRepository.VersionedBalance;
+import de.bank.atm.shard.AccountShards;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(MockitoJUnitRunner.class)
+public class AccountServiceImplTest {
+
+    private AccountService accountService;
+    private AccountBalanceCache balanceCache;
+    private AccountBalanceReadModel balanceReadModel;
+    private SimpleMeterRegistry meterRegistry;
+
+    @Mock
+    private AccountRepository repository;
+    @Mock
+    private AccountHoldRepository holdRepository;
+    @Mock
+    private AccountBatchRepository batchRepository;
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Before
+    public void setUp() {
+        balanceCache = new AccountBalanceCache(100, 60_000);
+        balanceReadModel = new AccountBalanceReadModel(jdbcTemplate, new AccountShards(1, null), true);
+        meterRegistry = new SimpleMeterRegistry();
+        accountService = accountService(DebitMode.STATEMENT);
+    }
+
+    private AccountService accountService(DebitMode debitMode) {
+        return new AccountServiceImpl(repository, holdRepository, batchRepository, balanceCache, balanceReadModel,
+                new OptimisticRetry(3, 0, meterRegistry), debitMode, meterRegistry);
+    }
+
+    @Test
+    public void checkBalanceAccountOneTest() {
+        // TODO: See why the annotation @Mock worked, but method mock() didnot
+        //AccountRepository repository = mock(AccountRepository.class);
+        final String accountNumber = "01001";
+        long expectedAmount = 273859L;
+        when(repository.findOptionalByAccountNumber(accountNumber)).thenReturn(TestData.account1());
+        Long amount = accountService.checkBalance(accountNumber);
+        assertThat(amount).isNotNull();
+        assertThat(amount).isEqualTo(expectedAmount);
+        verify(repository).findOptionalByAccountNumber(accountNumber); // Double check, used only for mocks
+    }
+
+    @Test
+    public void checkBalanceAccountTwoTest() {
+        final String accountNumber = "01002";
+        long expectedAmount = 2300L;
+        when(repository.findOptionalByAccountNumber(accountNumber)).thenReturn(TestData.account2());
+        Long amount = accountService.checkBalance(accountNumber);
+        assertThat(amount).isNotNull();
+        assertThat(amount).isEqualTo(expectedAmount);
+        verify(repository).findOptionalByAccountNumber(accountNumber);
+    }
+
+    @Test
+    public void checkBalanceAccountThreeTest() {
+        final String accountNumber = "01003";
+        long expectedAmount = 0L;
+        when(repository.findOptionalByAccountNumber(accountNumber)).thenReturn(TestData.account3());
+        Long amount = accountService.checkBalance(accountNumber);
+        assertThat(amount).isNotNull();
+        assertThat(amount).isEqualTo(expectedAmount);
+        verify(repository).findOptionalByAccountNumber(accountNumber);
+    }
+
+    @Test
+    public void checkBalanceNoDataFound() {
+        final String accountNumber = "123456";
+        when(repository.findOptionalByAccountNumber(accountNumber)).thenReturn(Optional.empty());
+        Long amount = accountService.checkBalance(accountNumber);
+        assertThat(amount).isNull();
+        verify(repository).findOptionalByAccountNumber(accountNumber);
+    }
+
+    @Test
+    public void checkBalanceIsServedFromCache() {
+        final String accountNumber = "01001";
+        when(repository.findOptionalByAccountNumber(accountNumber)).thenReturn(TestData.account1());
+
+        accountService.checkBalance(accountNumber);
+        Long amount = accountService.checkBalance(accountNumber);
+        assertThat(amount).isEqualTo(273859L);
+        assertThat(balanceCache.hitCount()).isEqualTo(1L);
+        assertThat(balanceCache.missCount()).isEqualTo(1L);
+        verify(repository, times(1)).findOptionalByAccountNumber(accountNumber);
+    }
+
+    @Test
+    public void withdrawUpdatesCachedBalance() {
+        final String accountNumber = "01001";
+        long withdrawAmount = 100000L;
+        long expectedNewBalance = 173859L;
+        when(repository.findOptionalByAccountNumber(accountNumber)).thenReturn(TestData.account1());
+        when(repository.debitIfBalanceAvailable(accountNumber, withdrawAmount)).thenReturn(1);
+        when(repository.findVersionedBalanceByAccountNumber(accountNumber)).thenReturn(Optional.of(versionedBalance(expectedNewBalance, 1L)));
+
+        accountService.checkBalance(accountNumber);
+        accountService.withdrawAmount(accountNumber, withdrawAmount);
+        assertThat(accountService.checkBalance(accountNumber)).isEqualTo(expectedNewBalance);
+        verify(repository, times(1)).findOptionalByAccountNumber(accountNumber);
+    }
+
+    @Test
+    public void checkBalanceIsServedFromReadModelOnceBuilt() {
+        final String accountNumber = "01001";
+        when(repository.debitIfBalanceAvailable(accountNumber, 100000L)).thenReturn(1);
+        when(repository.findVersionedBalanceByAccountNumber(accountNumber)).thenReturn(Optional.of(versionedBalance(173859L, 5L)));
+        balanceReadModel.rebuild();
+
+        accountService.withdrawAmount(accountNumber, 100000L);
+        balanceCache.invalidateAll();
+        assertThat(accountService.checkBalance(accountNumber)).isEqualTo(173859L);
+        assertThat(balanceCache.missCount()).isEqualTo(0L);
+        verify(repository, never()).findOptionalByAccountNumber(accountNumber);
+    }
+
+    @Test
+    public void withdraw1000FromAccount1Test() {
+        final String accountNumber = "01001";
+        long withdrawAmount = 100000L;
+        long expectedNewBalance = 173859L;
+        when(repository.debitIfBalanceAvailable(accountNumber, withdrawAmount)).thenReturn(1);
+        when(repository.findVersionedBalanceByAccountNumber(accountNumber)).thenReturn(Optional.of(versionedBalance(expectedNewBalance, 1L)));
+
+        AccountWithdrawTO accountWithdrawTO = accountService.withdrawAmount(accountNumber, withdrawAmount);
+        assertThat(accountWithdrawTO).isNotNull();
+        assertThat(accountWithdrawTO.isSuccess()).isTrue();
+        assertThat(accountWithdrawTO.getNewBalanceInCents()).isEqualTo(expectedNewBalance);
+        verify(repository).debitIfBalanceAvailable(accountNumber, withdrawAmount);
+        verify(repository, never()).findOptionalByAccountNumber(accountNumber);
+    }
+
+    @Test
+    public void withdraw23FromAccount2Test() {
+        final String accountNumber = "01002";
+        long withdrawAmount = 2300L;
+        long expectedNewBalance = 0L;
+        when(repository.debitIfBalanceAvailable(accountNumber, withdrawAmount)).thenReturn(1);
+        when(repository.findVersionedBalanceByAccountNumber(accountNumber)).thenReturn(Optional.of(versionedBalance(expectedNewBalance, 1L)));
+
+        AccountWithdrawTO accountWithdrawTO = accountService.withdrawAmount(accountNumber, withdrawAmount);
+        assertThat(accountWithdrawTO).isNotNull();
+        assertThat(accountWithdrawTO.isSuccess()).isTrue();
+        assertThat(accountWithdrawTO.getNewBalanceInCents()).isEqualTo(expectedNewBalance);
+        verify(repository).debitIfBalanceAvailable(accountNumber, withdrawAmount);
+    }
+
+    @Test
+    public void cannotWithdrawMoreThan23FromAccount2Test() {
+        final String accountNumber = "01002";
+        long withdrawAmount = 2301L;
+        long expectedNewBalance = 2300L;
+        when(repository.debitIfBalanceAvailable(accountNumber, withdrawAmount)).thenReturn(0);
+        when(repository.findVersionedBalanceByAccountNumber(accountNumber)).thenReturn(Optional.of(versionedBalance(expectedNewBalance, 1L)));
+
+        AccountWithdrawTO accountWithdrawTO = accountService.withdrawAmount(accountNumber, withdrawAmount);
+        assertThat(accountWithdrawTO).isNotNull();
+        assertThat(accountWithdrawTO.isSuccess()).isFalse();
+        assertThat(accountWithdrawTO.getNewBalanceInCents()).isEqualTo(expectedNewBalance);
+        verify(repository).debitIfBalanceAvailable(accountNumber, withdrawAmount);
+    }
+
+    @Test
+    public void cannotWithdraw10FromAccount3Test() {
+        final String accountNumber = "01003";
+        long withdrawAmount = 1000L;
+        long expectedNewBalance = 0L;
+        when(repository.debitIfBalanceAvailable(accountNumber, withdrawAmount)).thenReturn(0);
+        when(repository.findVersionedBalanceByAccountNumber(accountNumber)).thenReturn(Optional.of(versionedBalance(expectedNewBalance, 1L)));
+
+        AccountWithdrawTO accountWithdrawTO = accountService.withdrawAmount(accountNumber, withdrawAmount);
+        assertThat(accountWithdrawTO).isNotNull();
+        assertThat(accountWithdrawTO.isSuccess()).isFalse();
+        assertThat(accountWithdrawTO.getNewBalanceInCents()).isEqualTo(expectedNewBalance);
+        verify(repository).debitIfBalanceAvailable(accountNumber, withdrawAmount);
+    }
+
+    @Test
+    public void cannotWithdrawFromUnknownAccountTest() {
+        final String accountNumber = "123456";
+        long withdrawAmount = 1000L;
+        when(repository.debitIfBalanceAvailable(accountNumber, withdrawAmount)).thenReturn(0);
+        when(repository.findVersionedBalanceByAccountNumber(accountNumber)).thenReturn(Optional.empty());
+
+        AccountWithdrawTO accountWithdrawTO = accountService.withdrawAmount(accountNumber, withdrawAmount);
+        assertThat(accountWithdrawTO).isNull();
+    }
+
+    @Test
+    public void everyDebitModeIsTimedAroundTheWholeDebit() {
+        final String accountNumber = "01002";
+        when(repository.findVersionedBalanceByAccountNumber(accountNumber))
+                .thenReturn(Optional.of(versionedBalance(2300L, 1L)));
+        when(repository.findLockedByAccountNumber(accountNumber)).thenReturn(TestData.account2());
+
+        for (DebitMode debitMode : DebitMode.values()) {
+            assertThat(accountService(debitMode).withdrawAmount(accountNumber, 2301L).isSuccess()).isFalse();
+        }
+        assertThat(meterRegistry.get("atm.account.stage").tag("stage", "debit").timer().count()).isEqualTo(3L);
+        assertThat(meterRegistry.get("atm.account.stage").tag("stage", "balance_read").timer().count()).isEqualTo(0L);
+    }
+
+    @Test
+    public void optimisticDebitRetriesWhenTheVersionChanged() {
+        final String accountNumber = "01001";
+        accountService = accountService(DebitMode.OPTIMISTIC);
+        when(repository.findVersionedBalanceByAccountNumber(accountNumber))
+                .thenReturn(Optional.of(versionedBalance(273859L, 4L)))
+                .thenReturn(Optional.of(versionedBalance(263859L, 5L)));
+        when(repository.updateBalanceIfVersionMatches(accountNumber, 173859L, 4L)).thenReturn(0);
+        when(repository.updateBalanceIfVersionMatches(accountNumber, 163859L, 5L)).thenReturn(1);
+
+        AccountWithdrawTO accountWithdrawTO = accountService.withdrawAmount(accountNumber, 100000L);
+        assertThat(accountWithdrawTO.isSuccess()).isTrue();
+        assertThat(accountWithdrawTO.getNewBalanceInCents()).isEqualTo(163859L);
+        assertThat(meterRegistry.get("atm.optimistic.retries").counter().count()).isEqualTo(1.0);
+        verify(repository, never()).debitIfBalanceAvailable(anyString(), anyLong());
+    }
+
+    @Test
+    public void optimisticDebitGivesUpAfterMaxAttempts() {
+        final String accountNumber = "01001";
+        accountService = accountService(DebitMode.OPTIMISTIC);
+        when(repository.findVersionedBalanceByAccountNumber(accountNumber))
+                .thenReturn(Optional.of(versionedBalance(273859L, 4L)));
+        when(repository.updateBalanceIfVersionMatches(accountNumber, 173859L, 4L)).thenReturn(0);
+
+        assertThatThrownBy(() -> accountService.withdrawAmount(accountNumber, 100000L))
+                .isInstanceOf(OptimisticLockingFailureException.class);
+        verify(repository, times(3)).updateBalanceIfVersionMatches(accountNumber, 173859L, 4L);
+        assertThat(meterRegistry.get("atm.optimistic.exhausted").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void optimisticDebitDoesNotUpdateWhenBalanceIsTooLow() {
+        final String accountNumber = "01002";
+        accountService = accountService(DebitMode.OPTIMISTIC);
+        when(repository.findVersionedBalanceByAccountNumber(accountNumber))
+                .thenReturn(Optional.of(versionedBalance(2300L, 1L)));
+
+        AccountWithdrawTO accountWithdrawTO = accountService.withdrawAmount(accountNumber, 2301L);
+        assertThat(accountWithdrawTO.isSuccess()).isFalse();
+        assertThat(accountWithdrawTO.getNewBalanceInCents()).isEqualTo(2300L);
+        verify(repository, never()).updateBalanceIfVersionMatches(anyString(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void pessimisticDebitChangesTheLockedAccount() {
+        final String accountNumber = "01001";
+        accountService = accountService(DebitMode.PESSIMISTIC);
+        Optional<Account> account = TestData.account1();
+        when(repository.findLockedByAccountNumber(accountNumber)).thenReturn(account);
+
+        AccountWithdrawTO accountWithdrawTO = accountService.withdrawAmount(accountNumber, 100000L);
+        assertThat(accountWithdrawTO.isSuccess()).isTrue();
+        assertThat(account.get().getAmountInCents()).isEqualTo(173859L);
+        assertThat(accountService.withdrawAmount("123456", 100L)).isNull();
+    }
+
+    @Test
+    public void batchDebitsEveryAccountOnceInListOrder() {
+        when(batchRepository.lockBalances(new TreeSet<>(Arrays.asList("01001", "99999"))))
+                .thenReturn(Collections.singletonMap("01001", versionedBalance(1000L, 3L)));
+
+        List<AccountWithdrawTO> results = accountService.withdrawAmounts(Arrays.asList(
+                new AccountDebit("01001", 600L), new AccountDebit("01001", 600L), new AccountDebit("99999", 100L),
+                new AccountDebit("01001", 300L)));
+
+        assertThat(results.get(0).isSuccess()).isTrue();
+        assertThat(results.get(0).getNewBalanceInCents()).isEqualTo(400L);
+        assertThat(results.get(1).isSuccess()).isFalse();
+        assertThat(results.get(2)).isNull();
+        assertThat(results.get(3).isSuccess()).isTrue();
+        assertThat(results.get(3).getNewBalanceInCents()).isEqualTo(100L);
+        assertThat(results.get(3).getVersion()).isEqualTo(4L);
+        verify(batchRepository).updateBalances(Collections.singletonMap("01001", 100L));
+        assertThat(accountService.checkBalance("01001")).isEqualTo(100L);
+        verify(repository, never()).debitIfBalanceAvailable(anyString(), anyLong());
+    }
+
+    @Test
+    public void holdIsStoredOnlyWhenTheBalanceCoversIt() {
+        final String accountNumber = "01002";
+        LocalDateTime expiresAt = LocalDateTime.now().plusSeconds(30);
+        when(repository.holdIfBalanceAvailable(accountNumber, 2000L)).thenReturn(1).thenReturn(0);
+        when(repository.findVersionedBalanceByAccountNumber(accountNumber))
+                .thenReturn(Optional.of(versionedBalance(2300L, 2000L, 1L)));
+
+        assertThat(accountService.holdAmount("h1", accountNumber, 2000L, expiresAt).isSuccess()).isTrue();
+        assertThat(accountService.holdAmount("h2", accountNumber, 2000L, expiresAt).isSuccess()).isFalse();
+        verify(holdRepository).save(new AccountHold("h1", accountNumber, 2000L, expiresAt));
+        verify(holdRepository, times(1)).save(any(AccountHold.class));
+        // an inquiry shows the balance not held
+        assertThat(accountService.checkBalance(accountNumber)).isEqualTo(300L);
+    }
+
+    @Test
+    public void releasedHoldIsAvailableAgain() {
+        final String accountNumber = "01002";
+        balanceReadModel.rebuild();
+        AccountHold hold = new AccountHold("h1", accountNumber, 2000L, LocalDateTime.now());
+        when(holdRepository.findById("h1")).thenReturn(Optional.of(hold));
+        when(holdRepository.removeById("h1")).thenReturn(1);
+        when(repository.releaseHeld(accountNumber, 2000L)).thenReturn(1);
+        when(repository.findVersionedBalanceByAccountNumber(accountNumber))
+                .thenReturn(Optional.of(versionedBalance(2300L, 0L, 2L)));
+
+        balanceReadModel.apply(accountNumber, 300L, 1L);
+        assertThat(accountService.releaseHold("h1")).isTrue();
+        assertThat(accountService.checkBalance(accountNumber)).isEqualTo(2300L);
+    }
+
+    @Test
+    public void committedHoldIsDebitedOnce() {
+        final String accountNumber = "01001";
+        AccountHold hold = new AccountHold("h1", accountNumber, 100000L, LocalDateTime.now());
+        when(holdRepository.findById("h1")).thenReturn(Optional.of(hold));
+        when(holdRepository.removeById("h1")).thenReturn(1).thenReturn(0);
+        when(repository.debitHeld(accountNumber, 100000L)).thenReturn(1);
+        when(repository.findVersionedBalanceByAccountNumber(accountNumber)).thenReturn(Optional.of(versionedBalance(173859L, 1L)));
+
+        assertThat(accountService.commitHold("h1")).isTrue();
+        assertThat(accountService.commitHold("h1")).isFalse();
+        assertThat(accountService.releaseHold("h1")).isFalse();
+        verify(repository, times(1)).debitHeld(accountNumber, 100000L);
+        verify(repository, never()).releaseHeld(anyString(), anyLong());
+        assertThat(accountService.checkBalance(accountNumber)).isEqualTo(173859L);
+    }
+
+    @Test
+    public void holdWhichDebitsNothingIsNotCommitted() {
+        final String accountNumber = "01001";
+        AccountHold hold = new AccountHold("h1", accountNumber, 100000L, LocalDateTime.now());
+        when(holdRepository.findById("h1")).thenReturn(Optional.of(hold));
+        when(holdRepository.removeById("h1")).thenReturn(1);
+        when(repository.debitHeld(accountNumber, 100000L)).thenReturn(0);
+
+        assertThat(accountService.commitHold("h1")).isFalse();
+        verify(repository, never()).findVersionedBalanceByAccountNumber(anyString());
+    }
+
+    @Test
+    public void expiredHoldsAreReleased() {
+        LocalDateTime now = LocalDateTime.now();
+        AccountHold hold = new AccountHold("h1", "01001", 100000L, now.minusSeconds(1));
+        when(holdRepository.findByExpiresAtBefore(now)).thenReturn(Collections.singletonList(hold));
+        when(holdRepository.findById("h1")).thenReturn(Optional.of(hold));
+        when(holdRepository.removeById("h1")).thenReturn(1);
+
+        assertThat(accountService.releaseExpiredHolds(now)).isEqualTo(1);
+        verify(repository).releaseHeld("01001", 100000L);
+    }
+
+    @Test
+    public void releasedHoldGivesTheAmountBack() {
+        AccountHold hold = new AccountHold("h1", "01001", 100000L, LocalDateTime.now());
+        when(holdRepository.findById("h1")).thenReturn(Optional.of(hold));
+        when(holdRepository.removeById("h1")).thenReturn(1);
+
+        assertThat(accountService.releaseHold("h1")).isTrue();
+        verify(repository).releaseHeld("01001", 100000L);
+        verify(repository, never()).debitHeld(anyString(), anyLong());
+    }
+
+    private static VersionedBalance versionedBalance(long amountInCents, long version) {
+        return versionedBalance(amountInCents, 0L, version);
+    }
+
+    private static VersionedBalance versionedBalance(long amountInCents, long heldInCents, long version) {
+        return new VersionedBalance() {
+            @Override
+            public long getAmountInCents() {
+                return amountInCents;
+            }
+
+            @Override
+            public long getHeldInCents() {
+                return heldInCents;
+            }
+
+            @Override
+            public long getVersion() {
+                return version;
+            }
+        };
+    }
+}
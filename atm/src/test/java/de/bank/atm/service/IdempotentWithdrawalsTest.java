@@ -0,0 +1,136 @@
+package de.bank.atm.service;
+
+import de.bank.atm.cache.WithdrawalRequestCache;
+import de.bank.atm.domain.Denomination;
+import de.bank.atm.exception.ATMWithdrawException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static de.bank.atm.domain.Denomination.FIFTY;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IdempotentWithdrawalsTest {
+
+    private static final BigDecimal FIFTY_EUROS = new BigDecimal("50");
+
+    @Mock
+    private ATMServiceImpl atmService;
+
+    private IdempotentWithdrawals withdrawals;
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Before
+    public void setUp() {
+        withdrawals = new IdempotentWithdrawals(atmService, new WithdrawalRequestCache(100, 60_000), meterRegistry);
+    }
+
+    @Test
+    public void retryReturnsTheOriginalNotesWithoutDebitingAgain() {
+        when(atmService.withrawAccountBalance("T1", "1234", FIFTY_EUROS)).thenReturn(Collections.singletonMap(FIFTY, 1L));
+
+        Map<Denomination, Long> first = withdrawals.withrawAccountBalance("T1", "r-1", "1234", FIFTY_EUROS);
+        Map<Denomination, Long> retry = withdrawals.withrawAccountBalance("T1", "r-1", "1234", new BigDecimal("50.00"));
+
+        assertThat(retry).isEqualTo(first);
+        verify(atmService, times(1)).withrawAccountBalance("T1", "1234", FIFTY_EUROS);
+        assertThat(meterRegistry.get("atm.withdrawal.deduplicated").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void requestIdsAreScopedByTerminal() {
+        when(atmService.withrawAccountBalance(anyString(), eq("1234"), eq(FIFTY_EUROS)))
+                .thenReturn(Collections.singletonMap(FIFTY, 1L));
+
+        withdrawals.withrawAccountBalance("T1", "r-1", "1234", FIFTY_EUROS);
+        withdrawals.withrawAccountBalance("T2", "r-1", "1234", FIFTY_EUROS);
+        verify(atmService, times(2)).withrawAccountBalance(anyString(), eq("1234"), eq(FIFTY_EUROS));
+    }
+
+    @Test
+    public void rejectionIsRepeatedForTheRetry() {
+        ATMWithdrawException rejection = new ATMWithdrawException(ATMWithdrawException.Reason.UNKNOWN_ACCOUNT, "no account");
+        when(atmService.withrawAccountBalance("T1", "1234", FIFTY_EUROS)).thenThrow(rejection);
+
+        assertThatThrownBy(() -> withdrawals.withrawAccountBalance("T1", "r-1", "1234", FIFTY_EUROS)).isSameAs(rejection);
+        assertThatThrownBy(() -> withdrawals.withrawAccountBalance("T1", "r-1", "1234", FIFTY_EUROS)).isSameAs(rejection);
+        verify(atmService, times(1)).withrawAccountBalance("T1", "1234", FIFTY_EUROS);
+    }
+
+    @Test
+    public void withdrawalRejectedForMissingFundsOrNotesRunsAgainOnRetry() {
+        when(atmService.withrawAccountBalance("T1", "1234", FIFTY_EUROS))
+                .thenThrow(new ATMWithdrawException(ATMWithdrawException.Reason.INSUFFICIENT_FUNDS, "no funds"))
+                .thenThrow(new ATMWithdrawException(ATMWithdrawException.Reason.INSUFFICIENT_NOTES, "no notes"))
+                .thenReturn(Collections.singletonMap(FIFTY, 1L));
+
+        assertThatThrownBy(() -> withdrawals.withrawAccountBalance("T1", "r-1", "1234", FIFTY_EUROS))
+                .isInstanceOf(ATMWithdrawException.class);
+        assertThatThrownBy(() -> withdrawals.withrawAccountBalance("T1", "r-1", "1234", FIFTY_EUROS))
+                .isInstanceOf(ATMWithdrawException.class);
+        assertThat(withdrawals.withrawAccountBalance("T1", "r-1", "1234", FIFTY_EUROS)).containsEntry(FIFTY, 1L);
+        verify(atmService, times(3)).withrawAccountBalance("T1", "1234", FIFTY_EUROS);
+    }
+
+    @Test
+    public void rolledBackWithdrawalRunsAgainOnRetry() {
+        when(atmService.withrawAccountBalance("T1", "1234", FIFTY_EUROS))
+                .thenThrow(new OptimisticLockingFailureException("conflict"))
+                .thenReturn(Collections.singletonMap(FIFTY, 1L));
+
+        assertThatThrownBy(() -> withdrawals.withrawAccountBalance("T1", "r-1", "1234", FIFTY_EUROS))
+                .isInstanceOf(OptimisticLockingFailureException.class);
+        assertThat(withdrawals.withrawAccountBalance("T1", "r-1", "1234", FIFTY_EUROS)).containsEntry(FIFTY, 1L);
+        verify(atmService, times(2)).withrawAccountBalance("T1", "1234", FIFTY_EUROS);
+    }
+
+    @Test
+    public void reusedRequestIdForAnotherWithdrawalIsRejected() {
+        when(atmService.withrawAccountBalance("T1", "1234", FIFTY_EUROS)).thenReturn(Collections.singletonMap(FIFTY, 1L));
+        withdrawals.withrawAccountBalance("T1", "r-1", "1234", FIFTY_EUROS);
+
+        assertThatThrownBy(() -> withdrawals.withrawAccountBalance("T1", "r-1", "5678", FIFTY_EUROS))
+                .isInstanceOf(IllegalArgumentException.class);
+        verify(atmService, times(1)).withrawAccountBalance(anyString(), anyString(), any());
+    }
+
+    @Test
+    public void retryWaitsForTheWithdrawalInFlight() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(atmService.withrawAccountBalance("T1", "1234", FIFTY_EUROS)).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return Collections.singletonMap(FIFTY, 1L);
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Map<Denomination, Long>> first = executor.submit(() -> withdrawals.withrawAccountBalance("T1", "r-1", "1234", FIFTY_EUROS));
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            Future<Map<Denomination, Long>> retry = executor.submit(() -> withdrawals.withrawAccountBalance("T1", "r-1", "1234", FIFTY_EUROS));
+            release.countDown();
+
+            assertThat(retry.get(5, TimeUnit.SECONDS)).isEqualTo(first.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(atmService, times(1)).withrawAccountBalance("T1", "1234", FIFTY_EUROS);
+    }
+}
@@ -0,0 +1,181 @@
+package de.bank.atm.shard;
+
+import de.bank.atm.domain.ReplenishmentCounts;
+import de.bank.atm.domain.SettlementItem;
+import de.bank.atm.domain.SettlementResult;
+import de.bank.atm.domain.WithdrawalHold;
+import de.bank.atm.exception.ATMWithdrawException.Reason;
+import de.bank.atm.importer.AccountImporter;
+import de.bank.atm.service.ATMService;
+import de.bank.atm.service.AccountService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"atm.journal.directory=target/journal-sharding-test",
+        "atm.account-shards.count=3",
+        "atm.account-shards.url=jdbc:h2:mem:sharding-test-{shard};DB_CLOSE_DELAY=-1"})
+public class AccountShardingTests {
+
+    @Autowired
+    private AccountShards shards;
+    @Autowired
+    private AccountResharder resharder;
+    @Autowired
+    private AccountImporter accountImporter;
+    @Autowired
+    private AccountService accountService;
+    @Autowired
+    private ATMService atmService;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    public void accountsAreStoredOnTheShardOfTheirNumber() throws IOException {
+        accountImporter.importCsv(new StringReader("SH1,100.00\nSH2,100.00\nSH3,100.00\nSH4,100.00\nSH5,100.00\n"));
+
+        for (String accountNumber : Arrays.asList("SH1", "SH2", "SH3", "SH4", "SH5")) {
+            for (int shard = 0; shard < 3; shard++) {
+                assertThat(balanceOnShard(shard, accountNumber))
+                        .isEqualTo(shard == shards.shardOf(accountNumber) ? 1 : 0);
+            }
+        }
+        // the seeded account was moved from shard 0 at startup
+        assertThat(balanceOnShard(shards.shardOf("1234"), "1234")).isEqualTo(1);
+        assertThat(accountService.checkBalance("SH3")).isEqualTo(10000L);
+    }
+
+    @Test
+    public void withdrawalsHoldsAndSettlementsSpanTheShards() throws IOException {
+        accountImporter.importCsv(new StringReader("WS1,200.00\nWS2,200.00\nWS3,200.00\nWS4,200.00\n"));
+        assertThat(Arrays.asList("WS1", "WS2", "WS3", "WS4")).extracting(shards::shardOf).contains(0, 1, 2);
+        atmService.replenishATM("SHARDED", ReplenishmentCounts.of(0, 0, 100, 0));
+
+        atmService.withrawAccountBalance("SHARDED", "WS1", new BigDecimal("40"));
+        WithdrawalHold hold = atmService.reserveWithdrawal("SHARDED", "WS2", new BigDecimal("60"));
+        atmService.confirmWithdrawal(hold.getHoldId());
+        List<SettlementResult> results = atmService.settleWithdrawals("SHARDED", Arrays.asList(
+                new SettlementItem("WS1", new BigDecimal("100")),
+                new SettlementItem("WS2", new BigDecimal("100")),
+                new SettlementItem("WS3", new BigDecimal("200")),
+                new SettlementItem("WS4", new BigDecimal("20")),
+                new SettlementItem("WS4", new BigDecimal("200"))));
+
+        assertThat(results).extracting(SettlementResult::isSuccess).containsExactly(true, true, true, true, false);
+        assertThat(Arrays.asList("WS1", "WS2", "WS3", "WS4")).extracting(accountService::checkBalance)
+                .containsExactly(6000L, 4000L, 0L, 18000L);
+    }
+
+    @Test
+    public void settlementKeepsTheDebitsOfOtherShardsWhenTheSecondShardFails() throws IOException {
+        accountImporter.importCsv(new StringReader("PF1,100.00\nPF2,100.00\nPF3,100.00\nPF4,100.00\nPF5,100.00\n"));
+        List<String> accountNumbers = Arrays.asList("PF1", "PF2", "PF3", "PF4", "PF5");
+        String first = accountNumbers.stream().filter(a -> shards.shardOf(a) == 0).findFirst().get();
+        String second = accountNumbers.stream().filter(a -> shards.shardOf(a) == 1).findFirst().get();
+        atmService.replenishATM("SHARD-FAILURE", ReplenishmentCounts.of(0, 0, 2, 0));
+
+        shards.inTransaction(1, () -> jdbcTemplate.update("alter table account rename to account_offline"));
+        List<SettlementResult> results;
+        try {
+            results = atmService.settleWithdrawals("SHARD-FAILURE", Arrays.asList(
+                    new SettlementItem(first, new BigDecimal("20")),
+                    new SettlementItem(second, new BigDecimal("20"))));
+        } finally {
+            shards.inTransaction(1, () -> jdbcTemplate.update("alter table account_offline rename to account"));
+        }
+
+        assertThat(results).extracting(SettlementResult::getReason).containsExactly(null, Reason.LEDGER_FAILURE);
+        assertThat(Arrays.asList(first, second)).extracting(accountService::checkBalance)
+                .containsExactly(8000L, 10000L);
+        // the notes of the rejected item are back in the cassettes
+        atmService.withrawAccountBalance("SHARD-FAILURE", second, new BigDecimal("20"));
+        assertThat(accountService.checkBalance(second)).isEqualTo(8000L);
+    }
+
+    @Test
+    public void shardDebitIsRefundedWhenTheWithdrawalRollsBack() throws IOException {
+        accountImporter.importCsv(new StringReader("RB1,100.00\nRB2,100.00\n"));
+        atmService.replenishATM("ROLLBACK", ReplenishmentCounts.of(0, 0, 2, 0));
+
+        new TransactionTemplate(transactionManager).execute(status -> {
+            assertThat(accountService.withdrawAmount("RB1", 2000L).isSuccess()).isTrue();
+            assertThat(atmService.settleWithdrawals("ROLLBACK", Arrays.asList(
+                    new SettlementItem("RB1", new BigDecimal("20")),
+                    new SettlementItem("RB2", new BigDecimal("20")))))
+                    .extracting(SettlementResult::isSuccess).containsExactly(true, true);
+            status.setRollbackOnly();
+            return null;
+        });
+
+        assertThat(Arrays.asList("RB1", "RB2")).extracting(accountService::checkBalance)
+                .containsExactly(10000L, 10000L);
+        // the notes are back in the cassettes as well
+        atmService.withrawAccountBalance("ROLLBACK", "RB1", new BigDecimal("40"));
+        assertThat(accountService.checkBalance("RB1")).isEqualTo(6000L);
+    }
+
+    @Test
+    public void settlementFindsAnAccountNotMovedYetWhileResharding() {
+        String misplaced = "MOVE2";
+        int other = (shards.shardOf(misplaced) + 1) % 3;
+        shards.inTransaction(other, () -> jdbcTemplate.update("insert into account (id, account_number, "
+                + "amount_in_cents, held_in_cents, version) values (next value for hibernate_sequence, ?, 5000, 0, 0)",
+                misplaced));
+        atmService.replenishATM("RESHARDING", ReplenishmentCounts.of(0, 0, 2, 0));
+
+        List<SettlementResult> results;
+        shards.setResharding(true);
+        try {
+            results = atmService.settleWithdrawals("RESHARDING",
+                    Collections.singletonList(new SettlementItem(misplaced, new BigDecimal("20"))));
+        } finally {
+            shards.setResharding(false);
+        }
+
+        assertThat(results).extracting(SettlementResult::isSuccess).containsExactly(true);
+        assertThat(resharder.reshard().getMoved()).isEqualTo(1L);
+        assertThat(accountService.checkBalance(misplaced)).isEqualTo(3000L);
+    }
+
+    @Test
+    public void reshardingMovesAccountsToTheirShard() {
+        String misplaced = "MOVE1";
+        int home = shards.shardOf(misplaced);
+        int other = (home + 1) % 3;
+        shards.inTransaction(other, () -> jdbcTemplate.update("insert into account (id, account_number, "
+                + "amount_in_cents, held_in_cents, version) values (next value for hibernate_sequence, ?, 5000, 0, 3)",
+                misplaced));
+        assertThat(accountService.checkBalance(misplaced)).isNull();
+
+        ReshardResult result = resharder.reshard();
+
+        assertThat(result.getMoved()).isEqualTo(1L);
+        assertThat(balanceOnShard(other, misplaced)).isEqualTo(0);
+        assertThat(balanceOnShard(home, misplaced)).isEqualTo(1);
+        assertThat(accountService.checkBalance(misplaced)).isEqualTo(5000L);
+        assertThat(accountService.withdrawAmount(misplaced, 2000L).getVersion()).isEqualTo(4L);
+        assertThat(resharder.reshard().getMoved()).isEqualTo(0L);
+    }
+
+    private int balanceOnShard(int shard, String accountNumber) {
+        return shards.outsideTransaction(shard, () -> jdbcTemplate.queryForObject(
+                "select count(*) from account where account_number = ?", Integer.class, accountNumber));
+    }
+}
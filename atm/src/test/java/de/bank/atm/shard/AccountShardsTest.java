@@ -0,0 +1,44 @@
+package de.bank.atm.shard;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AccountShardsTest {
+
+    @Test
+    public void everyAccountHasOneShardInRange() {
+        AccountShards shards = new AccountShards(4, null);
+        int[] accounts = new int[4];
+        for (int i = 0; i < 10_000; i++) {
+            int shard = shards.shardOf("ACC" + i);
+            assertThat(shard).isBetween(0, 3).isEqualTo(shards.shardOf("ACC" + i));
+            accounts[shard]++;
+        }
+        for (int count : accounts) {
+            assertThat(count).isBetween(2_200, 2_800);
+        }
+    }
+
+    @Test
+    public void anAddedShardOnlyTakesAccountsFromTheOthers() {
+        int moved = 0;
+        for (int i = 0; i < 10_000; i++) {
+            int before = AccountShards.shardOf("ACC" + i, 4);
+            int after = AccountShards.shardOf("ACC" + i, 5);
+            if (before != after) {
+                assertThat(after).isEqualTo(4);
+                moved++;
+            }
+        }
+        assertThat(moved).isBetween(1_700, 2_300);
+    }
+
+    @Test
+    public void aSingleShardRunsTheWorkAsIs() {
+        AccountShards shards = new AccountShards(1, null);
+        assertThat(shards.isSharded()).isFalse();
+        assertThat(shards.shardOf("1234")).isEqualTo(0);
+        assertThat(shards.inTransaction(0, () -> "done")).isEqualTo("done");
+    }
+}
@@ -0,0 +1,244 @@
+package de.bank.atm.web;
+
+import de.bank.atm.TestData;
+import de.bank.atm.domain.Denomination;
+import de.bank.atm.domain.ReplenishmentCounts;
+import de.bank.atm.domain.SettlementItem;
+import de.bank.atm.domain.SettlementResult;
+import de.bank.atm.domain.WithdrawalHold;
+import de.bank.atm.exception.ATMWithdrawException;
+import de.bank.atm.service.ATMService;
+import de.bank.atm.service.DispensableAmounts;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ATMControllerTest {
+
+    private MockMvc mockMvc;
+
+    @Mock
+    private ATMService atmService;
+
+    @Before
+    public void setUp() {
+        mockMvc = MockMvcBuilders.standaloneSetup(new ATMController(atmService, Runnable::run, 3))
+                .setControllerAdvice(new ApiExceptionHandler())
+                .build();
+    }
+
+    @Test
+    public void checkBalance() throws Exception {
+        when(atmService.checkAccountBalance("1234")).thenReturn("2,738.59");
+
+        MvcResult result = mockMvc.perform(get("/api/accounts/1234/balance"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.accountNumber").value("1234"))
+                .andExpect(jsonPath("$.balance").value("2,738.59"));
+    }
+
+    @Test
+    public void checkBalanceOfUnknownAccount() throws Exception {
+        when(atmService.checkAccountBalance("9999")).thenReturn("NOT_FOUND");
+
+        MvcResult result = mockMvc.perform(get("/api/accounts/9999/balance")).andReturn();
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void dispensableAmountsAreAnsweredWithoutTheExecutor() throws Exception {
+        when(atmService.dispensableAmounts("T1")).thenReturn(new DispensableAmounts(0b101L));
+
+        mockMvc.perform(get("/api/terminals/T1/dispensable-amounts"))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.amounts[0]").value(20))
+                .andExpect(jsonPath("$.amounts[1]").value(30))
+                .andExpect(jsonPath("$.mask").value(5));
+    }
+
+    @Test
+    public void withdraw() throws Exception {
+        when(atmService.withrawAccountBalance("T1", "1234", new BigDecimal("50")))
+                .thenReturn(Collections.singletonMap(Denomination.FIFTY, 1L));
+
+        MvcResult result = mockMvc.perform(post("/api/terminals/T1/withdrawals")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"accountNumber\":\"1234\",\"amount\":50}"))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.notes.FIFTY").value(1));
+    }
+
+    @Test
+    public void failedWithdrawalIsUnprocessable() throws Exception {
+        when(atmService.withrawAccountBalance(eq("T1"), eq("1234"), any()))
+                .thenThrow(new ATMWithdrawException(ATMWithdrawException.Reason.INSUFFICIENT_FUNDS, "Could not process request"));
+
+        MvcResult result = mockMvc.perform(post("/api/terminals/T1/withdrawals")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"accountNumber\":\"1234\",\"amount\":15}"))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isUnprocessableEntity())
+                .andExpect(jsonPath("$.error").value("INSUFFICIENT_FUNDS"));
+    }
+
+    @Test
+    public void withdrawalLosingAllRetriesIsConflict() throws Exception {
+        when(atmService.withrawAccountBalance("T1", "1234", new BigDecimal("50")))
+                .thenThrow(new OptimisticLockingFailureException("Account 1234 changed concurrently"));
+
+        MvcResult result = mockMvc.perform(post("/api/terminals/T1/withdrawals")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"accountNumber\":\"1234\",\"amount\":50}"))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.error").value("CONCURRENT_UPDATE"));
+    }
+
+    @Test
+    public void reserveAndConfirmWithdrawal() throws Exception {
+        when(atmService.reserveWithdrawal("T1", "1234", new BigDecimal("50"))).thenReturn(WithdrawalHold.builder()
+                .holdId("h1").terminalId("T1").accountNumber("1234").amountInCents(5000L)
+                .notes(Collections.singletonMap(Denomination.FIFTY, 1L)).build());
+        when(atmService.confirmWithdrawal("h1")).thenReturn(Collections.singletonMap(Denomination.FIFTY, 1L));
+
+        MvcResult reserved = mockMvc.perform(post("/api/terminals/T1/withdrawal-holds")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"accountNumber\":\"1234\",\"amount\":50}"))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(reserved))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.holdId").value("h1"))
+                .andExpect(jsonPath("$.notes.FIFTY").value(1));
+        MvcResult confirmed = mockMvc.perform(post("/api/withdrawal-holds/h1/confirmation")).andReturn();
+        mockMvc.perform(asyncDispatch(confirmed))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.notes.FIFTY").value(1));
+    }
+
+    @Test
+    public void cancelWithdrawal() throws Exception {
+        MvcResult result = mockMvc.perform(delete("/api/withdrawal-holds/h1")).andReturn();
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isNoContent());
+        verify(atmService).cancelWithdrawal("h1");
+    }
+
+    @Test
+    public void withdrawWithoutAmountIsBadRequest() throws Exception {
+        mockMvc.perform(post("/api/terminals/T1/withdrawals")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"accountNumber\":\"1234\"}"))
+                .andExpect(status().isBadRequest());
+        verifyZeroInteractions(atmService);
+    }
+
+    @Test
+    public void replenish() throws Exception {
+        when(atmService.replenishATM(eq("T1"), any(ReplenishmentCounts.class)))
+                .thenReturn(TestData.atmState(100, 2, 0, 0, 0));
+
+        MvcResult result = mockMvc.perform(post("/api/terminals/T1/replenishments")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"fifties\":2}"))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.stackOfFifty").value(2));
+        ArgumentCaptor<ReplenishmentCounts> counts = ArgumentCaptor.forClass(ReplenishmentCounts.class);
+        verify(atmService).replenishATM(eq("T1"), counts.capture());
+        assertThat(counts.getValue().get(Denomination.FIFTY)).isEqualTo(2L);
+    }
+
+    @Test
+    public void withdrawalWithRequestIdPassesTheIdOn() throws Exception {
+        when(atmService.withrawAccountBalance("T1", "r-1", "1234", new BigDecimal("70")))
+                .thenReturn(Collections.singletonMap(Denomination.FIFTY, 1L));
+
+        MvcResult result = mockMvc.perform(post("/api/terminals/T1/withdrawals").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"accountNumber\":\"1234\",\"amount\":70,\"requestId\":\"r-1\"}")).andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.notes.FIFTY").value(1));
+        verify(atmService, never()).withrawAccountBalance(any(), any(), any());
+    }
+
+    @Test
+    public void requestIdReusedForAnotherAmountIsBadRequest() throws Exception {
+        when(atmService.withrawAccountBalance("T1", "r-1", "1234", new BigDecimal("80")))
+                .thenThrow(new IllegalArgumentException("Request id r-1 was used for a different withdrawal"));
+
+        MvcResult result = mockMvc.perform(post("/api/terminals/T1/withdrawals").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"accountNumber\":\"1234\",\"amount\":80,\"requestId\":\"r-1\"}")).andReturn();
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void settlementReportsEveryItem() throws Exception {
+        when(atmService.settleWithdrawals(eq("T1"), any())).thenReturn(Arrays.asList(
+                SettlementResult.settled(new SettlementItem("1234", new BigDecimal("50")),
+                        Collections.singletonMap(Denomination.FIFTY, 1L)),
+                SettlementResult.rejected(new SettlementItem("9999", new BigDecimal("20")),
+                        ATMWithdrawException.Reason.UNKNOWN_ACCOUNT)));
+
+        MvcResult result = mockMvc.perform(post("/api/terminals/T1/settlements")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"withdrawals\":[{\"accountNumber\":\"1234\",\"amount\":50},"
+                        + "{\"accountNumber\":\"9999\",\"amount\":20}]}"))
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.settled").value(1))
+                .andExpect(jsonPath("$.rejected").value(1))
+                .andExpect(jsonPath("$.results[0].notes.FIFTY").value(1))
+                .andExpect(jsonPath("$.results[1].reason").value("UNKNOWN_ACCOUNT"));
+    }
+
+    @Test
+    public void settlementAboveTheItemLimitIsBadRequest() throws Exception {
+        String item = "{\"accountNumber\":\"1234\",\"amount\":20}";
+        mockMvc.perform(post("/api/terminals/T1/settlements")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"withdrawals\":[" + String.join(",", Collections.nCopies(4, item)) + "]}"))
+                .andExpect(status().isBadRequest());
+        verifyZeroInteractions(atmService);
+    }
+
+    @Test
+    public void saturatedExecutorIsServiceUnavailable() throws Exception {
+        mockMvc = MockMvcBuilders.standaloneSetup(new ATMController(atmService, command -> {
+            throw new RejectedExecutionException("queue full");
+        }, 3)).setControllerAdvice(new ApiExceptionHandler()).build();
+
+        mockMvc.perform(get("/api/accounts/1234/balance"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(jsonPath("$.error").value("OVERLOADED"));
+    }
+}
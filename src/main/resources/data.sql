@@ -1 +0,0 @@
-insert into account values(111, '1234', 200);
\ No newline at end of file
@@ -1,16 +0,0 @@
-package de.bank.atm;
-
-import org.junit.Test;
-import org.junit.runner.RunWith;
-import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.test.context.junit4.SpringRunner;
-
-@RunWith(SpringRunner.class)
-@SpringBootTest
-public class AtmApplicationTests {
-
-	@Test
-	public void contextLoads() {
-	}
-
-}